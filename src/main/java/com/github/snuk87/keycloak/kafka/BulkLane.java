@@ -0,0 +1,168 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.jboss.logging.Logger;
+import org.jboss.logging.Logger.Level;
+
+/**
+ * Low priority route for high volume topics such as login or admin events. Records are queued without blocking
+ * the request thread and sent by a dedicated thread on a producer of their own, so a burst cannot exhaust the
+ * {@code buffer.memory} that signups and email verifications are sent through. When the queue is full, records
+ * are shed according to the {@link ShedPolicy}. Records of realms isolated onto their own cluster are queued with
+ * that cluster's producer and sent through it. Failed sends are counted in the stats and logged as warning, rate
+ * limited by the {@link HotPathLog}.
+ */
+public class BulkLane {
+
+	private static final Logger LOG = Logger.getLogger(BulkLane.class);
+
+	public enum ShedPolicy {
+		/** keep what is queued and drop the incoming record */
+		DROP_NEWEST,
+		/** drop the oldest queued record to make room for the incoming one */
+		DROP_OLDEST
+	}
+
+	private final Producer<String, String> producer;
+	private final BlockingQueue<Queued> queue;
+	private final int capacity;
+	private final ShedPolicy policy;
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private HotPathLog hotLog = new HotPathLog(LOG, "BulkLane", false, 5, 60000);
+
+	private volatile boolean running;
+	private volatile String lastFailure;
+
+	private record Queued(ProducerRecord<String, String> record, Producer<String, String> target) {
+	}
+	private Thread sender;
+
+	public BulkLane(Producer<String, String> producer, int capacity, ShedPolicy policy) {
+		this.producer = producer;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	public void useLog(HotPathLog hotLog) {
+		this.hotLog = hotLog;
+	}
+
+	public synchronized void start() {
+		running = true;
+		sender = new Thread(this::drain, "KafkaBulkLane-Thread");
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	public boolean offer(ProducerRecord<String, String> record) {
+		return offer(record, null);
+	}
+
+	/**
+	 * @param target the producer of the realm's cluster, {@code null} for the bulk lane's own producer
+	 */
+	public boolean offer(ProducerRecord<String, String> record, Producer<String, String> target) {
+		Queued queued = new Queued(record, target);
+		if (queue.offer(queued)) {
+			accepted.incrementAndGet();
+			return true;
+		}
+		if (policy == ShedPolicy.DROP_OLDEST) {
+			while (!queue.offer(queued)) {
+				if (queue.poll() != null) {
+					shed();
+				}
+			}
+			accepted.incrementAndGet();
+			return true;
+		}
+		shed();
+		return false;
+	}
+
+	private void shed() {
+		if (dropped.incrementAndGet() % 1000 == 1) {
+			LOG.warnf("Bulk lane full (%d records), shedding events; %d dropped so far", capacity, dropped.get());
+		}
+	}
+
+	private void drain() {
+		while (running || !queue.isEmpty()) {
+			Queued queued;
+			try {
+				queued = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (queued == null) {
+				continue;
+			}
+			ProducerRecord<String, String> record = queued.record();
+			Producer<String, String> target = queued.target() == null ? producer : queued.target();
+			try {
+				long start = System.nanoTime();
+				target.send(record, (metadata, exception) -> {
+					hotLog.count(exception == null ? "SENT" : "FAILED", System.nanoTime() - start);
+					if (exception != null) {
+						fail(record, exception);
+					} else {
+						sent.incrementAndGet();
+					}
+				});
+			} catch (Exception e) {
+				hotLog.count("FAILED", 0);
+				fail(record, e);
+			}
+		}
+	}
+
+	private void fail(ProducerRecord<String, String> record, Exception e) {
+		failed.incrementAndGet();
+		lastFailure = e.getClass().getName() + ": " + e.getMessage();
+		hotLog.log(Level.WARN, e, "Bulk send to '%s' failed, event dropped", record.topic());
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("queued", queue.size());
+		stats.put("capacity", capacity);
+		stats.put("policy", policy.name());
+		stats.put("accepted", accepted.get());
+		stats.put("dropped", dropped.get());
+		stats.put("sent", sent.get());
+		stats.put("failed", failed.get());
+		stats.put("lastFailure", lastFailure);
+		return stats;
+	}
+
+	public void close(Duration timeout) {
+		Thread current;
+		synchronized (this) {
+			running = false;
+			current = sender;
+		}
+		if (current != null) {
+			try {
+				current.join(timeout.toMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			current.interrupt();
+		}
+		producer.close(timeout);
+	}
+}
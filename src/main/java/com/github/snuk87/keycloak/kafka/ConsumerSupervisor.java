@@ -0,0 +1,165 @@
+package com.github.snuk87.keycloak.kafka;
+
+import org.jboss.logging.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs a {@link UserDeletionConsumer} on a worker thread and replaces it when that thread ends while the supervisor
+ * is still running, e.g. after a fenced result producer or an error from Keycloak's storage. Restarts are delayed with
+ * exponential backoff, reset once a consumer stayed up for the maximum backoff. Each restart creates a new consumer in
+ * the same group, so it continues from the committed offsets.
+ */
+public class ConsumerSupervisor {
+    private static final Logger LOG = Logger.getLogger(ConsumerSupervisor.class);
+
+    private final Supplier<UserDeletionConsumer> factory;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final AtomicLong restarts = new AtomicLong();
+
+    private volatile UserDeletionConsumer current;
+    private volatile Thread worker;
+    private volatile boolean running;
+    private volatile String lastFailure;
+    private volatile long lastFailureTimestamp;
+    private volatile long startedAt;
+    private Thread supervisor;
+
+    public ConsumerSupervisor(Supplier<UserDeletionConsumer> factory, long initialBackoffMs, long maxBackoffMs) {
+        this.factory = factory;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    public synchronized void start() {
+        running = true;
+        supervisor = new Thread(this::supervise, "UserDeletionConsumer-Supervisor");
+        supervisor.setDaemon(true);
+        supervisor.start();
+    }
+
+    private void supervise() {
+        long backoffMs = initialBackoffMs;
+        while (running) {
+            AtomicReference<Throwable> uncaught = new AtomicReference<>();
+            Thread thread;
+            try {
+                UserDeletionConsumer consumer = factory.get();
+                thread = new Thread(consumer, "UserDeletionConsumer-Thread");
+                thread.setDaemon(false);
+                thread.setUncaughtExceptionHandler((t, e) -> {
+                    LOG.error("Uncaught exception in UserDeletionConsumer thread", e);
+                    uncaught.set(e);
+                });
+                synchronized (this) {
+                    if (!running) {
+                        return;
+                    }
+                    current = consumer;
+                    worker = thread;
+                    startedAt = System.currentTimeMillis();
+                    thread.start();
+                }
+            } catch (Exception e) {
+                recordFailure(e);
+                LOG.errorf(e, "Failed to create UserDeletionConsumer, retrying in %d ms", backoffMs);
+                backoffMs = backoff(backoffMs);
+                continue;
+            }
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!running) {
+                return;
+            }
+
+            Throwable failure = uncaught.get() != null ? uncaught.get() : current.failure();
+            recordFailure(failure != null ? failure : new IllegalStateException("consumer thread exited"));
+            if (System.currentTimeMillis() - startedAt >= maxBackoffMs) {
+                backoffMs = initialBackoffMs;
+            }
+            LOG.errorf("UserDeletionConsumer died (%s), restarting in %d ms", lastFailure, backoffMs);
+            backoffMs = backoff(backoffMs);
+            if (running) {
+                restarts.incrementAndGet();
+            }
+        }
+    }
+
+    private void recordFailure(Throwable failure) {
+        lastFailure = failure.getClass().getName() + ": " + failure.getMessage();
+        lastFailureTimestamp = System.currentTimeMillis();
+    }
+
+    private synchronized long backoff(long backoffMs) {
+        long deadline = System.currentTimeMillis() + backoffMs;
+        long remaining = backoffMs;
+        while (running && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return Math.min(maxBackoffMs, backoffMs * 2);
+    }
+
+    public UserDeletionConsumer current() {
+        return current;
+    }
+
+    public Map<String, Object> stats() {
+        Thread thread = worker;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("alive", thread != null && thread.isAlive());
+        stats.put("restarts", restarts.get());
+        stats.put("lastFailure", lastFailure);
+        stats.put("lastFailureTimestamp", lastFailureTimestamp);
+        stats.put("uptimeMs", thread != null && thread.isAlive() ? System.currentTimeMillis() - startedAt : 0);
+        return stats;
+    }
+
+    /**
+     * Stops the current consumer and waits for it to close, interrupting it after the timeout.
+     */
+    public void stop(long timeoutMs) throws InterruptedException {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        UserDeletionConsumer consumer = current;
+        Thread thread = worker;
+        if (consumer == null) {
+            return;
+        }
+        LOG.info("Stopping UserDeletionConsumer...");
+        consumer.stop();
+        if (thread != null && thread.isAlive()) {
+            LOG.info("Waiting for consumer thread to finish...");
+            thread.join(timeoutMs);
+            if (thread.isAlive()) {
+                LOG.warn("Consumer thread did not stop in time, interrupting...");
+                thread.interrupt();
+                thread.join(2000);
+                if (thread.isAlive()) {
+                    LOG.error("Consumer thread still alive after interrupt!");
+                } else {
+                    LOG.info("Consumer thread stopped after interrupt");
+                }
+            } else {
+                LOG.info("✓ Consumer thread stopped gracefully");
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.github.snuk87.keycloak.kafka;
+
+public enum DeletionResult {
+    DELETED,
+    NOT_FOUND,
+    FAILED,
+    REJECTED
+}
@@ -0,0 +1,160 @@
+package com.github.snuk87.keycloak.kafka;
+
+import org.jboss.logging.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token bucket limiting user deletions per second. The rate can differ per time-of-day window (e.g. full speed
+ * at night, throttled during the day) and is scaled down while the observed deletion latency exceeds the
+ * target, which is the best signal we have for database pressure from the consumer thread. The user backfill and
+ * reconciliation are limited the same way by instances of their own, named after them in the log.
+ *
+ * <p>Windows are given as {@code HH:mm-HH:mm=rate} separated by commas; a window may wrap midnight and a rate of
+ * {@code 0} stops deletions in that window. Outside any window the base rate applies.
+ */
+public class DeletionScheduler {
+    private static final Logger LOG = Logger.getLogger(DeletionScheduler.class);
+
+    private static final double MIN_FACTOR = 0.1;
+
+    private final String name;
+    private final double baseRate;
+    private final List<Window> windows;
+    private final long targetLatencyNanos;
+    private final Clock clock;
+
+    private double tokens;
+    private Instant lastRefill;
+    private double latencyEwmaNanos;
+    private double adaptiveFactor = 1.0;
+
+    public DeletionScheduler(double baseRate, String windows, long targetLatencyMs, Clock clock) {
+        this("deletions", baseRate, windows, targetLatencyMs, clock);
+    }
+
+    /**
+     * @param name what is limited, e.g. {@code backfill}, used in log messages
+     */
+    public DeletionScheduler(String name, double baseRate, String windows, long targetLatencyMs, Clock clock) {
+        this.name = name;
+        this.baseRate = baseRate;
+        this.windows = parseWindows(windows);
+        this.targetLatencyNanos = Duration.ofMillis(targetLatencyMs).toNanos();
+        this.clock = clock;
+        this.lastRefill = clock.instant();
+        this.tokens = Double.isInfinite(baseRate) ? 0 : Math.max(1, baseRate);
+    }
+
+    public static DeletionScheduler unlimited() {
+        return new DeletionScheduler(Double.POSITIVE_INFINITY, null, 0, Clock.systemDefaultZone());
+    }
+
+    public synchronized boolean tryAcquire() {
+        double rate = currentRate();
+        if (Double.isInfinite(rate)) {
+            return true;
+        }
+        if (rate <= 0) {
+            return false;
+        }
+        refill(rate);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return how long until the next deletion would be admitted, capped at the given maximum
+     */
+    public synchronized Duration timeUntilNextPermit(Duration max) {
+        double rate = currentRate();
+        if (Double.isInfinite(rate)) {
+            return Duration.ZERO;
+        }
+        if (rate <= 0) {
+            return max;
+        }
+        refill(rate);
+        if (tokens >= 1) {
+            return Duration.ZERO;
+        }
+        long nanos = (long) ((1 - tokens) / rate * 1_000_000_000L);
+        return nanos > max.toNanos() ? max : Duration.ofNanos(nanos);
+    }
+
+    public synchronized void recordLatency(long nanos) {
+        if (targetLatencyNanos <= 0) {
+            return;
+        }
+        latencyEwmaNanos = latencyEwmaNanos == 0 ? nanos : latencyEwmaNanos * 0.9 + nanos * 0.1;
+        double previous = adaptiveFactor;
+        if (latencyEwmaNanos > targetLatencyNanos) {
+            adaptiveFactor = Math.max(MIN_FACTOR, adaptiveFactor * 0.8);
+        } else {
+            adaptiveFactor = Math.min(1.0, adaptiveFactor * 1.05);
+        }
+        if (adaptiveFactor < 1.0 && previous == 1.0) {
+            LOG.infof("Latency of %s %.1fms above target, throttling %s", name, latencyEwmaNanos / 1_000_000, name);
+        }
+    }
+
+    public synchronized double currentRate() {
+        double rate = baseRate;
+        LocalTime now = LocalTime.now(clock);
+        for (Window window : windows) {
+            if (window.contains(now)) {
+                rate = window.rate;
+                break;
+            }
+        }
+        return Double.isInfinite(rate) ? rate : rate * adaptiveFactor;
+    }
+
+    private void refill(double rate) {
+        Instant now = clock.instant();
+        double elapsedSeconds = Duration.between(lastRefill, now).toNanos() / 1_000_000_000.0;
+        lastRefill = now;
+        tokens = Math.min(Math.max(1, rate), tokens + elapsedSeconds * rate);
+    }
+
+    private static List<Window> parseWindows(String spec) {
+        List<Window> result = new ArrayList<>();
+        if (spec == null || spec.isBlank()) {
+            return result;
+        }
+        for (String entry : spec.split(",")) {
+            String[] rangeAndRate = entry.trim().split("=");
+            String[] range = rangeAndRate[0].split("-");
+            result.add(new Window(LocalTime.parse(range[0].trim()), LocalTime.parse(range[1].trim()),
+                    Double.parseDouble(rangeAndRate[1].trim())));
+        }
+        return result;
+    }
+
+    private static final class Window {
+        private final LocalTime from;
+        private final LocalTime to;
+        private final double rate;
+
+        private Window(LocalTime from, LocalTime to, double rate) {
+            this.from = from;
+            this.to = to;
+            this.rate = rate;
+        }
+
+        private boolean contains(LocalTime time) {
+            if (from.isBefore(to)) {
+                return !time.isBefore(from) && time.isBefore(to);
+            }
+            return !time.isBefore(from) || time.isBefore(to);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.OperationType;
+
+/**
+ * Routing metadata written as record headers, so consumers can filter on event type, realm or client without
+ * parsing the payload. Header instances for event types, content types and the schema version are created once;
+ * realm and client ids are encoded once and cached, bounded by the given capacity. Only the timestamp, an 8 byte
+ * big-endian epoch millis value, is encoded per record.
+ */
+public class EventHeaders {
+
+	public static final String EVENT_TYPE = "event-type";
+	public static final String REALM_ID = "realm-id";
+	public static final String CLIENT_ID = "client-id";
+	public static final String SCHEMA_VERSION = "schema-version";
+	public static final String CONTENT_TYPE = "content-type";
+	public static final String EVENT_TIMESTAMP = "event-timestamp";
+
+	public static final Header JSON = header(CONTENT_TYPE, "application/json");
+	public static final Header TEXT = header(CONTENT_TYPE, "text/plain");
+
+	private static final Header SCHEMA_V1 = header(SCHEMA_VERSION, "1");
+	private static final Map<EventType, Header> EVENT_TYPES = new EnumMap<>(EventType.class);
+	private static final Map<OperationType, Header> ADMIN_TYPES = new EnumMap<>(OperationType.class);
+
+	static {
+		for (EventType type : EventType.values()) {
+			EVENT_TYPES.put(type, header(EVENT_TYPE, type.name()));
+		}
+		for (OperationType type : OperationType.values()) {
+			ADMIN_TYPES.put(type, header(EVENT_TYPE, "ADMIN_" + type.name()));
+		}
+	}
+
+	private final Map<String, Header> realms = new ConcurrentHashMap<>();
+	private final Map<String, Header> clients = new ConcurrentHashMap<>();
+	private final int capacity;
+
+	public EventHeaders(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public static Header type(EventType type) {
+		return EVENT_TYPES.get(type);
+	}
+
+	public static Header type(OperationType type) {
+		return type == null ? null : ADMIN_TYPES.get(type);
+	}
+
+	public void add(Headers headers, Header type, String realmId, String clientId, long time, Header contentType) {
+		if (type != null) {
+			headers.add(type);
+		}
+		if (realmId != null) {
+			headers.add(cached(realms, REALM_ID, realmId));
+		}
+		if (clientId != null) {
+			headers.add(cached(clients, CLIENT_ID, clientId));
+		}
+		headers.add(SCHEMA_V1);
+		headers.add(contentType);
+		if (time > 0) {
+			byte[] timestamp = new byte[8];
+			for (int i = 7; i >= 0; i--) {
+				timestamp[i] = (byte) time;
+				time >>>= 8;
+			}
+			headers.add(new RecordHeader(EVENT_TIMESTAMP, timestamp));
+		}
+	}
+
+	private Header cached(Map<String, Header> cache, String name, String value) {
+		Header header = cache.get(value);
+		if (header != null) {
+			return header;
+		}
+		header = header(name, value);
+		if (cache.size() < capacity) {
+			cache.putIfAbsent(value, header);
+		}
+		return header;
+	}
+
+	private static Header header(String name, String value) {
+		return new RecordHeader(name, value.getBytes(StandardCharsets.UTF_8));
+	}
+}
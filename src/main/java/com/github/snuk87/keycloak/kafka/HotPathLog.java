@@ -0,0 +1,206 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.logging.Logger;
+import org.jboss.logging.Logger.Level;
+import org.keycloak.Config.Scope;
+
+/**
+ * Logging for per-record paths. Messages are rate limited per format: at most the given number per second are
+ * written, the next one that gets through reports how many were suppressed. Outcomes are counted with their latency
+ * and logged as one summary line per interval, by the first thread that records an outcome after the interval
+ * ended, or by the summary timer once {@link #startSummaries()} was called, so the last interval before traffic
+ * stops is reported as well. {@link #close()} writes what is left. In full mode every message is written as before.
+ * Messages are only formatted if they are written.
+ */
+public class HotPathLog {
+
+	private static final ScheduledExecutorService SUMMARIES = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "KafkaLogSummary-Thread");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Logger log;
+	private final String name;
+	private final boolean full;
+	private final int perSecond;
+	private final long intervalNanos;
+	private final Map<String, Sampler> samplers = new ConcurrentHashMap<>();
+	private final Map<String, Outcome> outcomes = new ConcurrentHashMap<>();
+	private final AtomicLong intervalStart = new AtomicLong(System.nanoTime());
+	private final AtomicLong suppressedInInterval = new AtomicLong();
+	private ScheduledFuture<?> summaries;
+
+	private static final class Sampler {
+		private final AtomicLong second = new AtomicLong();
+		private final AtomicInteger written = new AtomicInteger();
+		private final AtomicLong suppressed = new AtomicLong();
+	}
+
+	private static final class Outcome {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+	}
+
+	public HotPathLog(Logger log, String name, boolean full, int perSecond, long intervalMs) {
+		this.log = log;
+		this.name = name;
+		this.full = full;
+		this.perSecond = perSecond;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+	}
+
+	/**
+	 * Reads {@code KAFKA_LOG_FULL} (default {@code false}), {@code KAFKA_LOG_SAMPLES_PER_SECOND} (default {@code 5})
+	 * and {@code KAFKA_LOG_SUMMARY_INTERVAL_MS} (default {@code 60000}), and starts the summary timer.
+	 */
+	public static HotPathLog create(Logger log, String name, Scope config) {
+		HotPathLog hotLog = new HotPathLog(log, name,
+				Boolean.parseBoolean(config.get("logFull", System.getenv().getOrDefault("KAFKA_LOG_FULL", "false"))),
+				Integer.parseInt(config.get("logSamplesPerSecond",
+						System.getenv().getOrDefault("KAFKA_LOG_SAMPLES_PER_SECOND", "5"))),
+				Long.parseLong(config.get("logSummaryIntervalMs",
+						System.getenv().getOrDefault("KAFKA_LOG_SUMMARY_INTERVAL_MS", "60000"))));
+		hotLog.startSummaries();
+		return hotLog;
+	}
+
+	public void log(Level level, String format, Object param1) {
+		if (log.isEnabled(level)) {
+			write(level, null, format, param1);
+		}
+	}
+
+	public void log(Level level, String format, Object param1, Object param2) {
+		if (log.isEnabled(level)) {
+			write(level, null, format, param1, param2);
+		}
+	}
+
+	public void log(Level level, String format, Object param1, Object param2, Object param3) {
+		if (log.isEnabled(level)) {
+			write(level, null, format, param1, param2, param3);
+		}
+	}
+
+	public void log(Level level, Throwable t, String format, Object param1) {
+		if (log.isEnabled(level)) {
+			write(level, t, format, param1);
+		}
+	}
+
+	public void log(Level level, Throwable t, String format, Object param1, Object param2) {
+		if (log.isEnabled(level)) {
+			write(level, t, format, param1, param2);
+		}
+	}
+
+	public void log(Level level, Throwable t, String format, Object param1, Object param2, Object param3) {
+		if (log.isEnabled(level)) {
+			write(level, t, format, param1, param2, param3);
+		}
+	}
+
+	private void write(Level level, Throwable t, String format, Object... params) {
+		if (full) {
+			log.logf(level, t, format, params);
+			return;
+		}
+		Sampler sampler = samplers.computeIfAbsent(format, f -> new Sampler());
+		long second = System.nanoTime() / 1_000_000_000L;
+		long current = sampler.second.get();
+		if (current != second && sampler.second.compareAndSet(current, second)) {
+			sampler.written.set(0);
+		}
+		if (sampler.written.incrementAndGet() > perSecond) {
+			sampler.suppressed.incrementAndGet();
+			suppressedInInterval.incrementAndGet();
+			return;
+		}
+		long suppressed = sampler.suppressed.getAndSet(0);
+		if (suppressed > 0) {
+			Object[] withSuppressed = Arrays.copyOf(params, params.length + 1);
+			withSuppressed[params.length] = suppressed;
+			log.logf(level, t, format + " (%" + withSuppressed.length + "$d similar suppressed)", withSuppressed);
+		} else {
+			log.logf(level, t, format, params);
+		}
+	}
+
+	/**
+	 * Counts an outcome for the summary, e.g. {@code DELETED} with the time it took.
+	 */
+	public void count(String outcome, long latencyNanos) {
+		Outcome counter = outcomes.computeIfAbsent(outcome, o -> new Outcome());
+		counter.count.increment();
+		counter.totalNanos.add(latencyNanos);
+		long max;
+		while (latencyNanos > (max = counter.maxNanos.get()) && !counter.maxNanos.compareAndSet(max, latencyNanos)) {
+			// retry
+		}
+		summarizeIfDue();
+	}
+
+	private void summarizeIfDue() {
+		long now = System.nanoTime();
+		long start = intervalStart.get();
+		if (now - start >= intervalNanos && intervalStart.compareAndSet(start, now)) {
+			summarize(now - start);
+		}
+	}
+
+	/**
+	 * Writes the summary every interval from a timer, also when no outcome is counted any more.
+	 */
+	public synchronized void startSummaries() {
+		long intervalMs = TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+		if (summaries == null && intervalMs > 0) {
+			summaries = SUMMARIES.scheduleAtFixedRate(this::summarizeIfDue, intervalMs, intervalMs,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops the summary timer and writes the summary of the current interval.
+	 */
+	public synchronized void close() {
+		if (summaries != null) {
+			summaries.cancel(false);
+			summaries = null;
+		}
+		long now = System.nanoTime();
+		summarize(now - intervalStart.getAndSet(now));
+	}
+
+	private void summarize(long elapsedNanos) {
+		StringJoiner summary = new StringJoiner(", ");
+		outcomes.forEach((outcome, counter) -> {
+			long count = counter.count.sumThenReset();
+			long total = counter.totalNanos.sumThenReset();
+			long max = counter.maxNanos.getAndSet(0);
+			if (count > 0) {
+				summary.add(String.format("%s=%d (avg %.2fms, max %.2fms)", outcome, count,
+						total / 1_000_000.0 / count, max / 1_000_000.0));
+			}
+		});
+		long suppressed = suppressedInInterval.getAndSet(0);
+		if (summary.length() == 0 && suppressed == 0) {
+			return;
+		}
+		log.infof("%s in the last %ds: %s; %d log messages suppressed", name,
+				TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), summary, suppressed);
+	}
+}
@@ -0,0 +1,235 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.ForbiddenException;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotAuthorizedException;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.apache.kafka.common.config.ConfigException;
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.models.AdminRoles;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.Constants;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.resource.RealmResourceProvider;
+
+/**
+ * Exposes pipeline stats, user backfill, reconciliation and deletion consumer controls under
+ * {@code /realms/{realm}/kafka-admin}. Stats and the producer and consumer controls affect every realm, so they
+ * require the {@code admin} role of the master realm and are only available under it. Backfill and reconciliation
+ * act on the realm of the URL only; reading requires {@code view-realm}, controls require {@code manage-realm} of
+ * the realm's {@code realm-management} client.
+ */
+public class KafkaAdminResourceProvider implements RealmResourceProvider {
+
+	private static final Logger LOG = Logger.getLogger(KafkaAdminResourceProvider.class);
+
+	private final KeycloakSession session;
+
+	public KafkaAdminResourceProvider(KeycloakSession session) {
+		this.session = session;
+	}
+
+	@Override
+	public Object getResource() {
+		return this;
+	}
+
+	@GET
+	@Path("stats")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> stats() {
+		requireServerAdmin();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		KafkaEventListenerProviderFactory producerFactory = producerFactory();
+		if (producerFactory != null) {
+			stats.put("producer", producerFactory.producerStats());
+		}
+		KafkaEventListenerConsumerFactory consumerFactory = consumerFactory();
+		Map<String, Object> consumerStats = consumerFactory == null ? null : consumerFactory.consumerStats();
+		if (consumerStats != null) {
+			stats.put("consumer", consumerStats);
+		}
+		return stats;
+	}
+
+	@POST
+	@Path("consumer/pause")
+	public Response pause() {
+		requireServerAdmin();
+		requireConsumer().pause();
+		return Response.accepted().build();
+	}
+
+	@POST
+	@Path("consumer/resume")
+	public Response resume() {
+		requireServerAdmin();
+		requireConsumer().resume();
+		return Response.accepted().build();
+	}
+
+	@POST
+	@Path("consumer/seek/{partition}/{offset}")
+	public Response seek(@PathParam("partition") int partition, @PathParam("offset") long offset) {
+		requireServerAdmin();
+		requireConsumer().seek(partition, offset);
+		return Response.accepted().build();
+	}
+
+	@POST
+	@Path("producer/reconfigure")
+	@Consumes(MediaType.APPLICATION_JSON)
+	public Response reconfigureProducer(Map<String, Object> overrides) {
+		requireServerAdmin();
+		try {
+			requireProducerFactory().reconfigure(overrides);
+		} catch (ConfigException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		return Response.noContent().build();
+	}
+
+	@GET
+	@Path("backfill")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> backfillStatus() {
+		requireRole(AdminRoles.VIEW_REALM);
+		return requireProducerFactory().backfillStatus(session.getContext().getRealm().getName());
+	}
+
+	@POST
+	@Path("backfill")
+	public Response startBackfill() {
+		requireRole(AdminRoles.MANAGE_REALM);
+		if (!requireProducerFactory().startBackfill(session.getContext().getRealm().getName())) {
+			return Response.status(Response.Status.CONFLICT).entity("Backfill already running").build();
+		}
+		return Response.accepted().build();
+	}
+
+	@POST
+	@Path("backfill/cancel")
+	public Response cancelBackfill() {
+		requireRole(AdminRoles.MANAGE_REALM);
+		if (!requireProducerFactory().cancelBackfill(session.getContext().getRealm().getName())) {
+			throw new NotFoundException("No backfill of this realm is running");
+		}
+		return Response.accepted().build();
+	}
+
+	@GET
+	@Path("reconcile")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> reconcileStatus() {
+		requireRole(AdminRoles.VIEW_REALM);
+		return requireProducerFactory().reconcileStatus(session.getContext().getRealm().getName());
+	}
+
+	@POST
+	@Path("reconcile/digests")
+	public Response publishDigests() {
+		requireRole(AdminRoles.MANAGE_REALM);
+		if (!requireProducerFactory().publishDigests(session.getContext().getRealm().getName())) {
+			throw new NotFoundException("User reconciliation is not configured");
+		}
+		return Response.accepted().build();
+	}
+
+	@POST
+	@Path("consumer/reconfigure")
+	@Consumes(MediaType.APPLICATION_JSON)
+	public Response reconfigureConsumer(Map<String, Object> overrides) {
+		requireServerAdmin();
+		requireConsumer();
+		try {
+			consumerFactory().reconfigure(overrides);
+		} catch (ConfigException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		return Response.accepted().build();
+	}
+
+	private void requireRole(String roleName) {
+		UserModel user = authenticate();
+		RealmModel realm = session.getContext().getRealm();
+		ClientModel realmManagement = realm.getClientByClientId(Constants.REALM_MANAGEMENT_CLIENT_ID);
+		RoleModel role = realmManagement == null ? null : realmManagement.getRole(roleName);
+		if (role == null || !user.hasRole(role)) {
+			LOG.debugf("User '%s' lacks role '%s' for kafka admin resource", user.getUsername(), roleName);
+			throw new ForbiddenException();
+		}
+	}
+
+	private void requireServerAdmin() {
+		UserModel user = authenticate();
+		RealmModel realm = session.getContext().getRealm();
+		RoleModel role = Config.getAdminRealm().equals(realm.getName()) ? realm.getRole(AdminRoles.ADMIN) : null;
+		if (role == null || !user.hasRole(role)) {
+			LOG.debugf("User '%s' of realm '%s' is not a server admin, kafka pipeline controls denied",
+					user.getUsername(), realm.getName());
+			throw new ForbiddenException();
+		}
+	}
+
+	private UserModel authenticate() {
+		AuthenticationManager.AuthResult auth = new AppAuthManager.BearerTokenAuthenticator(session).authenticate();
+		if (auth == null) {
+			throw new NotAuthorizedException("Bearer");
+		}
+		return auth.getUser();
+	}
+
+	private KafkaEventListenerProviderFactory producerFactory() {
+		return (KafkaEventListenerProviderFactory) session.getKeycloakSessionFactory()
+				.getProviderFactory(EventListenerProvider.class, "kafka");
+	}
+
+	private KafkaEventListenerProviderFactory requireProducerFactory() {
+		KafkaEventListenerProviderFactory producerFactory = producerFactory();
+		if (producerFactory == null) {
+			throw new NotFoundException("Kafka producer is not deployed");
+		}
+		return producerFactory;
+	}
+
+	private KafkaEventListenerConsumerFactory consumerFactory() {
+		return (KafkaEventListenerConsumerFactory) session.getKeycloakSessionFactory()
+				.getProviderFactory(EventListenerProvider.class, "kafka-consumer-delete-user");
+	}
+
+	private UserDeletionConsumer deletionConsumer() {
+		KafkaEventListenerConsumerFactory consumerFactory = consumerFactory();
+		return consumerFactory == null ? null : consumerFactory.getConsumer();
+	}
+
+	private UserDeletionConsumer requireConsumer() {
+		UserDeletionConsumer consumer = deletionConsumer();
+		if (consumer == null) {
+			throw new NotFoundException("User deletion consumer is not running");
+		}
+		return consumer;
+	}
+
+	@Override
+	public void close() {
+		// ignore
+	}
+}
@@ -0,0 +1,37 @@
+package com.github.snuk87.keycloak.kafka;
+
+import org.keycloak.Config.Scope;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+public class KafkaAdminResourceProviderFactory implements RealmResourceProviderFactory {
+
+	private static final String ID = "kafka-admin";
+
+	@Override
+	public RealmResourceProvider create(KeycloakSession session) {
+		return new KafkaAdminResourceProvider(session);
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	public void init(Scope config) {
+		// ignore
+	}
+
+	@Override
+	public void postInit(KeycloakSessionFactory factory) {
+		// ignore
+	}
+
+	@Override
+	public void close() {
+		// ignore
+	}
+}
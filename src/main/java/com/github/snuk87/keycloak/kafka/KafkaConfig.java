@@ -1,16 +1,27 @@
 package com.github.snuk87.keycloak.kafka;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+import org.jboss.logging.Logger;
 import org.keycloak.Config.Scope;
 
 public abstract class KafkaConfig {
 
+  private static final Logger LOG = Logger.getLogger(KafkaConfig.class);
+
   public static Map<String, Object> init(Scope scope, KafkaProperty[] properties) {
+    return init(scope, properties, System.getenv());
+  }
+
+  public static Map<String, Object> init(Scope scope, KafkaProperty[] properties, Map<String, String> env) {
     Map<String, Object> propertyMap = new HashMap<>();
 
     for (KafkaProperty property : properties) {
-      String envValue = System.getenv("KAFKA_" + property.name());
+      String envValue = env.get("KAFKA_" + property.name());
       String scopeValue = scope.get(property.getName(), envValue);
 
       if (property == KafkaProperty.SSL_ENDPOINT_IDENTIFICATION_ALGORITHM &&
@@ -24,6 +35,96 @@ public abstract class KafkaConfig {
     return propertyMap;
   }
 
+  /**
+   * Collects every {@code KAFKA_<CLIENT>_*} environment variable and every {@code <client>.*} SPI scope key
+   * (scope wins) as a client property, e.g. {@code KAFKA_CONSUMER_MAX_PARTITION_FETCH_BYTES} becomes
+   * {@code max.partition.fetch.bytes}. Each value is validated and coerced against the client's
+   * {@link ConfigDef}; unknown keys and invalid values fail the startup with a {@link ConfigException}.
+   */
+  public static Map<String, Object> passthrough(Scope scope, Map<String, String> env, String client,
+                                                ConfigDef definition) {
+    return passthrough(scope, env, "KAFKA_" + client.toUpperCase(Locale.ROOT) + "_", client + ".", definition);
+  }
+
+  /**
+   * Like {@link #passthrough(Scope, Map, String, ConfigDef)} with explicit prefixes. SPI scope keys are matched
+   * with '-' read as '.', so {@code scopePrefix} uses dots, e.g. {@code cluster.big.tenant.producer.} matches
+   * {@code cluster-big-tenant-producer-linger-ms}.
+   */
+  public static Map<String, Object> passthrough(Scope scope, Map<String, String> env, String envPrefix,
+                                                String scopePrefix, ConfigDef definition) {
+    Map<String, Object> propertyMap = new HashMap<>();
+
+    for (Map.Entry<String, String> entry : env.entrySet()) {
+      if (entry.getKey().startsWith(envPrefix)) {
+        String name = entry.getKey().substring(envPrefix.length()).toLowerCase(Locale.ROOT).replace('_', '.');
+        propertyMap.put(name, coerce(definition, name, entry.getValue(), entry.getKey()));
+      }
+    }
+
+    for (String key : scope.getPropertyNames()) {
+      String normalized = key.replace('-', '.');
+      if (normalized.startsWith(scopePrefix)) {
+        String name = normalized.substring(scopePrefix.length());
+        propertyMap.put(name, coerce(definition, name, scope.get(key), "SPI option " + key));
+      }
+    }
+
+    return propertyMap;
+  }
+
+  /**
+   * Validates properties changed at runtime. Only the given tuning properties may be changed; connection, security,
+   * identity and plug-in class settings are rejected with a {@link ConfigException}.
+   */
+  public static Map<String, Object> validate(Map<String, Object> properties, ConfigDef definition,
+                                             Set<String> tunable, String source) {
+    Map<String, Object> propertyMap = new HashMap<>();
+    properties.forEach((name, value) -> propertyMap.put(name, coerceTunable(definition, tunable, name, value, source)));
+    return propertyMap;
+  }
+
+  /**
+   * Like {@link #validate(Map, ConfigDef, Set, String)}, but invalid properties are logged and left out instead of
+   * failing, for values read at startup that must not keep the clients from being created.
+   */
+  public static Map<String, Object> validValues(Map<String, Object> properties, ConfigDef definition,
+                                                Set<String> tunable, String source) {
+    Map<String, Object> propertyMap = new HashMap<>();
+    properties.forEach((name, value) -> {
+      try {
+        propertyMap.put(name, coerceTunable(definition, tunable, name, value, source));
+      } catch (ConfigException e) {
+        LOG.warnf("Ignoring Kafka property: %s", e.getMessage());
+      }
+    });
+    return propertyMap;
+  }
+
+  private static Object coerceTunable(ConfigDef definition, Set<String> tunable, String name, Object value,
+                                      String source) {
+    if (!tunable.contains(name)) {
+      throw new ConfigException("Kafka property '" + name + "' set by " + source + " cannot be changed at runtime");
+    }
+    return coerce(definition, name, value, source);
+  }
+
+  private static Object coerce(ConfigDef definition, String name, Object value, String source) {
+    ConfigDef.ConfigKey key = definition.configKeys().get(name);
+    if (key == null) {
+      throw new ConfigException("Unknown Kafka property '" + name + "' set by " + source);
+    }
+    try {
+      Object parsed = ConfigDef.parseType(name, value, key.type);
+      if (key.validator != null) {
+        key.validator.ensureValid(name, parsed);
+      }
+      return parsed;
+    } catch (ConfigException e) {
+      throw new ConfigException(name, value, "set by " + source + ": " + e.getMessage());
+    }
+  }
+
   public enum KafkaProperty {
     BOOTSTRAP_SERVERS("bootstrap.servers"),
     SECURITY_PROTOCOL("security.protocol"),
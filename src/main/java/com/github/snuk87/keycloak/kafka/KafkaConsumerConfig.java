@@ -1,8 +1,10 @@
 package com.github.snuk87.keycloak.kafka;
 
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.keycloak.Config.Scope;
 
 import java.util.Map;
+import java.util.Set;
 
 public class KafkaConsumerConfig extends KafkaConfig {
 
@@ -13,26 +15,51 @@ public class KafkaConsumerConfig extends KafkaConfig {
         FETCH_MIN_BYTES("fetch.min.bytes"),
         FETCH_MAX_BYTES("fetch.max.bytes"),
         MAX_POLL_RECORDS("max.poll.records"),
+        GROUP_INSTANCE_ID("group.instance.id"),
+        CLIENT_RACK("client.rack"),
         ;
         private final String name;
         ConsumerProperty(String name) { this.name = name; }
         public String getName() { return name; }
     }
 
+    /**
+     * Properties that may be changed through the tuning file and the admin endpoint.
+     */
+    public static final Set<String> TUNABLE = Set.of("max.poll.records", "max.poll.interval.ms", "fetch.min.bytes",
+            "fetch.max.bytes", "fetch.max.wait.ms", "max.partition.fetch.bytes", "session.timeout.ms",
+            "heartbeat.interval.ms", "request.timeout.ms", "default.api.timeout.ms", "retry.backoff.ms",
+            "retry.backoff.max.ms", "reconnect.backoff.ms", "reconnect.backoff.max.ms", "send.buffer.bytes",
+            "receive.buffer.bytes", "metadata.max.age.ms", "connections.max.idle.ms");
+
     public static Map<String, Object> initConsumer(Scope scope) {
+        return initConsumer(scope, System.getenv());
+    }
+
+    public static Map<String, Object> initConsumer(Scope scope, Map<String, String> env) {
         KafkaProperty[] common = KafkaProperty.values();
         ConsumerProperty[] specific = ConsumerProperty.values();
 
-        Map<String, Object> props = KafkaConfig.init(scope, common);
+        Map<String, Object> props = KafkaConfig.init(scope, common, env);
 
         for (ConsumerProperty c : specific) {
-            String envValue = System.getenv("KAFKA_" + c.name());
+            String envValue = env.get("KAFKA_" + c.name());
             String scopeValue = scope.get(c.getName(), envValue);
             if (scopeValue != null) {
                 props.put(c.getName(), scopeValue);
             }
         }
 
+        props.putAll(passthrough(scope, env, "consumer", ConsumerConfig.configDef()));
+
         return props;
     }
+
+    public static Map<String, Object> validate(Map<String, Object> properties, String source) {
+        return validate(properties, ConsumerConfig.configDef(), TUNABLE, source);
+    }
+
+    public static Map<String, Object> validValues(Map<String, Object> properties, String source) {
+        return validValues(properties, ConsumerConfig.configDef(), TUNABLE, source);
+    }
 }
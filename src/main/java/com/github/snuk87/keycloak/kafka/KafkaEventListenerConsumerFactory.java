@@ -1,5 +1,6 @@
 package com.github.snuk87.keycloak.kafka;
 
+import org.apache.kafka.clients.producer.Producer;
 import org.jboss.logging.Logger;
 import org.keycloak.Config.Scope;
 import org.keycloak.events.EventListenerProvider;
@@ -7,6 +8,10 @@ import org.keycloak.events.EventListenerProviderFactory;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class KafkaEventListenerConsumerFactory implements EventListenerProviderFactory {
@@ -17,10 +22,24 @@ public class KafkaEventListenerConsumerFactory implements EventListenerProviderF
 	private String bootstrapServers;
 	private String realmName;
 	private String topicDeleteUser;
+	private String nodeName;
+	private String topicDeleteUserResult;
+	private String topicUserSnapshot;
+	private String topicDeleteUserReject;
+	private UserIdParser.Format userIdFormat;
+	private long recoveryBackoffMs;
+	private long recoveryMaxBackoffMs;
+	private Map<String, Object> kafkaResultProducerProperties;
 	private Map<String, Object> kafkaConsumerProperties;
+	private String tuningFile;
+	private double deletionRate;
+	private String deletionWindows;
+	private long deletionTargetLatencyMs;
+	private KafkaTracing tracing;
+	private HotPathLog hotLog;
+	private TuningFileWatcher tuningWatcher;
 
-	private volatile UserDeletionConsumer consumer;
-	private Thread consumerThread;
+	private volatile ConsumerSupervisor supervisor;
 	private final Object lock = new Object();
 
 	@Override
@@ -59,45 +78,77 @@ public class KafkaEventListenerConsumerFactory implements EventListenerProviderF
 		LOG.info("REALM_NAME: " + realmName);
 		LOG.info("DELETE_USER_TOPIC: " + topicDeleteUser);
 
+		nodeName = NodeIdentity.resolve(config.get("nodeName", System.getenv("KAFKA_NODE_NAME")));
+		LOG.info("NODE_NAME: " + nodeName);
+
+		topicUserSnapshot = config.get("topicUserSnapshot", System.getenv("KAFKA_USER_SNAPSHOT_TOPIC"));
+		topicDeleteUserResult = config.get("topicDeleteUserResult", System.getenv("KAFKA_DELETE_USER_RESULT_TOPIC"));
+		topicDeleteUserReject = config.get("topicDeleteUserReject", System.getenv("KAFKA_DELETE_USER_REJECT_TOPIC"));
+		userIdFormat = UserIdParser.Format.valueOf(config.get("userIdFormat",
+				System.getenv().getOrDefault("KAFKA_USER_ID_FORMAT", "ANY")).toUpperCase());
+		LOG.info("USER_ID_FORMAT: " + userIdFormat);
+		if (topicDeleteUserResult != null || topicUserSnapshot != null || topicDeleteUserReject != null) {
+			kafkaResultProducerProperties = KafkaProducerConfig.initProducer(config);
+		}
+		if (topicDeleteUserResult != null) {
+			LOG.info("DELETE_USER_RESULT_TOPIC: " + topicDeleteUserResult);
+			kafkaResultProducerProperties.putIfAbsent("transactional.id", "keycloak-user-deletion-" + nodeName);
+			kafkaResultProducerProperties.put("enable.idempotence", "true");
+		}
+
 		kafkaConsumerProperties = KafkaConsumerConfig.initConsumer(config);
+		boolean staticMembership = Boolean.parseBoolean(config.get("staticMembership",
+				System.getenv().getOrDefault("KAFKA_STATIC_MEMBERSHIP", "true")));
+		if (staticMembership) {
+			kafkaConsumerProperties.putIfAbsent("group.instance.id", "keycloak-user-deletion-" + nodeName);
+			LOG.info("GROUP_INSTANCE_ID: " + kafkaConsumerProperties.get("group.instance.id"));
+		}
+		if (kafkaConsumerProperties.containsKey("client.rack")) {
+			LOG.info("CLIENT_RACK: " + kafkaConsumerProperties.get("client.rack"));
+		}
+		if (topicDeleteUserResult != null) {
+			kafkaConsumerProperties.put("enable.auto.commit", "false");
+		}
 		consumerFactory = new KafkaConsumerFactoryImpl();
+		tuningFile = config.get("tuningFile", System.getenv("KAFKA_TUNING_FILE"));
+		String rate = config.get("deletionRatePerSecond", System.getenv("KAFKA_DELETION_RATE_PER_SECOND"));
+		deletionRate = rate == null ? Double.POSITIVE_INFINITY : Double.parseDouble(rate);
+		deletionWindows = config.get("deletionWindows", System.getenv("KAFKA_DELETION_WINDOWS"));
+		deletionTargetLatencyMs = Long.parseLong(config.get("deletionTargetLatencyMs",
+				System.getenv().getOrDefault("KAFKA_DELETION_TARGET_LATENCY_MS", "0")));
+		LOG.infof("DELETION_RATE_PER_SECOND: %s, DELETION_WINDOWS: %s, DELETION_TARGET_LATENCY_MS: %d",
+				rate, deletionWindows, deletionTargetLatencyMs);
+		recoveryBackoffMs = Long.parseLong(config.get("recoveryBackoffMs",
+				System.getenv().getOrDefault("KAFKA_RECOVERY_BACKOFF_MS", "1000")));
+		recoveryMaxBackoffMs = Long.parseLong(config.get("recoveryMaxBackoffMs",
+				System.getenv().getOrDefault("KAFKA_RECOVERY_MAX_BACKOFF_MS", "60000")));
+		tracing = KafkaTracing.create(Double.parseDouble(config.get("tracingSampleRatio",
+				System.getenv().getOrDefault("KAFKA_TRACING_SAMPLE_RATIO", "0.01"))));
+		hotLog = HotPathLog.create(Logger.getLogger(UserDeletionConsumer.class), "UserDeletionConsumer", config);
 
 		LOG.info("Kafka consumer module initialized successfully");
 	}
 
 	@Override
 	public void postInit(KeycloakSessionFactory factory) {
-		if (consumer == null) {
+		if (supervisor == null) {
 			synchronized (lock) {
-				if (consumer == null) {
+				if (supervisor == null) {
 					LOG.info("Starting SINGLETON UserDeletionConsumer thread...");
 					try {
-						consumer = new UserDeletionConsumer(
-								consumerFactory,
-								"keycloak-user-deletion-consumer-" + System.currentTimeMillis(),
-								bootstrapServers,
-								kafkaConsumerProperties,
-								factory,
-								realmName,
-								topicDeleteUser
-						);
-
-						consumerThread = new Thread(consumer, "UserDeletionConsumer-Thread");
-
-						consumerThread.setDaemon(false);
-
-						consumerThread.setUncaughtExceptionHandler((t, e) ->
-							LOG.error("Uncaught exception in UserDeletionConsumer thread", e)
-						);
-
-						consumerThread.start();
+						if (tuningFile != null) {
+							tuningWatcher = new TuningFileWatcher(Path.of(tuningFile), "consumer.", this::reconfigure);
+							kafkaConsumerProperties.putAll(KafkaConsumerConfig.validValues(tuningWatcher.start(5000),
+									"tuning file " + tuningFile));
+						}
+						supervisor = new ConsumerSupervisor(() -> newConsumer(factory), recoveryBackoffMs,
+								recoveryMaxBackoffMs);
+						supervisor.start();
 
 						LOG.info("✓ SINGLETON UserDeletionConsumer thread started successfully");
 					} catch (Exception e) {
-						LOG.error("Failed to start UserDeletionConsumer", e);
-						consumer = null;
-						consumerThread = null;
-						throw new RuntimeException("Cannot initialize Kafka consumer", e);
+						LOG.error("Failed to start UserDeletionConsumer, user deletions from Kafka are disabled", e);
+						supervisor = null;
 					}
 				} else {
 					LOG.warn("Consumer already initialized, skipping thread start");
@@ -106,46 +157,102 @@ public class KafkaEventListenerConsumerFactory implements EventListenerProviderF
 		}
 	}
 
+	private UserDeletionConsumer newConsumer(KeycloakSessionFactory factory) {
+		Map<String, Object> properties;
+		synchronized (lock) {
+			properties = new HashMap<>(kafkaConsumerProperties);
+		}
+		UserDeletionConsumer consumer = new UserDeletionConsumer(
+				consumerFactory,
+				"keycloak-user-deletion-consumer-" + nodeName,
+				bootstrapServers,
+				properties,
+				factory,
+				realmName,
+				topicDeleteUser,
+				tracing
+		);
+		consumer.useScheduler(new DeletionScheduler(deletionRate, deletionWindows,
+				deletionTargetLatencyMs, Clock.systemDefaultZone()));
+		consumer.reconnectBackoff(recoveryBackoffMs, recoveryMaxBackoffMs);
+		Producer<String, String> resultProducer = null;
+		if (topicDeleteUserResult != null) {
+			resultProducer = new ReconfigurableProducer(() -> new KafkaStandardProducerImpl()
+					.createProducer("keycloak-user-deletion-results", bootstrapServers,
+							kafkaResultProducerProperties));
+			consumer.publishResults(resultProducer, topicDeleteUserResult);
+		}
+		Producer<String, String> plainProducer = resultProducer;
+		if (plainProducer == null && (topicUserSnapshot != null || topicDeleteUserReject != null)) {
+			plainProducer = new ReconfigurableProducer(() -> new KafkaStandardProducerImpl().createProducer(
+					"keycloak-user-snapshots", bootstrapServers, kafkaResultProducerProperties));
+		}
+		if (topicUserSnapshot != null) {
+			consumer.publishSnapshotTombstones(plainProducer, topicUserSnapshot);
+		}
+		if (topicDeleteUserReject != null) {
+			consumer.publishRejects(plainProducer, topicDeleteUserReject);
+		}
+		consumer.validateIds(userIdFormat);
+		consumer.useLog(hotLog);
+		return consumer;
+	}
+
+	public UserDeletionConsumer getConsumer() {
+		ConsumerSupervisor current = supervisor;
+		return current == null ? null : current.current();
+	}
+
+	public Map<String, Object> consumerStats() {
+		ConsumerSupervisor current = supervisor;
+		if (current == null) {
+			return null;
+		}
+		UserDeletionConsumer consumer = current.current();
+		Map<String, Object> stats = consumer == null ? new LinkedHashMap<>() : consumer.stats();
+		stats.put("supervisor", current.stats());
+		return stats;
+	}
+
+	public void reconfigure(Map<String, Object> overrides) {
+		Map<String, Object> validated = KafkaConsumerConfig.validate(overrides, "consumer reconfiguration");
+		synchronized (lock) {
+			// restarted consumers start with the reconfigured properties
+			kafkaConsumerProperties.putAll(validated);
+		}
+		UserDeletionConsumer current = getConsumer();
+		if (current != null) {
+			current.reconfigure(validated);
+		}
+	}
+
 	@Override
 	public void close() {
 		LOG.info("Shutting down KafkaEventListenerConsumerFactory...");
 
-		if (consumer != null) {
-			synchronized (lock) {
-				if (consumer != null) {
-					LOG.info("Stopping UserDeletionConsumer...");
+		if (tuningWatcher != null) {
+			tuningWatcher.close();
+		}
 
+		if (supervisor != null) {
+			synchronized (lock) {
+				if (supervisor != null) {
 					try {
-						consumer.stop();
-
-						if (consumerThread != null && consumerThread.isAlive()) {
-							LOG.info("Waiting for consumer thread to finish...");
-							consumerThread.join(10000);
-							if (consumerThread.isAlive()) {
-								LOG.warn("Consumer thread did not stop in time, interrupting...");
-								consumerThread.interrupt();
-
-								consumerThread.join(2000);
-								if (consumerThread.isAlive()) {
-									LOG.error("Consumer thread still alive after interrupt!");
-								} else {
-									LOG.info("Consumer thread stopped after interrupt");
-								}
-							} else {
-								LOG.info("✓ Consumer thread stopped gracefully");
-							}
-						}
+						supervisor.stop(10000);
 					} catch (InterruptedException e) {
 						LOG.warn("Interrupted while waiting for consumer to stop", e);
 						Thread.currentThread().interrupt();
 					} finally {
-						consumer = null;
-						consumerThread = null;
+						supervisor = null;
 					}
 				}
 			}
 		}
 
+		if (hotLog != null) {
+			hotLog.close();
+		}
+
 		LOG.info("KafkaEventListenerConsumerFactory shutdown complete");
 	}
 }
\ No newline at end of file
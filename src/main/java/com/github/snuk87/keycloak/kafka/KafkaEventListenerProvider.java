@@ -1,29 +1,41 @@
 package com.github.snuk87.keycloak.kafka;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 import com.subOne.kecyloak_dto.UserInfo;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.header.Header;
 import org.jboss.logging.Logger;
+import org.jboss.logging.Logger.Level;
 import org.keycloak.events.Event;
 import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.keycloak.models.KeycloakSession;
-import org.keycloak.models.RealmModel;
-import org.keycloak.models.UserModel;
+import org.keycloak.utils.KeycloakSessionUtil;
 
 public class KafkaEventListenerProvider implements EventListenerProvider {
 
@@ -44,9 +56,43 @@ public class KafkaEventListenerProvider implements EventListenerProvider {
 
 	private final ObjectMapper mapper;
 
+	private final RegisterEventEnricher enricher;
+
+	private final KafkaTracing tracing;
+
+	private final EventHeaders headers = new EventHeaders(10000);
+
+	private UserSnapshotPublisher snapshots;
+
+	private BulkLane bulkLane;
+
+	private Set<String> bulkTopics = Set.of();
+
+	private RingBuffer<EventSlot> ring;
+
+	private ProducerAvailability availability;
+
+	private SendTracker sends;
+
+	private ProducerPool clusters;
+
+	private HotPathLog hotLog = new HotPathLog(LOG, "KafkaEventListenerProvider", false, 5, 60000);
+
+	private final BiConsumer<EventSlot, Event> copyEvent = (slot, event) -> slot.copy(event, brokeredContext(event));
+
+	private final BiConsumer<EventSlot, AdminEvent> copyAdminEvent = EventSlot::copy;
+
 	public KafkaEventListenerProvider(String bootstrapServers, String clientId, String topicEvents, String[] events,
 			String topicAdminEvents, Map<String, Object> kafkaProducerProperties, KafkaProducerFactory factory, KeycloakSession session, String topicCreateUser,
 	String topicVerifyEmail) {
+		this(bootstrapServers, clientId, topicEvents, events, topicAdminEvents, kafkaProducerProperties, factory, session,
+				topicCreateUser, topicVerifyEmail, KafkaTracing.disabled());
+	}
+
+	public KafkaEventListenerProvider(String bootstrapServers, String clientId, String topicEvents, String[] events,
+			String topicAdminEvents, Map<String, Object> kafkaProducerProperties, KafkaProducerFactory factory, KeycloakSession session, String topicCreateUser,
+	String topicVerifyEmail, KafkaTracing tracing) {
+		this.tracing = tracing;
 		this.topicEvents = topicEvents;
 		this.events = new ArrayList<>();
 		this.topicAdminEvents = topicAdminEvents;
@@ -59,55 +105,292 @@ public class KafkaEventListenerProvider implements EventListenerProvider {
 					EventType eventType = EventType.valueOf(event.toUpperCase());
 					this.events.add(eventType);
 				} catch (IllegalArgumentException e) {
-					LOG.debug("Ignoring event >" + event + "<. Event does not exist.");
+					LOG.debugf("Ignoring event >%s<. Event does not exist.", event);
 				}
 			}
 		}
 		producer = factory.createProducer(clientId, bootstrapServers, kafkaProducerProperties);
 		mapper = new ObjectMapper();
+		enricher = new RegisterEventEnricher(session.getKeycloakSessionFactory(), mapper, 1000);
 	}
 
-	private void produceEvent(String eventAsString, String key, String topic)
+	private void produceEvent(String eventAsString, String key, String topic, Header type, String realmId,
+			String clientId, long time, Header contentType)
 			throws InterruptedException, ExecutionException, TimeoutException {
-		LOG.debug("Produce to topic: " + topic + " ...");
+		LOG.debugf("Produce to topic: %s ...", topic);
 		ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, eventAsString);
-		Future<RecordMetadata> metaData = producer.send(record);
-		RecordMetadata recordMetadata = metaData.get(30, TimeUnit.SECONDS);
-		LOG.debug("Produced to topic: " + recordMetadata.topic());
+		headers.add(record.headers(), type, realmId, clientId, time, contentType);
+		Span span = tracing.startSpan(topic + " publish", Context.current(), SpanKind.PRODUCER);
+		Producer<String, String> cluster = clusters == null ? null : clusters.forRealm(realmId);
+		try {
+			tracing.inject(KafkaTracing.contextOf(span), record.headers());
+			if (bulkLane != null && bulkTopics.contains(topic)) {
+				bulkLane.offer(record, cluster);
+				return;
+			}
+			if (cluster != null) {
+				sendToCluster(cluster, record);
+				return;
+			}
+			if (availability != null && !availability.isAvailable()) {
+				availability.hold(record);
+				return;
+			}
+			long send = sends == null ? 0 : sends.begin();
+			long start = System.nanoTime();
+			try {
+				if (ring != null) {
+					producer.send(record, (metadata, exception) -> {
+						if (sends != null) {
+							sends.complete(send, exception == null);
+						}
+						hotLog.count(exception == null ? "SENT" : "FAILED", System.nanoTime() - start);
+						if (exception == null) {
+							return;
+						}
+						if (availability == null) {
+							hotLog.log(Level.ERROR, exception, "Failed to produce to topic '%s'", topic);
+							return;
+						}
+						hotLog.log(Level.WARN, "Failed to produce to topic '%s', keeping the event until the producer "
+								+ "recovers: %s", topic, exception.getMessage());
+						availability.markFailed(exception);
+						availability.hold(record);
+					});
+					return;
+				}
+				Future<RecordMetadata> metaData = producer.send(record);
+				RecordMetadata recordMetadata = metaData.get(30, TimeUnit.SECONDS);
+				LOG.debugf("Produced to topic: %s", recordMetadata.topic());
+				if (sends != null) {
+					sends.complete(send, true);
+				}
+				hotLog.count("SENT", System.nanoTime() - start);
+			} catch (ExecutionException | TimeoutException | KafkaException e) {
+				if (sends != null) {
+					sends.complete(send, false);
+				}
+				hotLog.count("FAILED", System.nanoTime() - start);
+				throw e;
+			}
+		} catch (ExecutionException | TimeoutException | KafkaException e) {
+			span.setStatus(StatusCode.ERROR, e.getMessage());
+			if (availability == null || cluster != null) {
+				throw e;
+			}
+			hotLog.log(Level.WARN, "Failed to produce to topic '%s', keeping the event until the producer recovers: %s",
+					topic, e.getMessage());
+			availability.markFailed(e);
+			availability.hold(record);
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Events of realms isolated onto their own cluster bypass the degraded buffer and the send tracking of the default
+	 * producer, which both belong to the default cluster.
+	 */
+	private void sendToCluster(Producer<String, String> cluster, ProducerRecord<String, String> record)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (ring != null) {
+			cluster.send(record, (metadata, exception) -> {
+				if (exception != null) {
+					hotLog.log(Level.ERROR, exception, "Failed to produce to topic '%s'", record.topic());
+				}
+			});
+			return;
+		}
+		cluster.send(record).get(30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Sends the events of the realms mapped in the pool to their own cluster instead of the default producer.
+	 */
+	public void useClusters(ProducerPool clusters) {
+		this.clusters = clusters;
+	}
+
+	/**
+	 * Replaces the per-event logging, sampled with a summary per minute by default.
+	 */
+	public void useLog(HotPathLog hotLog) {
+		this.hotLog = hotLog;
+	}
+
+	/**
+	 * Records pending sends and their outcome for the health check.
+	 */
+	public void trackSends(SendTracker sends) {
+		this.sends = sends;
+	}
+
+	/**
+	 * Keeps events away from the producer while the brokers are unreachable, see {@link ProducerAvailability}.
+	 */
+	public void useAvailability(ProducerAvailability availability) {
+		this.availability = availability;
+	}
+
+	private String serialize(Object value) throws JsonProcessingException {
+		Span span = tracing.startChildSpan("kafka serialize");
+		try {
+			return mapper.writeValueAsString(value);
+		} finally {
+			span.end();
+		}
+	}
+
+	private void produceUserInfo(UserInfo userInfo, String userId, String realmId, String clientId, long time)
+			throws JsonProcessingException, InterruptedException, ExecutionException, TimeoutException {
+		produceEvent(serialize(userInfo), userId, topicCreateUser, EventHeaders.type(EventType.REGISTER), realmId,
+				clientId, time, EventHeaders.JSON);
+		if (snapshots != null) {
+			snapshots.publish(realmId, userInfo, userId);
+		}
+	}
+
+	private void produceDeferredUserInfo(UserInfo userInfo, String userId, String realmId, String clientId,
+			long time) {
+		try {
+			produceUserInfo(userInfo, userId, realmId, clientId, time);
+		} catch (JsonProcessingException | ExecutionException | TimeoutException e) {
+			LOG.error(e.getMessage(), e);
+		} catch (InterruptedException e) {
+			LOG.error(e.getMessage(), e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private KeycloakSession currentSession() {
+		KeycloakSession session = KeycloakSessionUtil.getKeycloakSession();
+		return session != null ? session : keycloakSession;
+	}
+
+	/**
+	 * Routes the given topics through the bulk lane instead of sending them synchronously.
+	 */
+	public void useBulkLane(BulkLane bulkLane, Set<String> bulkTopics) {
+		this.bulkLane = bulkLane;
+		this.bulkTopics = bulkTopics;
+	}
+
+	/**
+	 * Additionally maintains the latest state per user on a compacted snapshot topic.
+	 */
+	public void publishSnapshots(UserSnapshotPublisher snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	private void updateSnapshot(Event event) {
+		EventType type = event.getType();
+		if (type == EventType.UPDATE_PROFILE || type == EventType.UPDATE_EMAIL || type == EventType.VERIFY_EMAIL) {
+			snapshots.refresh(event.getRealmId(), event.getUserId());
+		}
+	}
+
+	private void updateSnapshot(AdminEvent event) {
+		if (event.getResourceType() != ResourceType.USER || event.getResourcePath() == null) {
+			return;
+		}
+		String[] path = event.getResourcePath().split("/");
+		if (path.length != 2 || !"users".equals(path[0])) {
+			return;
+		}
+		if (event.getOperationType() == OperationType.DELETE) {
+			snapshots.tombstone(event.getRealmId(), path[1]);
+		} else {
+			snapshots.refresh(event.getRealmId(), path[1]);
+		}
+	}
+
+	/**
+	 * Moves serialization and sending off the request thread: events are copied into a ring of preallocated slots
+	 * and handled by a dedicated thread, which sends without waiting for the broker.
+	 */
+	public void useHandoff(int size, RingBuffer.WaitStrategy waitStrategy, RingBuffer.OverflowStrategy overflowStrategy,
+			long blockTimeoutMs) {
+		RingBuffer<EventSlot> buffer = new RingBuffer<>(size, EventSlot::new, waitStrategy, overflowStrategy,
+				blockTimeoutMs);
+		buffer.start("KafkaEventHandoff-Thread", (slot, sequence, endOfBatch) -> {
+			try (Scope ignored = slot.context.makeCurrent()) {
+				if (slot.admin) {
+					handle(slot.adminEvent);
+				} else {
+					handle(slot.event, slot.brokeredContext);
+				}
+			} finally {
+				slot.clear();
+			}
+		});
+		ring = buffer;
+	}
+
+	public Map<String, Object> handoffStats() {
+		return ring == null ? Map.of() : ring.stats();
+	}
+
+	private boolean isRelevant(EventType type) {
+		return type == EventType.REGISTER || type == EventType.VERIFY_EMAIL || events.contains(type)
+				|| snapshots != null && (type == EventType.UPDATE_PROFILE || type == EventType.UPDATE_EMAIL);
+	}
+
+	private String brokeredContext(Event event) {
+		if (event.getType() != EventType.REGISTER || event.getDetails() == null
+				|| event.getDetails().get("identity_provider") == null) {
+			return null;
+		}
+		return enricher.brokeredContext(currentSession(), event);
 	}
 
 	@Override
 	public void onEvent(Event event) {
+		if (ring != null) {
+			if (isRelevant(event.getType())) {
+				ring.publish(copyEvent, event);
+			}
+			return;
+		}
+		handle(event, brokeredContext(event));
+	}
+
+	private void handle(Event event, String brokeredContext) {
+		if (snapshots != null) {
+			updateSnapshot(event);
+		}
 		try {
 			if (event.getType().equals(EventType.REGISTER)) {
 				Map<String, String> details = event.getDetails();
-				String firstName;
-				String lastName;
-				if(details.get("identity_provider") == null) {
-					firstName = details.get("first_name");
-					lastName = details.get("last_name");
+				if (details.get("identity_provider") == null) {
+					produceUserInfo(new UserInfo(
+							details.get("first_name"),
+							details.get("last_name"),
+							UUID.fromString(event.getUserId()),
+							details.get("email"),
+							false
+					), event.getUserId(), event.getRealmId(), event.getClientId(), event.getTime());
 				} else {
-					RealmModel realm = keycloakSession.realms().getRealm(event.getRealmId());
-					UserModel user = keycloakSession.users().getUserById(realm, event.getUserId());
-					firstName = user.getFirstName();
-					lastName = user.getLastName();
+					UserInfo userInfo = enricher.fromNote(brokeredContext, event);
+					if (userInfo != null) {
+						produceUserInfo(userInfo, event.getUserId(), event.getRealmId(), event.getClientId(),
+								event.getTime());
+					} else {
+						String userId = event.getUserId();
+						String realmId = event.getRealmId();
+						String clientId = event.getClientId();
+						long time = event.getTime();
+						enricher.defer(event, deferred -> produceDeferredUserInfo(deferred, userId, realmId, clientId,
+								time));
+					}
 				}
-				String email = details.get("email");
-				String userId = event.getUserId();
-				UserInfo userInfo = new UserInfo(
-							firstName,
-							lastName,
-							UUID.fromString(userId),
-							email,
-							false
-				);
-				produceEvent(mapper.writeValueAsString(userInfo), event.getUserId(), topicCreateUser);
 			} else if (event.getType().equals(EventType.VERIFY_EMAIL)) {
 				Map<String, String> details = event.getDetails();
 				String email = details.get("email");
-				produceEvent(email, event.getUserId(), topicVerifyEmail);
+				produceEvent(email, event.getUserId(), topicVerifyEmail, EventHeaders.type(event.getType()),
+						event.getRealmId(), event.getClientId(), event.getTime(), EventHeaders.TEXT);
 			} else if(events.contains(event.getType())){
-				produceEvent(mapper.writeValueAsString(event), event.getUserId(), topicEvents);
+				produceEvent(serialize(event), event.getUserId(), topicEvents, EventHeaders.type(event.getType()),
+						event.getRealmId(), event.getClientId(), event.getTime(), EventHeaders.JSON);
 			}
 		} catch (JsonProcessingException | ExecutionException | TimeoutException e) {
 			LOG.error(e.getMessage(), e);
@@ -116,11 +399,27 @@ public class KafkaEventListenerProvider implements EventListenerProvider {
 			Thread.currentThread().interrupt();
 		}
 	}
+
 	@Override
 	public void onEvent(AdminEvent event, boolean includeRepresentation) {
+		if (ring != null) {
+			if (topicAdminEvents != null || snapshots != null) {
+				ring.publish(copyAdminEvent, event);
+			}
+			return;
+		}
+		handle(event);
+	}
+
+	private void handle(AdminEvent event) {
+		if (snapshots != null) {
+			updateSnapshot(event);
+		}
 		if (topicAdminEvents != null) {
 			try {
-				produceEvent(mapper.writeValueAsString(event), null, topicAdminEvents);
+				produceEvent(serialize(event), null, topicAdminEvents, EventHeaders.type(event.getOperationType()),
+						event.getRealmId(), event.getAuthDetails() == null ? null : event.getAuthDetails().getClientId(),
+						event.getTime(), EventHeaders.JSON);
 			} catch (JsonProcessingException | ExecutionException | TimeoutException e) {
 				LOG.error(e.getMessage(), e);
 			} catch (InterruptedException e) {
@@ -130,8 +429,80 @@ public class KafkaEventListenerProvider implements EventListenerProvider {
 		}
 	}
 
+	public void shutdown() {
+		if (ring != null) {
+			ring.close(10000);
+		}
+		enricher.close();
+		if (snapshots != null) {
+			snapshots.close();
+		}
+	}
+
 	@Override
 	public void close() {
 		// ignore
 	}
+
+	/**
+	 * Preallocated ring slot. Only the fields that are serialized are copied, into reused event instances.
+	 */
+	private static final class EventSlot {
+		private final Event event = new Event();
+		private final AdminEvent adminEvent = new AdminEvent();
+		private final Map<String, String> details = new HashMap<>();
+		private boolean admin;
+		private String brokeredContext;
+		private Context context = Context.root();
+
+		private void copy(Event source, String brokeredContext) {
+			admin = false;
+			context = Context.current();
+			event.setId(source.getId());
+			event.setTime(source.getTime());
+			event.setType(source.getType());
+			event.setRealmId(source.getRealmId());
+			event.setClientId(source.getClientId());
+			event.setUserId(source.getUserId());
+			event.setSessionId(source.getSessionId());
+			event.setIpAddress(source.getIpAddress());
+			event.setError(source.getError());
+			event.setDetails(copyDetails(source.getDetails()));
+			this.brokeredContext = brokeredContext;
+		}
+
+		private void copy(AdminEvent source) {
+			admin = true;
+			context = Context.current();
+			adminEvent.setId(source.getId());
+			adminEvent.setTime(source.getTime());
+			adminEvent.setRealmId(source.getRealmId());
+			adminEvent.setAuthDetails(source.getAuthDetails());
+			adminEvent.setResourceTypeAsString(source.getResourceTypeAsString());
+			adminEvent.setOperationType(source.getOperationType());
+			adminEvent.setResourcePath(source.getResourcePath());
+			adminEvent.setRepresentation(source.getRepresentation());
+			adminEvent.setError(source.getError());
+			adminEvent.setDetails(copyDetails(source.getDetails()));
+		}
+
+		private Map<String, String> copyDetails(Map<String, String> source) {
+			if (source == null) {
+				return null;
+			}
+			details.clear();
+			details.putAll(source);
+			return details;
+		}
+
+		private void clear() {
+			details.clear();
+			brokeredContext = null;
+			context = Context.root();
+			event.setDetails(null);
+			adminEvent.setDetails(null);
+			adminEvent.setRepresentation(null);
+			adminEvent.setAuthDetails(null);
+		}
+	}
 }
@@ -1,13 +1,32 @@
 package com.github.snuk87.keycloak.kafka;
 
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.jboss.logging.Logger;
 import org.keycloak.Config.Scope;
 import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventListenerProviderFactory;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
 
 public class KafkaEventListenerProviderFactory implements EventListenerProviderFactory {
 
@@ -21,19 +40,265 @@ public class KafkaEventListenerProviderFactory implements EventListenerProviderF
 	private String topicVerifyEmail;
 	private String topicEvents;
 	private String topicAdminEvents;
+	private String topicUserSnapshot;
 	private String clientId;
 	private String[] events;
 	private Map<String, Object> kafkaProducerProperties;
+	private long warmupTimeoutMs;
+	private ProducerAvailability.DegradedPolicy degradedPolicy;
+	private int degradedBufferCapacity;
+	private long recoveryBackoffMs;
+	private long recoveryMaxBackoffMs;
+	private String tuningFile;
+	private KafkaTracing tracing;
+	private String backfillRealm;
+	private double backfillRate;
+	private String backfillWindows;
+	private int backfillParallelism;
+	private int backfillPageSize;
+	private long backfillTargetLatencyMs;
+	private String reconcileDigestTopic;
+	private String reconcilePeerTopic;
+	private String reconcileDeleteTopic;
+	private String reconcileRealm;
+	private long reconcileIntervalMs;
+	private int reconcileBuckets;
+	private Map<String, Object> reconcileConsumerProperties;
+	private int bulkLaneCapacity;
+	private BulkLane.ShedPolicy bulkShedPolicy;
+	private Set<String> bulkTopics;
+	private Map<String, Object> bulkProducerProperties;
+	private int handoffRingSize;
+	private RingBuffer.WaitStrategy handoffWaitStrategy;
+	private RingBuffer.OverflowStrategy handoffOverflowStrategy;
+	private long handoffBlockTimeoutMs;
+	private long autotuneTargetP99Ms;
+	private long autotuneIntervalMs;
+	private double autotuneMinRate;
+	private long autotuneMinLingerMs;
+	private long autotuneMaxLingerMs;
+	private int autotuneMinBatchSize;
+	private int autotuneMaxBatchSize;
+	private List<ProducerPool.Cluster> clusters;
+	private HotPathLog hotLog;
+	private HotPathLog bulkLog;
+
+	private ReconfigurableProducer producer;
+	private ProducerAvailability availability;
+	private final SendTracker sends = new SendTracker(60000);
+	private TuningFileWatcher tuningWatcher;
+	private volatile Map<String, Object> tuningOverrides = Map.of();
+	private ProducerAutotuner autotuner;
+	private volatile Map<String, Object> autotuneOverrides = Map.of();
+	private final Object reconfiguration = new Object();
+	private UserBackfill backfill;
+	private BulkLane bulkLane;
+	private UserReconciler reconciler;
+	private PeerDigestConsumer peerDigestConsumer;
+	private ProducerPool producerPool;
 
 	@Override
 	public EventListenerProvider create(KeycloakSession session) {
 		if (instance == null) {
-			instance = new KafkaEventListenerProvider(bootstrapServers, clientId, topicEvents, events, topicAdminEvents,
-					kafkaProducerProperties, new KafkaStandardProducerImpl(), session, topicCreateUser, topicVerifyEmail);
+			KafkaEventListenerProvider provider = new KafkaEventListenerProvider(bootstrapServers, clientId, topicEvents,
+					events, topicAdminEvents, kafkaProducerProperties, (id, servers, properties) -> getProducer(), session,
+					topicCreateUser, topicVerifyEmail, tracing);
+			provider.trackSends(sends);
+			provider.useLog(hotLog);
+			if (availability != null) {
+				provider.useAvailability(availability);
+			}
+			if (bulkLane != null) {
+				provider.useBulkLane(bulkLane, bulkTopics);
+			}
+			if (producerPool != null) {
+				provider.useClusters(producerPool);
+			}
+			if (handoffRingSize > 0) {
+				provider.useHandoff(handoffRingSize, handoffWaitStrategy, handoffOverflowStrategy, handoffBlockTimeoutMs);
+			}
+			if (topicUserSnapshot != null) {
+				UserSnapshotPublisher snapshots = new UserSnapshotPublisher(getProducer(), topicUserSnapshot,
+						session.getKeycloakSessionFactory(), new ObjectMapper(), 10000);
+				if (producerPool != null) {
+					snapshots.useClusters(producerPool);
+				}
+				provider.publishSnapshots(snapshots);
+			}
+			instance = provider;
 		}
 		return instance;
 	}
 
+	synchronized Producer<String, String> getProducer() {
+		if (producer == null) {
+			producer = new ReconfigurableProducer(this::newProducer);
+		}
+		return producer;
+	}
+
+	private Producer<String, String> newProducer() {
+		return newProducer(tuningOverrides, autotuneOverrides);
+	}
+
+	private Producer<String, String> newProducer(Map<String, Object> tuning, Map<String, Object> autotuned) {
+		Map<String, Object> properties = new HashMap<>(kafkaProducerProperties);
+		properties.putAll(tuning);
+		properties.putAll(autotuned);
+		return new KafkaStandardProducerImpl().createProducer(clientId, bootstrapServers, properties);
+	}
+
+	/**
+	 * Applies the linger and batch size chosen by the {@link ProducerAutotuner}. They take precedence over the tuning
+	 * file.
+	 */
+	private void autotune(Map<String, Object> settings) {
+		synchronized (reconfiguration) {
+			Map<String, Object> autotuned = Map.copyOf(settings);
+			replaceProducer(tuningOverrides, autotuned);
+			autotuneOverrides = autotuned;
+		}
+	}
+
+	public void reconfigure(Map<String, Object> overrides) {
+		LOG.info("Reconfiguring kafka producer with " + overrides);
+		Map<String, Object> validated = Map.copyOf(KafkaProducerConfig.validate(overrides, "producer reconfiguration"));
+		synchronized (reconfiguration) {
+			replaceProducer(validated, autotuneOverrides);
+			tuningOverrides = validated;
+		}
+	}
+
+	/**
+	 * Creates and warms up a producer with the given settings and only then switches to it, so neither the factory
+	 * monitor nor the send path waits for the new client to connect. The overrides are only stored once the switch
+	 * succeeded.
+	 */
+	private void replaceProducer(Map<String, Object> tuning, Map<String, Object> autotuned) {
+		ReconfigurableProducer current;
+		synchronized (this) {
+			current = producer;
+		}
+		if (current == null) {
+			return;
+		}
+		Producer<String, String> replacement = newProducer(tuning, autotuned);
+		try {
+			new ProducerWarmup(() -> replacement, warmupTopics(), warmupTimeoutMs).start()
+					.get(warmupTimeoutMs + 1000, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			replacement.close(Duration.ZERO);
+			throw new IllegalStateException("Interrupted while warming up the reconfigured kafka producer", e);
+		} catch (ExecutionException | TimeoutException e) {
+			LOG.warn("Reconfigured kafka producer not warmed up, switching anyway", e);
+		}
+		current.swap(replacement, Duration.ofSeconds(30));
+	}
+
+	private List<String> warmupTopics() {
+		return Arrays.asList(topicCreateUser, topicVerifyEmail, topicEvents, topicAdminEvents, topicUserSnapshot,
+				reconcileDigestTopic);
+	}
+
+	private static final Set<String> PRODUCER_STATS = Set.of("record-send-rate", "batch-size-avg",
+			"record-error-rate", "buffer-available-bytes", "request-latency-avg", "record-queue-time-avg");
+
+	public Map<String, Object> producerStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("ready", isProducerReady());
+		if (availability != null) {
+			stats.putAll(availability.stats());
+		}
+		stats.putAll(sends.stats());
+		Producer<String, String> current;
+		synchronized (this) {
+			current = producer;
+		}
+		if (current != null) {
+			current.metrics().forEach((name, metric) -> {
+				if ("producer-metrics".equals(name.group()) && PRODUCER_STATS.contains(name.name())) {
+					stats.put(name.name(), metric.metricValue());
+				}
+			});
+		}
+		if (bulkLane != null) {
+			stats.put("bulkLane", bulkLane.stats());
+		}
+		if (instance != null && handoffRingSize > 0) {
+			stats.put("handoff", instance.handoffStats());
+		}
+		if (autotuner != null) {
+			stats.put("autotune", autotuner.stats());
+		}
+		if (producerPool != null) {
+			stats.put("clusters", producerPool.stats());
+		}
+		if (peerDigestConsumer != null) {
+			stats.put("peerDigests", peerDigestConsumer.stats());
+		}
+		return stats;
+	}
+
+	/**
+	 * Creates the producer of a backfill, on the realm's own cluster if it is isolated onto one.
+	 */
+	private Producer<String, String> newBackfillProducer(String realmId) {
+		Map<String, Object> properties = new HashMap<>(kafkaProducerProperties);
+		properties.putAll(tuningOverrides);
+		ProducerPool.Cluster cluster = producerPool == null ? null : producerPool.clusterOf(realmId);
+		if (cluster != null) {
+			properties.remove(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG);
+			properties.putAll(cluster.properties());
+		}
+		properties.putIfAbsent("compression.type", "lz4");
+		properties.putIfAbsent("batch.size", 262144);
+		properties.putIfAbsent("linger.ms", 50);
+		if (cluster != null) {
+			return new KafkaStandardProducerImpl().createProducer(clientId + "-" + cluster.name() + "-backfill",
+					cluster.bootstrapServers(), properties);
+		}
+		return new KafkaStandardProducerImpl().createProducer(clientId + "-backfill", bootstrapServers, properties);
+	}
+
+	/**
+	 * @return {@code false} if a backfill is already running
+	 */
+	public boolean startBackfill(String realmName) {
+		return backfill.start(realmName);
+	}
+
+	/**
+	 * @return {@code false} if no backfill of the realm is running
+	 */
+	public boolean cancelBackfill(String realmName) {
+		return backfill.cancel(realmName);
+	}
+
+	public Map<String, Object> backfillStatus(String realmName) {
+		Map<String, Object> status = backfill.status();
+		return realmName.equals(status.get("realm")) ? status : Map.of("running", false, "realm", realmName);
+	}
+
+	/**
+	 * @return {@code false} if reconciliation is not configured
+	 */
+	public boolean publishDigests(String realmName) {
+		if (reconciler == null) {
+			return false;
+		}
+		reconciler.requestDigests(realmName);
+		return true;
+	}
+
+	public Map<String, Object> reconcileStatus(String realmName) {
+		return reconciler == null ? Map.of() : reconciler.status(realmName);
+	}
+
+	public boolean isProducerReady() {
+		return availability != null && availability.isAvailable();
+	}
+
 	@Override
 	public String getId() {
 		return ID;
@@ -51,6 +316,10 @@ public class KafkaEventListenerProviderFactory implements EventListenerProviderF
 		clientId = config.get("clientId", System.getenv("KAFKA_CLIENT_ID"));
 		bootstrapServers = config.get("bootstrapServers", System.getenv("KAFKA_BOOTSTRAP_SERVERS"));
 		topicAdminEvents = config.get("topicAdminEvents", System.getenv("KAFKA_ADMIN_TOPIC"));
+		topicUserSnapshot = config.get("topicUserSnapshot", System.getenv("KAFKA_USER_SNAPSHOT_TOPIC"));
+		if (topicUserSnapshot != null) {
+			LOG.info("USER_SNAPSHOT_TOPIC: " + topicUserSnapshot);
+		}
 
 
 		String eventsString = config.get("events", System.getenv("KAFKA_EVENTS"));
@@ -85,15 +354,210 @@ public class KafkaEventListenerProviderFactory implements EventListenerProviderF
 
 		LOG.info("BOOTSTRAP_SERVERS: " + bootstrapServers);
 		kafkaProducerProperties = KafkaProducerConfig.initProducer(config);
+		warmupTimeoutMs = Long.parseLong(config.get("warmupTimeoutMs",
+				System.getenv().getOrDefault("KAFKA_WARMUP_TIMEOUT_MS", "10000")));
+		degradedPolicy = ProducerAvailability.DegradedPolicy.valueOf(config.get("degradedPolicy",
+				System.getenv().getOrDefault("KAFKA_DEGRADED_POLICY", "BUFFER")).toUpperCase());
+		degradedBufferCapacity = Integer.parseInt(config.get("degradedBufferCapacity",
+				System.getenv().getOrDefault("KAFKA_DEGRADED_BUFFER_CAPACITY", "10000")));
+		recoveryBackoffMs = Long.parseLong(config.get("recoveryBackoffMs",
+				System.getenv().getOrDefault("KAFKA_RECOVERY_BACKOFF_MS", "1000")));
+		recoveryMaxBackoffMs = Long.parseLong(config.get("recoveryMaxBackoffMs",
+				System.getenv().getOrDefault("KAFKA_RECOVERY_MAX_BACKOFF_MS", "60000")));
+		tuningFile = config.get("tuningFile", System.getenv("KAFKA_TUNING_FILE"));
+		backfillRealm = config.get("backfillRealm", System.getenv("KAFKA_BACKFILL_REALM"));
+		backfillRate = Double.parseDouble(config.get("backfillRatePerSecond",
+				System.getenv().getOrDefault("KAFKA_BACKFILL_RATE_PER_SECOND", "500")));
+		backfillWindows = config.get("backfillWindows", System.getenv("KAFKA_BACKFILL_WINDOWS"));
+		backfillParallelism = Integer.parseInt(config.get("backfillParallelism",
+				System.getenv().getOrDefault("KAFKA_BACKFILL_PARALLELISM", "4")));
+		backfillPageSize = Integer.parseInt(config.get("backfillPageSize",
+				System.getenv().getOrDefault("KAFKA_BACKFILL_PAGE_SIZE", "1000")));
+		backfillTargetLatencyMs = Long.parseLong(config.get("backfillTargetLatencyMs",
+				System.getenv().getOrDefault("KAFKA_BACKFILL_TARGET_LATENCY_MS", "5")));
+		reconcileDigestTopic = config.get("reconcileDigestTopic", System.getenv("KAFKA_RECONCILE_DIGEST_TOPIC"));
+		if (reconcileDigestTopic != null) {
+			LOG.info("RECONCILE_DIGEST_TOPIC: " + reconcileDigestTopic);
+			reconcilePeerTopic = config.get("reconcilePeerTopic", System.getenv("KAFKA_RECONCILE_PEER_TOPIC"));
+			reconcileDeleteTopic = config.get("reconcileDeleteTopic",
+					System.getenv().getOrDefault("KAFKA_RECONCILE_DELETE_TOPIC", topicUserSnapshot));
+			reconcileRealm = config.get("reconcileRealm", System.getenv("KAFKA_RECONCILE_REALM"));
+			reconcileIntervalMs = Long.parseLong(config.get("reconcileIntervalMs",
+					System.getenv().getOrDefault("KAFKA_RECONCILE_INTERVAL_MS", "0")));
+			reconcileBuckets = Integer.parseInt(config.get("reconcileBuckets",
+					System.getenv().getOrDefault("KAFKA_RECONCILE_BUCKETS", "1024")));
+			if (reconcilePeerTopic != null) {
+				reconcileConsumerProperties = KafkaConsumerConfig.initConsumer(config);
+				reconcileConsumerProperties.remove("group.instance.id");
+				reconcileConsumerProperties.put("group.id", config.get("reconcileGroupId",
+						System.getenv().getOrDefault("KAFKA_RECONCILE_GROUP_ID", "keycloak-user-reconciler")));
+				reconcileConsumerProperties.put("enable.auto.commit", "false");
+			}
+		}
+		bulkLaneCapacity = Integer.parseInt(config.get("bulkLaneCapacity",
+				System.getenv().getOrDefault("KAFKA_BULK_LANE_CAPACITY", "0")));
+		if (bulkLaneCapacity > 0) {
+			bulkShedPolicy = BulkLane.ShedPolicy.valueOf(config.get("bulkShedPolicy",
+					System.getenv().getOrDefault("KAFKA_BULK_SHED_POLICY", "DROP_NEWEST")).toUpperCase());
+			String topics = config.get("bulkTopics", System.getenv("KAFKA_BULK_TOPICS"));
+			bulkTopics = topics != null ? Set.of(topics.split(","))
+					: Arrays.stream(new String[] { topicEvents, topicAdminEvents }).filter(Objects::nonNull)
+							.collect(Collectors.toSet());
+			bulkProducerProperties = new HashMap<>(kafkaProducerProperties);
+			bulkProducerProperties.put("buffer.memory", config.get("bulkBufferMemory",
+					System.getenv().getOrDefault("KAFKA_BULK_BUFFER_MEMORY", "8388608")));
+			bulkProducerProperties.put("max.block.ms", config.get("bulkMaxBlockMs",
+					System.getenv().getOrDefault("KAFKA_BULK_MAX_BLOCK_MS", "1000")));
+			LOG.infof("BULK_LANE: capacity=%d, policy=%s, topics=%s", bulkLaneCapacity, bulkShedPolicy, bulkTopics);
+		}
+		handoffRingSize = Integer.parseInt(config.get("handoffRingSize",
+				System.getenv().getOrDefault("KAFKA_HANDOFF_RING_SIZE", "0")));
+		if (handoffRingSize > 0) {
+			handoffWaitStrategy = RingBuffer.WaitStrategy.valueOf(config.get("handoffWaitStrategy",
+					System.getenv().getOrDefault("KAFKA_HANDOFF_WAIT_STRATEGY", "SLEEPING")).toUpperCase());
+			handoffOverflowStrategy = RingBuffer.OverflowStrategy.valueOf(config.get("handoffOverflowStrategy",
+					System.getenv().getOrDefault("KAFKA_HANDOFF_OVERFLOW_STRATEGY", "DROP")).toUpperCase());
+			handoffBlockTimeoutMs = Long.parseLong(config.get("handoffBlockTimeoutMs",
+					System.getenv().getOrDefault("KAFKA_HANDOFF_BLOCK_TIMEOUT_MS", "5")));
+			LOG.infof("HANDOFF: ring=%d, wait=%s, overflow=%s", handoffRingSize, handoffWaitStrategy,
+					handoffOverflowStrategy);
+		}
+		autotuneTargetP99Ms = Long.parseLong(config.get("autotuneTargetP99Ms",
+				System.getenv().getOrDefault("KAFKA_AUTOTUNE_TARGET_P99_MS", "0")));
+		if (autotuneTargetP99Ms > 0) {
+			autotuneIntervalMs = Long.parseLong(config.get("autotuneIntervalMs",
+					System.getenv().getOrDefault("KAFKA_AUTOTUNE_INTERVAL_MS", "60000")));
+			autotuneMinRate = Double.parseDouble(config.get("autotuneMinRate",
+					System.getenv().getOrDefault("KAFKA_AUTOTUNE_MIN_RATE", "100")));
+			autotuneMinLingerMs = Long.parseLong(config.get("autotuneMinLingerMs",
+					System.getenv().getOrDefault("KAFKA_AUTOTUNE_MIN_LINGER_MS", "0")));
+			autotuneMaxLingerMs = Long.parseLong(config.get("autotuneMaxLingerMs",
+					System.getenv().getOrDefault("KAFKA_AUTOTUNE_MAX_LINGER_MS", "100")));
+			autotuneMinBatchSize = Integer.parseInt(config.get("autotuneMinBatchSize",
+					System.getenv().getOrDefault("KAFKA_AUTOTUNE_MIN_BATCH_SIZE", "16384")));
+			autotuneMaxBatchSize = Integer.parseInt(config.get("autotuneMaxBatchSize",
+					System.getenv().getOrDefault("KAFKA_AUTOTUNE_MAX_BATCH_SIZE", "1048576")));
+			LOG.infof("AUTOTUNE: target p99=%dms, linger.ms %d-%d, batch.size %d-%d", autotuneTargetP99Ms,
+					autotuneMinLingerMs, autotuneMaxLingerMs, autotuneMinBatchSize, autotuneMaxBatchSize);
+		}
+		clusters = ProducerPool.clusters(config, System.getenv());
+		hotLog = HotPathLog.create(Logger.getLogger(KafkaEventListenerProvider.class), "KafkaEventListenerProvider",
+				config);
+		bulkLog = HotPathLog.create(Logger.getLogger(BulkLane.class), "BulkLane", config);
+		for (ProducerPool.Cluster cluster : clusters) {
+			LOG.infof("CLUSTER %s: bootstrap=%s, realms=%s", cluster.name(), cluster.bootstrapServers(),
+					cluster.realms());
+		}
+		tracing = KafkaTracing.create(Double.parseDouble(config.get("tracingSampleRatio",
+				System.getenv().getOrDefault("KAFKA_TRACING_SAMPLE_RATIO", "0.01"))));
 	}
 
 	@Override
-	public void postInit(KeycloakSessionFactory arg0) {
-		// ignore
+	public void postInit(KeycloakSessionFactory sessionFactory) {
+		if (tuningFile != null) {
+			tuningWatcher = new TuningFileWatcher(Path.of(tuningFile), "producer.", this::reconfigure);
+			tuningOverrides = Map.copyOf(KafkaProducerConfig.validValues(tuningWatcher.start(5000),
+					"tuning file " + tuningFile));
+		}
+		if (autotuneTargetP99Ms > 0) {
+			Map<String, Object> configured = new HashMap<>(kafkaProducerProperties);
+			configured.putAll(tuningOverrides);
+			autotuner = new ProducerAutotuner(this::getProducer, sends, this::isProducerReady, this::autotune,
+					autotuneTargetP99Ms, autotuneMinRate, autotuneMinLingerMs, autotuneMaxLingerMs,
+					autotuneMinBatchSize, autotuneMaxBatchSize,
+					Long.parseLong(String.valueOf(configured.getOrDefault("linger.ms", "0"))),
+					Integer.parseInt(String.valueOf(configured.getOrDefault("batch.size", "16384"))));
+			autotuneOverrides = autotuner.settings();
+			autotuner.start(autotuneIntervalMs);
+		}
+		if (!clusters.isEmpty()) {
+			producerPool = new ProducerPool(new KafkaStandardProducerImpl(), clientId, kafkaProducerProperties,
+					clusters, realmId -> KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+						RealmModel realm = session.realms().getRealm(realmId);
+						return realm == null ? null : realm.getName();
+					}));
+		}
+		if (bulkLaneCapacity > 0) {
+			bulkLane = new BulkLane(new ReconfigurableProducer(() -> new KafkaStandardProducerImpl().createProducer(
+					clientId + "-bulk", bootstrapServers, bulkProducerProperties)), bulkLaneCapacity, bulkShedPolicy);
+			bulkLane.useLog(bulkLog);
+			bulkLane.start();
+		}
+		LOG.info("Connecting kafka producer in the background ...");
+		availability = new ProducerAvailability(this::getProducer, warmupTopics(), warmupTimeoutMs, recoveryBackoffMs,
+				recoveryMaxBackoffMs, degradedPolicy, degradedBufferCapacity);
+		availability.start();
+
+		backfill = new UserBackfill(sessionFactory, this::newBackfillProducer, topicCreateUser, new ObjectMapper(),
+				backfillParallelism, backfillPageSize,
+				new DeletionScheduler("backfill", backfillRate, backfillWindows, backfillTargetLatencyMs,
+						Clock.systemDefaultZone()));
+		if (backfillRealm != null) {
+			LOG.info("Starting user backfill of realm " + backfillRealm);
+			backfill.start(backfillRealm);
+		}
+
+		if (reconcileDigestTopic != null) {
+			reconciler = new UserReconciler(sessionFactory, getProducer(), new ObjectMapper(), reconcileDigestTopic,
+					topicCreateUser, reconcileDeleteTopic, reconcileBuckets, backfillPageSize,
+					new DeletionScheduler("reconciliation", backfillRate, backfillWindows, backfillTargetLatencyMs,
+							Clock.systemDefaultZone()));
+			if (producerPool != null) {
+				reconciler.useClusters(producerPool);
+			}
+			if (reconcileRealm != null && reconcileIntervalMs > 0) {
+				reconciler.schedule(reconcileRealm, reconcileIntervalMs);
+			}
+			if (reconcilePeerTopic != null) {
+				peerDigestConsumer = new PeerDigestConsumer(new KafkaConsumerFactoryImpl(), clientId + "-reconciler",
+						bootstrapServers, reconcileConsumerProperties, reconcilePeerTopic, reconciler);
+				Thread thread = new Thread(peerDigestConsumer, "PeerDigestConsumer-Thread");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
 	}
 
 	@Override
 	public void close() {
-		// ignore
+		if (tuningWatcher != null) {
+			tuningWatcher.close();
+		}
+		if (autotuner != null) {
+			autotuner.close();
+		}
+		if (availability != null) {
+			availability.close();
+		}
+		if (backfill != null) {
+			backfill.close();
+		}
+		if (peerDigestConsumer != null) {
+			peerDigestConsumer.stop();
+		}
+		if (reconciler != null) {
+			reconciler.close();
+		}
+		if (instance != null) {
+			instance.shutdown();
+		}
+		if (bulkLane != null) {
+			bulkLane.close(Duration.ofSeconds(10));
+		}
+		if (producerPool != null) {
+			producerPool.close(Duration.ofSeconds(10));
+		}
+		synchronized (this) {
+			if (producer != null) {
+				producer.close(Duration.ofSeconds(10));
+				producer = null;
+			}
+		}
+		if (hotLog != null) {
+			hotLog.close();
+		}
+		if (bulkLog != null) {
+			bulkLog.close();
+		}
 	}
 }
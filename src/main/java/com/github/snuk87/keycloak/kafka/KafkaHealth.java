@@ -0,0 +1,151 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns producer and consumer stats into health checks in the MicroProfile Health response format. Liveness only
+ * covers the deletion consumer thread; readiness also checks producer connectivity, send errors, the age of the
+ * oldest unsent event, the peer digest consumer of the reconciler, consumer lag and how long ago the consumer last
+ * polled and committed.
+ */
+public class KafkaHealth {
+
+	public static final String UP = "UP";
+	public static final String DOWN = "DOWN";
+
+	private final long maxDegradedMs;
+	private final double maxErrorRate;
+	private final long minSends;
+	private final long maxUnsentAgeMs;
+	private final long maxLag;
+	private final long maxPollAgeMs;
+	private final long maxCommitAgeMs;
+
+	public KafkaHealth(long maxDegradedMs, double maxErrorRate, long minSends, long maxUnsentAgeMs, long maxLag,
+			long maxPollAgeMs, long maxCommitAgeMs) {
+		this.maxDegradedMs = maxDegradedMs;
+		this.maxErrorRate = maxErrorRate;
+		this.minSends = minSends;
+		this.maxUnsentAgeMs = maxUnsentAgeMs;
+		this.maxLag = maxLag;
+		this.maxPollAgeMs = maxPollAgeMs;
+		this.maxCommitAgeMs = maxCommitAgeMs;
+	}
+
+	/**
+	 * @param consumer consumer stats including {@code supervisor}, or {@code null} if the consumer is not deployed
+	 */
+	public Map<String, Object> liveness(Map<String, Object> consumer) {
+		List<Map<String, Object>> checks = new ArrayList<>();
+		if (consumer != null) {
+			consumerThread(checks, consumer);
+		}
+		return response(checks);
+	}
+
+	/**
+	 * @param producer producer stats, or {@code null} if the producer is not deployed
+	 * @param consumer consumer stats including {@code supervisor}, or {@code null} if the consumer is not deployed
+	 */
+	public Map<String, Object> readiness(Map<String, Object> producer, Map<String, Object> consumer) {
+		List<Map<String, Object>> checks = new ArrayList<>();
+		if (producer != null) {
+			producerChecks(checks, producer);
+		}
+		if (consumer != null) {
+			consumerThread(checks, consumer);
+			consumerChecks(checks, consumer);
+		}
+		return response(checks);
+	}
+
+	private void producerChecks(List<Map<String, Object>> checks, Map<String, Object> producer) {
+		String state = String.valueOf(producer.get("state"));
+		long degradedForMs = number(producer.get("degradedForMs"));
+		check(checks, "kafka-producer-connectivity", "AVAILABLE".equals(state) || degradedForMs <= maxDegradedMs,
+				"state", state, "degradedForMs", degradedForMs);
+
+		long sends = number(producer.get("recentSends"));
+		double errorRate = producer.get("recentSendErrorRate") instanceof Number rate ? rate.doubleValue() : 0.0;
+		check(checks, "kafka-producer-errors", sends < minSends || errorRate <= maxErrorRate,
+				"recentSends", sends, "recentSendErrorRate", errorRate);
+
+		long unsentAgeMs = Math.max(number(producer.get("oldestBufferedAgeMs")),
+				number(producer.get("oldestPendingAgeMs")));
+		check(checks, "kafka-producer-unsent", unsentAgeMs <= maxUnsentAgeMs,
+				"oldestUnsentAgeMs", unsentAgeMs, "buffered", number(producer.get("buffered")),
+				"pendingSends", number(producer.get("pendingSends")));
+
+		if (producer.get("peerDigests") instanceof Map<?, ?> peer) {
+			check(checks, "kafka-reconcile-peer-consumer", Boolean.TRUE.equals(peer.get("alive")),
+					"alive", peer.get("alive"), "lastFailure", String.valueOf(peer.get("lastFailure")));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void consumerThread(List<Map<String, Object>> checks, Map<String, Object> consumer) {
+		Map<String, Object> supervisor = consumer.get("supervisor") instanceof Map<?, ?> map
+				? (Map<String, Object>) map : Map.of();
+		boolean alive = Boolean.TRUE.equals(supervisor.get("alive"));
+		long lastFailure = number(supervisor.get("lastFailureTimestamp"));
+		// a consumer that just died is being restarted by the supervisor
+		boolean restarting = lastFailure > 0 && System.currentTimeMillis() - lastFailure <= maxPollAgeMs;
+		check(checks, "kafka-consumer-thread", alive || restarting,
+				"alive", alive, "restarts", number(supervisor.get("restarts")),
+				"lastFailure", String.valueOf(supervisor.get("lastFailure")));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void consumerChecks(List<Map<String, Object>> checks, Map<String, Object> consumer) {
+		Map<String, Object> supervisor = consumer.get("supervisor") instanceof Map<?, ?> map
+				? (Map<String, Object>) map : Map.of();
+		long uptimeMs = number(supervisor.get("uptimeMs"));
+		long now = System.currentTimeMillis();
+		boolean paused = Boolean.TRUE.equals(consumer.get("paused"));
+
+		long lag = 0;
+		if (consumer.get("lag") instanceof Map<?, ?> partitions) {
+			for (Object value : partitions.values()) {
+				lag += number(value);
+			}
+		}
+		check(checks, "kafka-consumer-lag", paused || lag <= maxLag, "lag", lag, "paused", paused);
+
+		long lastPoll = number(consumer.get("lastPollTimestamp"));
+		long pollAgeMs = lastPoll > 0 ? now - lastPoll : uptimeMs;
+		check(checks, "kafka-consumer-poll", pollAgeMs <= maxPollAgeMs, "lastPollAgeMs", pollAgeMs);
+
+		// an idle topic has nothing to commit
+		long lastCommit = number(consumer.get("lastCommitTimestamp"));
+		long commitAgeMs = lastCommit > 0 ? now - lastCommit : uptimeMs;
+		check(checks, "kafka-consumer-commit", paused || lag == 0 || commitAgeMs <= maxCommitAgeMs,
+				"lastCommitAgeMs", commitAgeMs);
+	}
+
+	private static void check(List<Map<String, Object>> checks, String name, boolean up, Object... data) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		for (int i = 0; i < data.length; i += 2) {
+			values.put((String) data[i], data[i + 1]);
+		}
+		Map<String, Object> check = new LinkedHashMap<>();
+		check.put("name", name);
+		check.put("status", up ? UP : DOWN);
+		check.put("data", values);
+		checks.add(check);
+	}
+
+	private static Map<String, Object> response(List<Map<String, Object>> checks) {
+		boolean up = checks.stream().allMatch(check -> UP.equals(check.get("status")));
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("status", up ? UP : DOWN);
+		response.put("checks", checks);
+		return response;
+	}
+
+	private static long number(Object value) {
+		return value instanceof Number number ? number.longValue() : 0;
+	}
+}
@@ -0,0 +1,67 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.Map;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.services.resource.RealmResourceProvider;
+
+/**
+ * Unauthenticated readiness and liveness probes for the Kafka pipeline under
+ * {@code /realms/{realm}/kafka-health}, answering {@code 503} when a check is down.
+ */
+public class KafkaHealthResourceProvider implements RealmResourceProvider {
+
+	private final KeycloakSession session;
+	private final KafkaHealth health;
+
+	public KafkaHealthResourceProvider(KeycloakSession session, KafkaHealth health) {
+		this.session = session;
+		this.health = health;
+	}
+
+	@Override
+	public Object getResource() {
+		return this;
+	}
+
+	@GET
+	@Path("ready")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response ready() {
+		KafkaEventListenerProviderFactory producerFactory = (KafkaEventListenerProviderFactory) factory("kafka");
+		KafkaEventListenerConsumerFactory consumerFactory =
+				(KafkaEventListenerConsumerFactory) factory("kafka-consumer-delete-user");
+		return response(health.readiness(producerFactory == null ? null : producerFactory.producerStats(),
+				consumerFactory == null ? null : consumerFactory.consumerStats()));
+	}
+
+	@GET
+	@Path("live")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response live() {
+		KafkaEventListenerConsumerFactory consumerFactory =
+				(KafkaEventListenerConsumerFactory) factory("kafka-consumer-delete-user");
+		return response(health.liveness(consumerFactory == null ? null : consumerFactory.consumerStats()));
+	}
+
+	private Object factory(String id) {
+		return session.getKeycloakSessionFactory().getProviderFactory(EventListenerProvider.class, id);
+	}
+
+	private static Response response(Map<String, Object> result) {
+		Response.Status status = KafkaHealth.UP.equals(result.get("status"))
+				? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE;
+		return Response.status(status).entity(result).type(MediaType.APPLICATION_JSON).build();
+	}
+
+	@Override
+	public void close() {
+		// ignore
+	}
+}
@@ -0,0 +1,59 @@
+package com.github.snuk87.keycloak.kafka;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config.Scope;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+public class KafkaHealthResourceProviderFactory implements RealmResourceProviderFactory {
+
+	private static final Logger LOG = Logger.getLogger(KafkaHealthResourceProviderFactory.class);
+	private static final String ID = "kafka-health";
+
+	private KafkaHealth health;
+
+	@Override
+	public RealmResourceProvider create(KeycloakSession session) {
+		return new KafkaHealthResourceProvider(session, health);
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	public void init(Scope config) {
+		long maxDegradedMs = Long.parseLong(config.get("healthMaxDegradedMs",
+				System.getenv().getOrDefault("KAFKA_HEALTH_MAX_DEGRADED_MS", "30000")));
+		double maxErrorRate = Double.parseDouble(config.get("healthMaxErrorRate",
+				System.getenv().getOrDefault("KAFKA_HEALTH_MAX_ERROR_RATE", "0.1")));
+		long minSends = Long.parseLong(config.get("healthMinSends",
+				System.getenv().getOrDefault("KAFKA_HEALTH_MIN_SENDS", "20")));
+		long maxUnsentAgeMs = Long.parseLong(config.get("healthMaxUnsentAgeMs",
+				System.getenv().getOrDefault("KAFKA_HEALTH_MAX_UNSENT_AGE_MS", "30000")));
+		long maxLag = Long.parseLong(config.get("healthMaxLag",
+				System.getenv().getOrDefault("KAFKA_HEALTH_MAX_LAG", "10000")));
+		long maxPollAgeMs = Long.parseLong(config.get("healthMaxPollAgeMs",
+				System.getenv().getOrDefault("KAFKA_HEALTH_MAX_POLL_AGE_MS", "60000")));
+		long maxCommitAgeMs = Long.parseLong(config.get("healthMaxCommitAgeMs",
+				System.getenv().getOrDefault("KAFKA_HEALTH_MAX_COMMIT_AGE_MS", "300000")));
+		LOG.infof("Kafka health thresholds: degraded %d ms, error rate %.2f over %d sends, unsent %d ms, lag %d, "
+				+ "poll %d ms, commit %d ms", maxDegradedMs, maxErrorRate, minSends, maxUnsentAgeMs, maxLag,
+				maxPollAgeMs, maxCommitAgeMs);
+		health = new KafkaHealth(maxDegradedMs, maxErrorRate, minSends, maxUnsentAgeMs, maxLag, maxPollAgeMs,
+				maxCommitAgeMs);
+	}
+
+	@Override
+	public void postInit(KeycloakSessionFactory factory) {
+		// ignore
+	}
+
+	@Override
+	public void close() {
+		// ignore
+	}
+}
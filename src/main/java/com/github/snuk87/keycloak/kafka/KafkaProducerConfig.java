@@ -1,8 +1,10 @@
 package com.github.snuk87.keycloak.kafka;
 
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.keycloak.Config.Scope;
 
 import java.util.Map;
+import java.util.Set;
 
 public class KafkaProducerConfig extends KafkaConfig {
 
@@ -26,20 +28,44 @@ public class KafkaProducerConfig extends KafkaConfig {
         public String getName() { return name; }
     }
 
+    /**
+     * Properties that may be changed through the tuning file and the admin endpoint.
+     */
+    public static final Set<String> TUNABLE = Set.of("linger.ms", "batch.size", "compression.type",
+            "compression.gzip.level", "compression.lz4.level", "compression.zstd.level", "buffer.memory",
+            "max.block.ms", "max.request.size", "request.timeout.ms", "delivery.timeout.ms", "retry.backoff.ms",
+            "retry.backoff.max.ms", "reconnect.backoff.ms", "reconnect.backoff.max.ms", "send.buffer.bytes",
+            "receive.buffer.bytes", "metadata.max.age.ms", "connections.max.idle.ms",
+            "partitioner.adaptive.partitioning.enable", "partitioner.availability.timeout.ms");
+
     public static Map<String, Object> initProducer(Scope scope) {
+        return initProducer(scope, System.getenv());
+    }
+
+    public static Map<String, Object> initProducer(Scope scope, Map<String, String> env) {
         KafkaProperty[] common = KafkaProperty.values();
         ProducerProperty[] specific = ProducerProperty.values();
 
-        Map<String, Object> props = KafkaConfig.init(scope, common);
+        Map<String, Object> props = KafkaConfig.init(scope, common, env);
 
         for (ProducerProperty p : specific) {
-            String envValue = System.getenv("KAFKA_" + p.name());
+            String envValue = env.get("KAFKA_" + p.name());
             String scopeValue = scope.get(p.getName(), envValue);
             if (scopeValue != null) {
                 props.put(p.getName(), scopeValue);
             }
         }
 
+        props.putAll(passthrough(scope, env, "producer", ProducerConfig.configDef()));
+
         return props;
     }
+
+    public static Map<String, Object> validate(Map<String, Object> properties, String source) {
+        return validate(properties, ProducerConfig.configDef(), TUNABLE, source);
+    }
+
+    public static Map<String, Object> validValues(Map<String, Object> properties, String source) {
+        return validValues(properties, ProducerConfig.configDef(), TUNABLE, source);
+    }
 }
@@ -0,0 +1,99 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.context.propagation.TextMapSetter;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+/**
+ * W3C trace-context propagation through Kafka record headers plus sampled spans for the publish and delete
+ * paths. A span is only recorded when its parent is sampled or the local sampling ratio hits; otherwise the
+ * invalid span is returned, which costs nothing to start and end. The incoming trace context is always
+ * propagated.
+ */
+public class KafkaTracing {
+
+	private static final TextMapPropagator PROPAGATOR = W3CTraceContextPropagator.getInstance();
+
+	private static final TextMapSetter<Headers> SETTER = (headers, key, value) -> {
+		headers.remove(key);
+		headers.add(key, value.getBytes(StandardCharsets.UTF_8));
+	};
+
+	private static final TextMapGetter<Headers> GETTER = new TextMapGetter<>() {
+		@Override
+		public Iterable<String> keys(Headers headers) {
+			List<String> keys = new ArrayList<>();
+			for (Header header : headers) {
+				keys.add(header.key());
+			}
+			return keys;
+		}
+
+		@Override
+		public String get(Headers headers, String key) {
+			if (headers == null) {
+				return null;
+			}
+			Header header = headers.lastHeader(key);
+			return header == null || header.value() == null ? null
+					: new String(header.value(), StandardCharsets.UTF_8);
+		}
+	};
+
+	private final Tracer tracer;
+	private final double sampleRatio;
+
+	public KafkaTracing(OpenTelemetry openTelemetry, double sampleRatio) {
+		this.tracer = openTelemetry.getTracer("keycloak-kafka");
+		this.sampleRatio = sampleRatio;
+	}
+
+	public static KafkaTracing create(double sampleRatio) {
+		return new KafkaTracing(GlobalOpenTelemetry.get(), sampleRatio);
+	}
+
+	public static KafkaTracing disabled() {
+		return new KafkaTracing(OpenTelemetry.noop(), 0);
+	}
+
+	public Span startSpan(String name, Context parent, SpanKind kind) {
+		boolean parentSampled = Span.fromContext(parent).getSpanContext().isSampled();
+		if (!parentSampled && (sampleRatio <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRatio)) {
+			return Span.getInvalid();
+		}
+		return tracer.spanBuilder(name).setParent(parent).setSpanKind(kind).startSpan();
+	}
+
+	public Span startChildSpan(String name) {
+		if (!Span.current().getSpanContext().isSampled()) {
+			return Span.getInvalid();
+		}
+		return tracer.spanBuilder(name).setParent(Context.current()).startSpan();
+	}
+
+	public static Context contextOf(Span span) {
+		return span.getSpanContext().isValid() ? Context.current().with(span) : Context.current();
+	}
+
+	public void inject(Context context, Headers headers) {
+		PROPAGATOR.inject(context, headers, SETTER);
+	}
+
+	public Context extract(Headers headers) {
+		return PROPAGATOR.extract(Context.root(), headers, GETTER);
+	}
+}
@@ -0,0 +1,51 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Resolves a name for this Keycloak node that is stable across restarts: an explicitly configured name, the
+ * Keycloak/Infinispan node name ({@code jboss.node.name}), the container host name ({@code HOSTNAME}, the pod
+ * name on Kubernetes) or finally the local host name. If none of them is available, a random name is used, so that
+ * such nodes do not share a static member id and transactional id and fence each other.
+ */
+public final class NodeIdentity {
+
+	private static final Logger LOG = Logger.getLogger(NodeIdentity.class);
+
+	private NodeIdentity() {
+	}
+
+	public static String resolve(String configured) {
+		if (configured != null && !configured.isBlank()) {
+			return sanitize(configured);
+		}
+		String nodeName = System.getProperty("jboss.node.name");
+		if (nodeName != null && !nodeName.isBlank()) {
+			return sanitize(nodeName);
+		}
+		String hostName = System.getenv("HOSTNAME");
+		if (hostName != null && !hostName.isBlank()) {
+			return sanitize(hostName);
+		}
+		try {
+			String localHost = InetAddress.getLocalHost().getHostName();
+			if (localHost != null && !localHost.isBlank() && !"localhost".equals(localHost)) {
+				return sanitize(localHost);
+			}
+		} catch (UnknownHostException e) {
+			LOG.debug("Cannot resolve the local host name", e);
+		}
+		String random = "node-" + UUID.randomUUID();
+		LOG.warnf("No stable node name found, using %s; set KAFKA_NODE_NAME so restarts keep their static membership "
+				+ "and transactional id", random);
+		return random;
+	}
+
+	private static String sanitize(String name) {
+		return name.trim().replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+}
@@ -0,0 +1,107 @@
+package com.github.snuk87.keycloak.kafka;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.errors.WakeupException;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads peer digests from the given topic and hands them to the {@link UserReconciler}. The reconciliation itself
+ * runs on the reconciler's thread, so a long realm scan never exceeds {@code max.poll.interval.ms}. If the consumer
+ * cannot be created or fails, the thread ends and {@link #stats()} reports it as not alive with the failure.
+ */
+public class PeerDigestConsumer implements Runnable {
+    private static final Logger LOG = Logger.getLogger(PeerDigestConsumer.class);
+
+    private final KafkaConsumerFactory factory;
+    private final String clientId;
+    private final String bootstrapServer;
+    private final Map<String, Object> properties;
+    private final String topic;
+    private final UserReconciler reconciler;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private volatile Consumer<String, String> consumer;
+    private volatile boolean running = true;
+    private volatile boolean alive = true;
+    private volatile String lastFailure;
+    private volatile long lastFailureTimestamp;
+
+    public PeerDigestConsumer(KafkaConsumerFactory factory, String clientId, String bootstrapServer,
+                              Map<String, Object> properties, String topic, UserReconciler reconciler) {
+        this.factory = factory;
+        this.clientId = clientId;
+        this.bootstrapServer = bootstrapServer;
+        this.properties = properties;
+        this.topic = topic;
+        this.reconciler = reconciler;
+    }
+
+    @Override
+    public void run() {
+        try {
+            consumer = factory.createConsumer(clientId, bootstrapServer, properties);
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        try {
+            consumer.subscribe(Collections.singletonList(topic));
+            LOG.info("Peer digest consumer subscribed to " + topic);
+            while (running) {
+                ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(1));
+                for (ConsumerRecord<String, String> record : records) {
+                    try {
+                        JsonNode peer = mapper.readTree(record.value());
+                        reconciler.requestReconcile(peer);
+                    } catch (Exception e) {
+                        LOG.errorf(e, "Invalid peer digests at offset %d of %s", record.offset(), topic);
+                    }
+                }
+                if (!records.isEmpty()) {
+                    consumer.commitSync();
+                }
+            }
+        } catch (WakeupException e) {
+            if (running) {
+                fail(e);
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            alive = false;
+            consumer.close();
+            LOG.info("Peer digest consumer stopped");
+        }
+    }
+
+    private void fail(RuntimeException e) {
+        alive = false;
+        lastFailure = e.getClass().getName() + ": " + e.getMessage();
+        lastFailureTimestamp = System.currentTimeMillis();
+        LOG.errorf(e, "Peer digest consumer of %s failed, peer digests are no longer reconciled", topic);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("alive", alive);
+        stats.put("lastFailure", lastFailure);
+        stats.put("lastFailureTimestamp", lastFailureTimestamp);
+        return stats;
+    }
+
+    public void stop() {
+        running = false;
+        Consumer<String, String> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+}
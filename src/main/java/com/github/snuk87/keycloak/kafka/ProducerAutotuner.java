@@ -0,0 +1,188 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.jboss.logging.Logger;
+
+/**
+ * Adjusts {@code linger.ms} and {@code batch.size} of the main producer to the observed load, within the given
+ * bounds. Every interval the p99 publish latency is taken from the {@link SendTracker} and the average batch size
+ * from the producer metrics:
+ * <ul>
+ * <li>above the target p99, the linger is halved</li>
+ * <li>below half the target and at a rate where batching pays off, the linger is doubled, but never by more than
+ * half of the remaining headroom</li>
+ * <li>at a trickle, the linger goes back to the minimum, as there is nothing to batch</li>
+ * <li>batches that fill up before the linger ends double the batch size, mostly empty ones halve it</li>
+ * </ul>
+ * A change is applied by the listener, usually by swapping the producer, so the interval after a change is
+ * discarded as it includes the warm-up of the new producer.
+ */
+public class ProducerAutotuner {
+
+	private static final Logger LOG = Logger.getLogger(ProducerAutotuner.class);
+	private static final long MIN_SAMPLES = 50;
+
+	public record Sample(long sends, double ratePerSecond, long p99Ms, double batchSizeAvg) {
+	}
+
+	private final Supplier<Producer<String, String>> producer;
+	private final SendTracker sends;
+	private final BooleanSupplier ready;
+	private final Consumer<Map<String, Object>> listener;
+	private final long targetP99Ms;
+	private final double minRate;
+	private final long minLingerMs;
+	private final long maxLingerMs;
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "KafkaProducerAutotuner");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile long lingerMs;
+	private volatile int batchSize;
+	private volatile Sample lastSample;
+	private volatile long adjustments;
+	private boolean settling;
+	private long lastTuneTimestamp = System.currentTimeMillis();
+
+	public ProducerAutotuner(Supplier<Producer<String, String>> producer, SendTracker sends, BooleanSupplier ready,
+			Consumer<Map<String, Object>> listener, long targetP99Ms, double minRate, long minLingerMs,
+			long maxLingerMs, int minBatchSize, int maxBatchSize, long lingerMs, int batchSize) {
+		this.producer = producer;
+		this.sends = sends;
+		this.ready = ready;
+		this.listener = listener;
+		this.targetP99Ms = targetP99Ms;
+		this.minRate = minRate;
+		this.minLingerMs = minLingerMs;
+		this.maxLingerMs = maxLingerMs;
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.lingerMs = Math.max(minLingerMs, Math.min(maxLingerMs, lingerMs));
+		this.batchSize = Math.max(minBatchSize, Math.min(maxBatchSize, batchSize));
+	}
+
+	/**
+	 * @return the settings to create the producer with
+	 */
+	public Map<String, Object> settings() {
+		return Map.of("linger.ms", lingerMs, "batch.size", batchSize);
+	}
+
+	public void start(long intervalMs) {
+		LOG.infof("Autotuning producer towards p99=%dms: linger.ms=%d, batch.size=%d", targetP99Ms, lingerMs,
+				batchSize);
+		scheduler.scheduleWithFixedDelay(this::tune, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void tune() {
+		long now = System.currentTimeMillis();
+		long[] latencies = sends.drainLatencies();
+		double seconds = Math.max(1, now - lastTuneTimestamp) / 1000.0;
+		lastTuneTimestamp = now;
+		if (settling || !ready.getAsBoolean()) {
+			settling = false;
+			return;
+		}
+		long count = 0;
+		for (long bucket : latencies) {
+			count += bucket;
+		}
+		try {
+			adjust(new Sample(count, count / seconds, percentile(latencies, count, 0.99), batchSizeAvg()));
+		} catch (Exception e) {
+			LOG.error("Producer autotuning failed, keeping linger.ms=" + lingerMs + ", batch.size=" + batchSize, e);
+		}
+	}
+
+	/**
+	 * @return {@code true} if the settings were changed
+	 */
+	public synchronized boolean adjust(Sample sample) {
+		lastSample = sample;
+		long linger = lingerMs;
+		int batch = batchSize;
+		boolean trickle = sample.ratePerSecond() < minRate;
+		if (sample.sends() >= MIN_SAMPLES && sample.p99Ms() > targetP99Ms) {
+			linger = Math.max(minLingerMs, linger / 2);
+		} else if (trickle) {
+			linger = minLingerMs;
+		} else if (sample.sends() >= MIN_SAMPLES && sample.p99Ms() * 2 < targetP99Ms) {
+			long headroom = targetP99Ms - sample.p99Ms();
+			linger = Math.min(maxLingerMs, Math.min(Math.max(1, linger * 2), linger + headroom / 2));
+		}
+		if (!trickle && sample.batchSizeAvg() >= batch * 0.9) {
+			batch = Math.min(maxBatchSize, batch * 2);
+		} else if (sample.batchSizeAvg() > 0 && sample.batchSizeAvg() < batch / 8.0) {
+			batch = Math.max(minBatchSize, batch / 2);
+		}
+		if (linger == lingerMs && batch == batchSize) {
+			return false;
+		}
+		LOG.infof("Autotuning producer (p99=%dms, %.1f sends/s, batch avg %.0f bytes): linger.ms %d -> %d, "
+				+ "batch.size %d -> %d", sample.p99Ms(), sample.ratePerSecond(), sample.batchSizeAvg(), lingerMs,
+				linger, batchSize, batch);
+		listener.accept(Map.of("linger.ms", linger, "batch.size", batch));
+		lingerMs = linger;
+		batchSize = batch;
+		adjustments++;
+		settling = true;
+		return true;
+	}
+
+	private double batchSizeAvg() {
+		Object value = producer.get().metrics().entrySet().stream()
+				.filter(metric -> "producer-metrics".equals(metric.getKey().group())
+						&& "batch-size-avg".equals(metric.getKey().name()))
+				.map(metric -> metric.getValue().metricValue())
+				.findFirst().orElse(null);
+		return value instanceof Double avg && !avg.isNaN() ? avg : 0;
+	}
+
+	/**
+	 * @return the upper bound of the bucket holding the given percentile of the {@link SendTracker#drainLatencies()}
+	 *         counts
+	 */
+	static long percentile(long[] counts, long total, double percentile) {
+		long rank = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0) {
+				return (1L << i) - 1;
+			}
+		}
+		return 0;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("lingerMs", lingerMs);
+		stats.put("batchSize", batchSize);
+		stats.put("targetP99Ms", targetP99Ms);
+		stats.put("adjustments", adjustments);
+		Sample sample = lastSample;
+		if (sample != null) {
+			stats.put("p99Ms", sample.p99Ms());
+			stats.put("sendsPerSecond", sample.ratePerSecond());
+			stats.put("batchSizeAvg", sample.batchSizeAvg());
+		}
+		return stats;
+	}
+
+	public void close() {
+		scheduler.shutdownNow();
+	}
+}
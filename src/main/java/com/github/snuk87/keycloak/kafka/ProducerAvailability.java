@@ -0,0 +1,252 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.jboss.logging.Logger;
+
+/**
+ * Tracks whether the brokers are reachable, so request threads never block on {@code max.block.ms} while they are
+ * not. Until a {@link ProducerWarmup} over the configured topics succeeds, and again after a send failed, the
+ * producer is degraded: records are kept in a bounded buffer or shed, depending on the {@link DegradedPolicy}, while
+ * the warm-up is retried with exponential backoff. Once it succeeds the buffer is replayed, and the producer only
+ * becomes available again when the buffer is empty; records whose replay fails go back into the buffer.
+ *
+ * <p>Delivery is at-least-once: a send that failed or timed out may still have been written by the broker, so a
+ * replayed record can be a duplicate. Replayed records keep their key and headers, so consumers can recognise
+ * duplicates by key and {@code event-timestamp}.
+ */
+public class ProducerAvailability {
+
+	private static final Logger LOG = Logger.getLogger(ProducerAvailability.class);
+
+	public enum State {
+		CONNECTING,
+		AVAILABLE,
+		DEGRADED
+	}
+
+	public enum DegradedPolicy {
+		/** keep records in memory up to the buffer capacity, shedding the newest beyond */
+		BUFFER,
+		/** drop records while degraded */
+		SHED
+	}
+
+	private final Supplier<Producer<String, String>> producerSupplier;
+	private final List<String> topics;
+	private final long probeTimeoutMs;
+	private final long initialBackoffMs;
+	private final long maxBackoffMs;
+	private final DegradedPolicy policy;
+	private final BlockingQueue<Held> buffer;
+	private final ScheduledExecutorService prober;
+	private final AtomicLong shed = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	private volatile State state = State.CONNECTING;
+	private volatile long degradedSince = System.currentTimeMillis();
+	private long backoffMs;
+	private boolean probing;
+
+	private record Held(ProducerRecord<String, String> record, long heldAt) {
+	}
+
+	public ProducerAvailability(Supplier<Producer<String, String>> producerSupplier, List<String> topics,
+			long probeTimeoutMs, long initialBackoffMs, long maxBackoffMs, DegradedPolicy policy, int bufferCapacity) {
+		this.producerSupplier = producerSupplier;
+		this.topics = topics;
+		this.probeTimeoutMs = probeTimeoutMs;
+		this.initialBackoffMs = initialBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+		this.policy = policy;
+		this.buffer = new ArrayBlockingQueue<>(Math.max(1, bufferCapacity));
+		this.backoffMs = initialBackoffMs;
+		this.prober = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "KafkaProducerReconnect-Thread");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public synchronized void start() {
+		scheduleProbe(0);
+	}
+
+	public boolean isAvailable() {
+		return state == State.AVAILABLE;
+	}
+
+	public State state() {
+		return state;
+	}
+
+	/**
+	 * Keeps or sheds a record while the producer is not available. A record held by a caller that saw the producer
+	 * unavailable just before the replay finished is sent right away, outside the lock, since the send may block on
+	 * {@code max.block.ms} while the failure callbacks on the network thread need the lock.
+	 */
+	public void hold(ProducerRecord<String, String> record) {
+		synchronized (this) {
+			if (state != State.AVAILABLE) {
+				keep(record);
+				return;
+			}
+		}
+		send(producerSupplier.get(), record);
+	}
+
+	private synchronized void keep(ProducerRecord<String, String> record) {
+		if (policy == DegradedPolicy.BUFFER && buffer.offer(new Held(record, System.currentTimeMillis()))) {
+			return;
+		}
+		if (shed.incrementAndGet() % 1000 == 1) {
+			LOG.warnf("Kafka producer %s, %d event(s) shed so far", state, shed.get());
+		}
+	}
+
+	public synchronized void markFailed(Exception cause) {
+		failures.incrementAndGet();
+		if (state == State.AVAILABLE) {
+			LOG.warn("Kafka producer degraded, buffering events until the brokers are reachable again", cause);
+			state = State.DEGRADED;
+			degradedSince = System.currentTimeMillis();
+			backoffMs = initialBackoffMs;
+			scheduleProbe(0);
+		}
+	}
+
+	private void scheduleProbe(long delayMs) {
+		if (probing) {
+			return;
+		}
+		probing = true;
+		prober.schedule(this::probe, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	private void probe() {
+		boolean reachable;
+		try {
+			reachable = new ProducerWarmup(producerSupplier, topics, probeTimeoutMs).start()
+					.get(probeTimeoutMs + 1000, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			reachable = false;
+		}
+		synchronized (this) {
+			probing = false;
+			if (!reachable) {
+				LOG.debugf("Kafka brokers still unreachable, retrying in %d ms", backoffMs);
+				scheduleProbe(backoffMs);
+				backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+				return;
+			}
+			LOG.infof("Kafka producer available after %d ms, replaying %d buffered event(s)",
+					System.currentTimeMillis() - degradedSince, buffer.size());
+			backoffMs = initialBackoffMs;
+		}
+		replay();
+	}
+
+	private void replay() {
+		Producer<String, String> producer = producerSupplier.get();
+		while (true) {
+			AtomicLong failed = new AtomicLong();
+			int replayed = drain(producer, failed);
+			if (replayed > 0) {
+				producer.flush();
+			}
+			synchronized (this) {
+				if (failed.get() > 0) {
+					LOG.warnf("Replay of %d buffered event(s) failed, retrying in %d ms", failed.get(), backoffMs);
+					scheduleProbe(backoffMs);
+					backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+					return;
+				}
+				// records held while the buffer was being drained are replayed before new records are sent
+				if (buffer.isEmpty()) {
+					state = State.AVAILABLE;
+					return;
+				}
+			}
+		}
+	}
+
+	private int drain(Producer<String, String> producer, AtomicLong failed) {
+		// records put back by a failed send wait for the next probe
+		int replayed = buffer.size();
+		for (int i = 0; i < replayed; i++) {
+			Held replay = buffer.poll();
+			if (replay == null) {
+				return i;
+			}
+			try {
+				producer.send(replay.record(), (metadata, exception) -> {
+					if (exception != null) {
+						retry(replay, exception, failed);
+					}
+				});
+			} catch (KafkaException e) {
+				retry(replay, e, failed);
+			}
+		}
+		return replayed;
+	}
+
+	private void retry(Held held, Exception cause, AtomicLong failed) {
+		failed.incrementAndGet();
+		if (!buffer.offer(held)) {
+			shed.incrementAndGet();
+			LOG.errorf(cause, "Failed to replay buffered event to topic '%s', buffer full", held.record().topic());
+		}
+	}
+
+	private void send(Producer<String, String> producer, ProducerRecord<String, String> record) {
+		try {
+			producer.send(record, (metadata, exception) -> {
+				if (exception != null) {
+					failed(record, exception);
+				}
+			});
+		} catch (KafkaException e) {
+			failed(record, e);
+		}
+	}
+
+	private synchronized void failed(ProducerRecord<String, String> record, Exception cause) {
+		markFailed(cause);
+		keep(record);
+	}
+
+	public long oldestBufferedAgeMs() {
+		Held oldest = buffer.peek();
+		return oldest == null ? 0 : System.currentTimeMillis() - oldest.heldAt();
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("state", state.name());
+		stats.put("buffered", buffer.size());
+		stats.put("oldestBufferedAgeMs", oldestBufferedAgeMs());
+		stats.put("shed", shed.get());
+		stats.put("sendFailures", failures.get());
+		if (state != State.AVAILABLE) {
+			stats.put("degradedForMs", System.currentTimeMillis() - degradedSince);
+		}
+		return stats;
+	}
+
+	public void close() {
+		prober.shutdownNow();
+	}
+}
@@ -0,0 +1,175 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.jboss.logging.Logger;
+import org.keycloak.Config.Scope;
+
+/**
+ * Producers of the Kafka clusters that single realms are isolated onto. Each cluster has its own producer, created
+ * on first use and shared by all realms mapped to it, with its own buffer, connections and metrics, so a noisy realm
+ * cannot starve the others. Realms can be mapped by name or id; the name of an unknown realm id is looked up once
+ * and the route is cached. Realms that are not mapped use the default producer. Every publishing path resolves its
+ * producer here: events, the bulk lane, user snapshots, the backfill and the reconciliation.
+ */
+public class ProducerPool {
+
+	private static final Logger LOG = Logger.getLogger(ProducerPool.class);
+	private static final String DEFAULT = "";
+	private static final Set<String> CLUSTER_STATS = Set.of("record-send-rate", "record-error-rate",
+			"buffer-available-bytes", "request-latency-avg", "connection-count");
+
+	public record Cluster(String name, String bootstrapServers, Set<String> realms, Map<String, Object> properties) {
+	}
+
+	private final Map<String, Cluster> clusters = new LinkedHashMap<>();
+	private final Map<String, ReconfigurableProducer> producers = new LinkedHashMap<>();
+	private final Map<String, String> mapped = new HashMap<>();
+	private final Map<String, String> routes = new ConcurrentHashMap<>();
+	private final Function<String, String> realmNames;
+
+	/**
+	 * @param properties properties of the default producer, which the clusters inherit except for the bootstrap
+	 *            servers
+	 * @param realmNames looks up the name of a realm id, {@code null} if there is no such realm
+	 */
+	public ProducerPool(KafkaProducerFactory factory, String clientId, Map<String, Object> properties,
+			List<Cluster> clusters, Function<String, String> realmNames) {
+		this.realmNames = realmNames;
+		for (Cluster cluster : clusters) {
+			Map<String, Object> merged = new HashMap<>(properties);
+			merged.remove(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG);
+			merged.putAll(cluster.properties());
+			this.clusters.put(cluster.name(), cluster);
+			this.producers.put(cluster.name(), new ReconfigurableProducer(
+					() -> factory.createProducer(clientId + "-" + cluster.name(), cluster.bootstrapServers(), merged)));
+			for (String realm : cluster.realms()) {
+				String previous = mapped.put(realm, cluster.name());
+				if (previous != null) {
+					throw new IllegalArgumentException(
+							"Realm " + realm + " is mapped to kafka clusters " + previous + " and " + cluster.name());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the producer of the cluster the realm is mapped to, or {@code null} to use the default producer
+	 */
+	public Producer<String, String> forRealm(String realmId) {
+		String cluster = clusterName(realmId);
+		return cluster.isEmpty() ? null : producers.get(cluster);
+	}
+
+	/**
+	 * @return the cluster the realm is mapped to, or {@code null} for the default cluster
+	 */
+	public Cluster clusterOf(String realmId) {
+		String cluster = clusterName(realmId);
+		return cluster.isEmpty() ? null : clusters.get(cluster);
+	}
+
+	private String clusterName(String realmId) {
+		if (realmId == null) {
+			return DEFAULT;
+		}
+		String cluster = routes.get(realmId);
+		return cluster == null ? route(realmId) : cluster;
+	}
+
+	private String route(String realmId) {
+		String cluster = mapped.get(realmId);
+		if (cluster == null) {
+			try {
+				String name = realmNames.apply(realmId);
+				cluster = name == null ? null : mapped.get(name);
+			} catch (RuntimeException e) {
+				LOG.warnf("Cannot look up realm %s, using the default kafka cluster for now: %s", realmId,
+						e.getMessage());
+				return DEFAULT;
+			}
+		}
+		cluster = cluster == null ? DEFAULT : cluster;
+		routes.put(realmId, cluster);
+		if (!cluster.isEmpty()) {
+			LOG.infof("Events of realm %s are sent to kafka cluster %s", realmId, cluster);
+		}
+		return cluster;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		producers.forEach((name, producer) -> {
+			Map<String, Object> cluster = new LinkedHashMap<>();
+			cluster.put("bootstrapServers", clusters.get(name).bootstrapServers());
+			cluster.put("realms", clusters.get(name).realms().stream().sorted().toList());
+			cluster.put("created", producer.getDelegate() != null);
+			producer.metrics().forEach((metric, value) -> {
+				if ("producer-metrics".equals(metric.group()) && CLUSTER_STATS.contains(metric.name())) {
+					cluster.put(metric.name(), value.metricValue());
+				}
+			});
+			stats.put(name, cluster);
+		});
+		return stats;
+	}
+
+	public void close(Duration timeout) {
+		producers.values().forEach(producer -> {
+			try {
+				producer.close(timeout);
+			} catch (Exception e) {
+				LOG.error("Error closing kafka cluster producer", e);
+			}
+		});
+	}
+
+	/**
+	 * Reads the clusters named in {@code KAFKA_CLUSTERS} (comma separated). A cluster {@code big-tenant} is
+	 * configured with {@code KAFKA_CLUSTER_BIG_TENANT_BOOTSTRAP_SERVERS}, {@code KAFKA_CLUSTER_BIG_TENANT_REALMS}
+	 * (comma separated realm names or ids) and {@code KAFKA_CLUSTER_BIG_TENANT_PRODUCER_*} producer properties, or
+	 * the SPI options {@code cluster-big-tenant-bootstrap-servers}, {@code cluster-big-tenant-realms} and
+	 * {@code cluster-big-tenant-producer-*}.
+	 */
+	public static List<Cluster> clusters(Scope config, Map<String, String> env) {
+		List<Cluster> clusters = new ArrayList<>();
+		String names = config.get("clusters", env.get("KAFKA_CLUSTERS"));
+		if (names == null || names.isBlank()) {
+			return clusters;
+		}
+		for (String entry : names.split(",")) {
+			String name = entry.trim();
+			if (name.isEmpty()) {
+				continue;
+			}
+			String key = name.toUpperCase(Locale.ROOT).replace('-', '_');
+			String bootstrapServers = config.get("cluster-" + name + "-bootstrap-servers",
+					env.get("KAFKA_CLUSTER_" + key + "_BOOTSTRAP_SERVERS"));
+			String realms = config.get("cluster-" + name + "-realms", env.get("KAFKA_CLUSTER_" + key + "_REALMS"));
+			if (bootstrapServers == null) {
+				throw new NullPointerException("bootstrap servers of kafka cluster " + name + " must not be null");
+			}
+			if (realms == null) {
+				throw new NullPointerException("realms of kafka cluster " + name + " must not be null");
+			}
+			Map<String, Object> properties = KafkaConfig.passthrough(config, env, "KAFKA_CLUSTER_" + key + "_PRODUCER_",
+					"cluster." + name.replace('-', '.') + ".producer.", ProducerConfig.configDef());
+			clusters.add(new Cluster(name, bootstrapServers, Arrays.stream(realms.split(",")).map(String::trim)
+					.filter(realm -> !realm.isEmpty()).collect(Collectors.toSet()), properties));
+		}
+		return clusters;
+	}
+}
@@ -0,0 +1,68 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.PartitionInfo;
+import org.jboss.logging.Logger;
+
+/**
+ * Creates the producer and fetches the metadata of all configured topics in the background, so the first
+ * events after a deploy do not block on it. The warm-up gives up after the given timeout and interrupts a metadata
+ * fetch still waiting for {@code max.block.ms}; the producer then keeps fetching metadata lazily on the first send as
+ * before.
+ */
+public class ProducerWarmup {
+
+	private static final Logger LOG = Logger.getLogger(ProducerWarmup.class);
+
+	private final Supplier<Producer<String, String>> producerSupplier;
+	private final List<String> topics;
+	private final long timeoutMs;
+
+	public ProducerWarmup(Supplier<Producer<String, String>> producerSupplier, List<String> topics, long timeoutMs) {
+		this.producerSupplier = producerSupplier;
+		this.topics = topics.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+		this.timeoutMs = timeoutMs;
+	}
+
+	public CompletableFuture<Boolean> start() {
+		ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "KafkaProducerWarmup-Thread");
+			thread.setDaemon(true);
+			return thread;
+		});
+		CompletableFuture<Boolean> result = CompletableFuture.supplyAsync(this::prefetch, executor)
+				.completeOnTimeout(false, timeoutMs, TimeUnit.MILLISECONDS)
+				.exceptionally(e -> {
+					LOG.warn("Kafka producer warm-up failed, metadata will be fetched on first send", e);
+					return false;
+				});
+		result.thenAccept(success -> {
+			if (success) {
+				LOG.info("Kafka producer warm-up complete, topics ready: " + topics);
+			} else {
+				LOG.warnf("Kafka producer not ready after %d ms, continuing without warm-up", timeoutMs);
+			}
+			// stops the fetch of the current topic after a timeout instead of leaving it blocked in partitionsFor
+			executor.shutdownNow();
+		});
+		return result;
+	}
+
+	private boolean prefetch() {
+		Producer<String, String> producer = producerSupplier.get();
+		for (String topic : topics) {
+			List<PartitionInfo> partitions = producer.partitionsFor(topic);
+			LOG.debugf("Prefetched metadata for topic '%s': %d partition(s)", topic, partitions.size());
+		}
+		return true;
+	}
+}
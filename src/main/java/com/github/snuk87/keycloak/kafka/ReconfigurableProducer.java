@@ -0,0 +1,164 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.Uuid;
+import org.jboss.logging.Logger;
+
+/**
+ * Producer whose underlying client can be replaced at runtime. Sends that already reached the old client are
+ * flushed by closing it after the switch, so no record is lost. Transactions are delegated as-is and must not
+ * span a swap. When created with a factory, the client is only created on first use, and creation is retried on
+ * the next call if it fails (e.g. bootstrap servers not resolvable yet).
+ */
+public class ReconfigurableProducer implements Producer<String, String> {
+
+	private static final Logger LOG = Logger.getLogger(ReconfigurableProducer.class);
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Supplier<Producer<String, String>> factory;
+	private volatile Producer<String, String> delegate;
+
+	public ReconfigurableProducer(Producer<String, String> delegate) {
+		this.factory = null;
+		this.delegate = delegate;
+	}
+
+	public ReconfigurableProducer(Supplier<Producer<String, String>> factory) {
+		this.factory = factory;
+	}
+
+	private Producer<String, String> delegate() {
+		Producer<String, String> current = delegate;
+		if (current != null) {
+			return current;
+		}
+		synchronized (this) {
+			if (delegate == null) {
+				delegate = factory.get();
+			}
+			return delegate;
+		}
+	}
+
+	public void swap(Producer<String, String> replacement, Duration drainTimeout) {
+		Producer<String, String> old;
+		lock.writeLock().lock();
+		try {
+			old = delegate;
+			delegate = replacement;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (old == null) {
+			return;
+		}
+		LOG.info("Switched to reconfigured kafka producer, draining previous instance ...");
+		old.close(drainTimeout);
+		LOG.info("Previous kafka producer drained and closed");
+	}
+
+	public Producer<String, String> getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public Future<RecordMetadata> send(ProducerRecord<String, String> record) {
+		return send(record, null);
+	}
+
+	@Override
+	public Future<RecordMetadata> send(ProducerRecord<String, String> record, Callback callback) {
+		lock.readLock().lock();
+		try {
+			return delegate().send(record, callback);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void flush() {
+		delegate().flush();
+	}
+
+	@Override
+	public List<PartitionInfo> partitionsFor(String topic) {
+		return delegate().partitionsFor(topic);
+	}
+
+	@Override
+	public Map<MetricName, ? extends Metric> metrics() {
+		Producer<String, String> current = delegate;
+		return current == null ? Map.of() : current.metrics();
+	}
+
+	@Override
+	public Uuid clientInstanceId(Duration timeout) {
+		return delegate().clientInstanceId(timeout);
+	}
+
+	@Override
+	public void initTransactions() {
+		delegate().initTransactions();
+	}
+
+	@Override
+	public void beginTransaction() {
+		delegate().beginTransaction();
+	}
+
+	@Override
+	@Deprecated
+	public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+		delegate().sendOffsetsToTransaction(offsets, consumerGroupId);
+	}
+
+	@Override
+	public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets,
+			ConsumerGroupMetadata groupMetadata) {
+		delegate().sendOffsetsToTransaction(offsets, groupMetadata);
+	}
+
+	@Override
+	public void commitTransaction() {
+		delegate().commitTransaction();
+	}
+
+	@Override
+	public void abortTransaction() {
+		delegate().abortTransaction();
+	}
+
+	@Override
+	public void close() {
+		Producer<String, String> current = delegate;
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	@Override
+	public void close(Duration timeout) {
+		Producer<String, String> current = delegate;
+		if (current != null) {
+			current.close(timeout);
+		}
+	}
+}
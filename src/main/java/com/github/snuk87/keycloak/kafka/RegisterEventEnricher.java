@@ -0,0 +1,163 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.subOne.kecyloak_dto.UserInfo;
+import org.jboss.logging.Logger;
+import org.keycloak.events.Event;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * Builds the {@link UserInfo} for brokered registrations. The names are taken from the brokered identity
+ * context that the first-broker-login flow keeps in the current authentication session; only when that is
+ * not available the user is loaded on a background worker, so the signup request never waits for it.
+ *
+ * <p>The event is fired before the registration transaction commits, so the worker may not see the user yet. The
+ * lookup is then retried with exponential backoff, starting at {@value #RETRY_DELAY_MS}ms, before the create user
+ * event is dropped.
+ */
+public class RegisterEventEnricher {
+
+	private static final Logger LOG = Logger.getLogger(RegisterEventEnricher.class);
+
+	static final String BROKERED_CONTEXT_NOTE = "BROKERED_CONTEXT";
+	static final long RETRY_DELAY_MS = 100;
+	static final int MAX_ATTEMPTS = 6;
+
+	private final KeycloakSessionFactory sessionFactory;
+	private final ObjectMapper mapper;
+	private final int queueCapacity;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final ScheduledThreadPoolExecutor worker;
+
+	public RegisterEventEnricher(KeycloakSessionFactory sessionFactory, ObjectMapper mapper, int queueCapacity) {
+		this.sessionFactory = sessionFactory;
+		this.mapper = mapper;
+		this.queueCapacity = queueCapacity;
+		this.worker = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "RegisterEventEnricher-Thread");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * @return the raw brokered identity context of the current authentication session, if it belongs to the event
+	 */
+	public String brokeredContext(KeycloakSession session, Event event) {
+		if (session == null || session.getContext() == null) {
+			return null;
+		}
+		AuthenticationSessionModel authSession = session.getContext().getAuthenticationSession();
+		if (authSession == null || authSession.getRealm() == null
+				|| !authSession.getRealm().getId().equals(event.getRealmId())) {
+			return null;
+		}
+		return authSession.getAuthNote(BROKERED_CONTEXT_NOTE);
+	}
+
+	public UserInfo fromNote(String note, Event event) {
+		if (note == null) {
+			return null;
+		}
+		try {
+			JsonNode context = mapper.readTree(note);
+			String email = event.getDetails().get("email");
+			if (email == null) {
+				email = context.path("email").asText(null);
+			}
+			return new UserInfo(
+					context.path("firstName").asText(null),
+					context.path("lastName").asText(null),
+					UUID.fromString(event.getUserId()),
+					email,
+					false
+			);
+		} catch (Exception e) {
+			LOG.debug("Cannot read brokered identity context for user " + event.getUserId(), e);
+			return null;
+		}
+	}
+
+	public void defer(Event event, Consumer<UserInfo> publisher) {
+		if (sessionFactory == null) {
+			LOG.error("Cannot defer enrichment of user " + event.getUserId() + ", no session factory available");
+			return;
+		}
+		String userId = event.getUserId();
+		if (pending.incrementAndGet() > queueCapacity) {
+			pending.decrementAndGet();
+			LOG.errorf("Enrichment queue is full, create user event for '%s' dropped", userId);
+			return;
+		}
+		String realmId = event.getRealmId();
+		String email = event.getDetails().get("email");
+		try {
+			worker.execute(() -> lookup(realmId, userId, email, publisher, 1));
+		} catch (RejectedExecutionException e) {
+			pending.decrementAndGet();
+			LOG.errorf("Enrichment worker is stopped, create user event for '%s' dropped", userId);
+		}
+	}
+
+	private void lookup(String realmId, String userId, String email, Consumer<UserInfo> publisher, int attempt) {
+		UserInfo[] result = new UserInfo[1];
+		try {
+			KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+				RealmModel realm = session.realms().getRealm(realmId);
+				UserModel user = realm == null ? null : session.users().getUserById(realm, userId);
+				if (user != null) {
+					result[0] = new UserInfo(user.getFirstName(), user.getLastName(), UUID.fromString(userId),
+							email != null ? email : user.getEmail(), false);
+				}
+			});
+		} catch (Exception e) {
+			LOG.debugf(e, "Lookup of user '%s' failed on attempt %d", userId, attempt);
+		}
+		if (result[0] == null && attempt < MAX_ATTEMPTS) {
+			// the registration transaction may not have committed yet
+			try {
+				worker.schedule(() -> lookup(realmId, userId, email, publisher, attempt + 1),
+						RETRY_DELAY_MS << (attempt - 1), TimeUnit.MILLISECONDS);
+				return;
+			} catch (RejectedExecutionException e) {
+				LOG.debugf("Enrichment worker is stopped, no more lookups of user '%s'", userId);
+			}
+		}
+		pending.decrementAndGet();
+		if (result[0] == null) {
+			LOG.warnf("User '%s' not found in realm '%s' after %d attempts, create user event dropped", userId,
+					realmId, attempt);
+			return;
+		}
+		try {
+			publisher.accept(result[0]);
+		} catch (Exception e) {
+			LOG.errorf(e, "Deferred enrichment failed for user '%s'", userId);
+		}
+	}
+
+	public void close() {
+		worker.shutdown();
+		try {
+			if (!worker.awaitTermination(5, TimeUnit.SECONDS)) {
+				worker.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			worker.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
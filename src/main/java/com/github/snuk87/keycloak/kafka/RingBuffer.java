@@ -0,0 +1,204 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Bounded multi-producer, single-consumer ring of preallocated slots. Producers claim a sequence with a CAS, fill
+ * the slot through a translator and mark it available; the consumer thread processes all available slots in one
+ * batch before releasing them, so the hot path allocates nothing and takes no lock.
+ *
+ * @param <T> slot type, created once per slot and reused
+ */
+public class RingBuffer<T> {
+
+	private static final Logger LOG = Logger.getLogger(RingBuffer.class);
+
+	public enum WaitStrategy {
+		/** spin with {@link Thread#yield()} while empty, lowest latency at the cost of a busy core */
+		YIELDING,
+		/** spin briefly, then park for 100µs at a time */
+		SLEEPING
+	}
+
+	public enum OverflowStrategy {
+		/** drop the entry when the ring is full */
+		DROP,
+		/** wait for a free slot up to the block timeout, then drop */
+		BLOCK
+	}
+
+	public interface Handler<T> {
+		void onEvent(T slot, long sequence, boolean endOfBatch) throws Exception;
+	}
+
+	private final Object[] slots;
+	private final int mask;
+	private final AtomicLong claimed = new AtomicLong(-1);
+	private final AtomicLong consumed = new AtomicLong(-1);
+	private final AtomicLongArray available;
+	private final WaitStrategy waitStrategy;
+	private final OverflowStrategy overflowStrategy;
+	private final long blockTimeoutNanos;
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong highWaterMark = new AtomicLong();
+
+	private volatile boolean running;
+	private volatile boolean closed;
+	private Thread consumer;
+
+	public RingBuffer(int size, Supplier<T> factory, WaitStrategy waitStrategy, OverflowStrategy overflowStrategy,
+			long blockTimeoutMs) {
+		if (Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Ring size must be a power of two: " + size);
+		}
+		this.slots = new Object[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = factory.get();
+		}
+		this.mask = size - 1;
+		this.available = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			available.set(i, -1);
+		}
+		this.waitStrategy = waitStrategy;
+		this.overflowStrategy = overflowStrategy;
+		this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+	}
+
+	/**
+	 * @return {@code false} if the entry was dropped because the ring is full or closed
+	 */
+	public <A> boolean publish(BiConsumer<T, A> translator, A argument) {
+		long sequence = claim();
+		if (sequence < 0) {
+			if (dropped.incrementAndGet() % 1000 == 1) {
+				LOG.warnf("Event ring full (%d slots), %d events dropped so far", slots.length, dropped.get());
+			}
+			return false;
+		}
+		translator.accept(slot(sequence), argument);
+		available.lazySet((int) sequence & mask, sequence);
+		published.incrementAndGet();
+		return true;
+	}
+
+	private long claim() {
+		long deadline = 0;
+		while (!closed) {
+			long current = claimed.get();
+			long next = current + 1;
+			if (next - consumed.get() > slots.length) {
+				if (overflowStrategy == OverflowStrategy.DROP || !running) {
+					return -1;
+				}
+				if (deadline == 0) {
+					deadline = System.nanoTime() + blockTimeoutNanos;
+				} else if (System.nanoTime() > deadline) {
+					return -1;
+				}
+				LockSupport.parkNanos(1_000);
+				continue;
+			}
+			if (claimed.compareAndSet(current, next)) {
+				long occupancy = next - consumed.get();
+				if (occupancy > highWaterMark.get()) {
+					highWaterMark.set(occupancy);
+				}
+				return next;
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T slot(long sequence) {
+		return (T) slots[(int) sequence & mask];
+	}
+
+	public synchronized void start(String threadName, Handler<T> handler) {
+		running = true;
+		consumer = new Thread(() -> consume(handler), threadName);
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	private void consume(Handler<T> handler) {
+		int idle = 0;
+		while (running || consumed.get() < claimed.get()) {
+			long next = consumed.get() + 1;
+			long last = next - 1;
+			while (available.get((int) (last + 1) & mask) == last + 1) {
+				last++;
+			}
+			if (last < next) {
+				if (!running && consumed.get() < claimed.get()) {
+					// a producer claimed a slot but has not filled it yet
+					Thread.onSpinWait();
+				} else {
+					idle = idle(idle);
+				}
+				continue;
+			}
+			idle = 0;
+			for (long sequence = next; sequence <= last; sequence++) {
+				try {
+					handler.onEvent(slot(sequence), sequence, sequence == last);
+				} catch (Exception e) {
+					LOG.error("Failed to process event from ring", e);
+				}
+			}
+			consumed.lazySet(last);
+		}
+	}
+
+	private int idle(int count) {
+		if (waitStrategy == WaitStrategy.YIELDING || count < 100) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(100_000);
+		}
+		return count + 1;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("capacity", slots.length);
+		stats.put("occupancy", claimed.get() - consumed.get());
+		stats.put("highWaterMark", highWaterMark.get());
+		stats.put("published", published.get());
+		stats.put("dropped", dropped.get());
+		stats.put("waitStrategy", waitStrategy.name());
+		stats.put("overflowStrategy", overflowStrategy.name());
+		return stats;
+	}
+
+	/**
+	 * Stops accepting entries and waits until the consumer has processed everything already published.
+	 */
+	public void close(long timeoutMs) {
+		Thread current;
+		synchronized (this) {
+			closed = true;
+			running = false;
+			current = consumer;
+		}
+		if (current != null) {
+			try {
+				current.join(timeoutMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			current.interrupt();
+		}
+	}
+}
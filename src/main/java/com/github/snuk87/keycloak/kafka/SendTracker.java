@@ -0,0 +1,104 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the sends that have not been acknowledged yet and the outcome of recent sends, so the health check can
+ * tell a producer that is stuck or failing from one that is merely idle. Outcomes are counted in six buckets over
+ * the given window. Latencies of successful sends are counted in power-of-two millisecond buckets until drained.
+ */
+public class SendTracker {
+
+	private static final int BUCKETS = 6;
+	private static final int LATENCY_BUCKETS = 32;
+
+	private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final long bucketMs;
+	private final AtomicLongArray epochs = new AtomicLongArray(BUCKETS);
+	private final AtomicLongArray succeeded = new AtomicLongArray(BUCKETS);
+	private final AtomicLongArray failed = new AtomicLongArray(BUCKETS);
+	private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+	public SendTracker(long windowMs) {
+		this.bucketMs = Math.max(1, windowMs / BUCKETS);
+	}
+
+	/**
+	 * @return the id to complete the send with
+	 */
+	public long begin() {
+		long id = sequence.incrementAndGet();
+		pending.put(id, System.currentTimeMillis());
+		return id;
+	}
+
+	/**
+	 * Completing a send more than once only counts the first outcome.
+	 */
+	public void complete(long id, boolean success) {
+		Long started = pending.remove(id);
+		if (started == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (success) {
+			latencies.incrementAndGet(latencyBucket(now - started));
+		}
+		long epoch = now / bucketMs;
+		int index = (int) (epoch % BUCKETS);
+		long current = epochs.get(index);
+		if (current != epoch && epochs.compareAndSet(index, current, epoch)) {
+			succeeded.set(index, 0);
+			failed.set(index, 0);
+		}
+		(success ? succeeded : failed).incrementAndGet(index);
+	}
+
+	/**
+	 * Returns and resets the latency counts since the last call. Bucket {@code i} counts latencies of up to
+	 * {@code 2^i - 1} ms.
+	 */
+	public long[] drainLatencies() {
+		long[] counts = new long[LATENCY_BUCKETS];
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			counts[i] = latencies.getAndSet(i, 0);
+		}
+		return counts;
+	}
+
+	private static int latencyBucket(long millis) {
+		return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, millis)));
+	}
+
+	public long oldestPendingAgeMs() {
+		long now = System.currentTimeMillis();
+		long oldest = now;
+		for (long started : pending.values()) {
+			oldest = Math.min(oldest, started);
+		}
+		return now - oldest;
+	}
+
+	public Map<String, Object> stats() {
+		long epoch = System.currentTimeMillis() / bucketMs;
+		long sends = 0;
+		long failures = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (epoch - epochs.get(i) < BUCKETS) {
+				sends += succeeded.get(i) + failed.get(i);
+				failures += failed.get(i);
+			}
+		}
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("pendingSends", pending.size());
+		stats.put("oldestPendingAgeMs", oldestPendingAgeMs());
+		stats.put("recentSends", sends);
+		stats.put("recentSendErrorRate", sends == 0 ? 0.0 : (double) failures / sends);
+		return stats;
+	}
+}
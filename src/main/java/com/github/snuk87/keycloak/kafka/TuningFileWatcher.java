@@ -0,0 +1,97 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Polls a properties file and hands every key starting with the given prefix (e.g. {@code producer.}) to the
+ * listener, with the prefix stripped, whenever that section of the file changes.
+ *
+ * <pre>
+ * producer.linger.ms=20
+ * producer.batch.size=65536
+ * consumer.max.poll.records=200
+ * </pre>
+ */
+public class TuningFileWatcher {
+
+	private static final Logger LOG = Logger.getLogger(TuningFileWatcher.class);
+
+	private final Path file;
+	private final String prefix;
+	private final Consumer<Map<String, Object>> listener;
+	private final ScheduledExecutorService scheduler;
+
+	private Map<String, Object> current;
+
+	public TuningFileWatcher(Path file, String prefix, Consumer<Map<String, Object>> listener) {
+		this.file = file;
+		this.prefix = prefix;
+		this.listener = listener;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "KafkaTuningWatcher-" + prefix);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public Map<String, Object> start(long intervalMs) {
+		current = read();
+		if (current == null) {
+			current = Map.of();
+		}
+		LOG.infof("Watching %s for '%s' tuning changes", file, prefix);
+		scheduler.scheduleWithFixedDelay(this::check, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+		return current;
+	}
+
+	void check() {
+		Map<String, Object> latest = read();
+		if (latest == null || Objects.equals(latest, current)) {
+			return;
+		}
+		LOG.infof("Tuning change detected in %s: %s", file, latest);
+		current = latest;
+		try {
+			listener.accept(latest);
+		} catch (Exception e) {
+			LOG.error("Failed to apply tuning change from " + file, e);
+		}
+	}
+
+	private Map<String, Object> read() {
+		if (!Files.isReadable(file)) {
+			return current;
+		}
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file)) {
+			properties.load(reader);
+		} catch (IOException e) {
+			LOG.warn("Cannot read tuning file " + file, e);
+			return current;
+		}
+		Map<String, Object> values = new HashMap<>();
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(prefix)) {
+				values.put(name.substring(prefix.length()), properties.getProperty(name).trim());
+			}
+		}
+		return values;
+	}
+
+	public void close() {
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,396 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.subOne.kecyloak_dto.UserInfo;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Publishes all existing users of a realm as {@link UserInfo} to the create-user topic. User ids are read in pages
+ * ordered by id (see {@link UserPages}), and up to the given number of pages are loaded and published in parallel,
+ * each in its own short transaction. A page counts as done once all of its records are acknowledged; the last id
+ * below which everything is done is stored as realm attribute, at most once per checkpoint interval and when the
+ * backfill stops, so a restarted backfill continues from there. Records are keyed by userId, users published
+ * twice after a restart simply overwrite the previous message downstream.
+ *
+ * <p>Sends go through the given {@link DeletionScheduler}, which keeps the backfill within its rate, its
+ * time-of-day windows and backs off while pages take longer to load than the target latency.
+ */
+public class UserBackfill {
+
+	private static final Logger LOG = Logger.getLogger(UserBackfill.class);
+
+	static final String CHECKPOINT_ATTRIBUTE = "kafka.backfill.checkpoint";
+
+	/** every checkpoint write updates the realm and invalidates it in the whole cluster */
+	private static final long CHECKPOINT_INTERVAL_MS = 60000;
+
+	private final KeycloakSessionFactory sessionFactory;
+	private final Function<String, Producer<String, String>> producerFactory;
+	private final String topic;
+	private final ObjectMapper mapper;
+	private final int parallelism;
+	private final int pageSize;
+	private final DeletionScheduler limiter;
+	private UserPages userPages = UserPages.jpa();
+
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final TreeSet<Integer> completedPages = new TreeSet<>();
+	private final Map<Integer, String> lastIds = new HashMap<>();
+
+	private volatile String realmName;
+	private volatile int users;
+	private volatile int nextUnfinishedPage;
+	private volatile String checkpoint;
+	private String savedCheckpoint;
+	private long savedAt;
+	private Thread coordinator;
+
+	/**
+	 * @param producerFactory creates the producer for the backfill of a realm id, closed when the backfill ends
+	 */
+	public UserBackfill(KeycloakSessionFactory sessionFactory,
+			Function<String, Producer<String, String>> producerFactory, String topic, ObjectMapper mapper,
+			int parallelism, int pageSize, DeletionScheduler limiter) {
+		this.sessionFactory = sessionFactory;
+		this.producerFactory = producerFactory;
+		this.topic = topic;
+		this.mapper = mapper;
+		this.parallelism = parallelism;
+		this.pageSize = pageSize;
+		this.limiter = limiter;
+	}
+
+	/**
+	 * Replaces how user ids are read, {@link UserPages#jpa()} by default.
+	 */
+	public void usePages(UserPages userPages) {
+		this.userPages = userPages;
+	}
+
+	/**
+	 * @return {@code false} if a backfill is already running
+	 */
+	public synchronized boolean start(String realmName) {
+		if (!running.compareAndSet(false, true)) {
+			return false;
+		}
+		this.realmName = realmName;
+		checkpoint = null;
+		cancelled.set(false);
+		published.set(0);
+		failed.set(0);
+		skipped.set(0);
+		synchronized (completedPages) {
+			completedPages.clear();
+			lastIds.clear();
+			nextUnfinishedPage = 0;
+		}
+		coordinator = new Thread(this::run, "KafkaUserBackfill-Thread");
+		coordinator.setDaemon(true);
+		coordinator.start();
+		return true;
+	}
+
+	private void run() {
+		Producer<String, String> producer = null;
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread thread = new Thread(r, "KafkaUserBackfill-Page-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<?>> pages = new ArrayList<>();
+		boolean complete = false;
+		try {
+			String[] stored = new String[2];
+			KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+				RealmModel realm = session.realms().getRealmByName(realmName);
+				if (realm == null) {
+					throw new IllegalArgumentException("Realm '" + realmName + "' not found");
+				}
+				users = session.users().getUsersCount(realm);
+				stored[0] = realm.getAttribute(CHECKPOINT_ATTRIBUTE);
+				stored[1] = realm.getId();
+			});
+			checkpoint = stored[0];
+			savedCheckpoint = stored[0];
+			savedAt = System.currentTimeMillis();
+			LOG.infof("Starting backfill of %d users in realm '%s' after userId %s", users, realmName, checkpoint);
+
+			producer = producerFactory.apply(stored[1]);
+			Producer<String, String> target = producer;
+			Semaphore inFlight = new Semaphore(parallelism);
+			AtomicBoolean pageFailed = new AtomicBoolean();
+			String afterId = checkpoint;
+			int submitted = 0;
+			while (!cancelled.get()) {
+				inFlight.acquire();
+				pages.removeIf(Future::isDone);
+				if (pageFailed.get()) {
+					break;
+				}
+				List<String> ids = nextIds(afterId);
+				if (ids.isEmpty()) {
+					inFlight.release();
+					break;
+				}
+				int number = submitted++;
+				afterId = ids.get(ids.size() - 1);
+				synchronized (completedPages) {
+					lastIds.put(number, afterId);
+				}
+				pages.add(workers.submit(() -> {
+					try {
+						if (!publishPage(target, number, ids) && !cancelled.get()) {
+							pageFailed.set(true);
+						}
+					} catch (RuntimeException e) {
+						pageFailed.set(true);
+						LOG.errorf(e, "Backfill of realm '%s' failed on page %d", realmName, number);
+					} finally {
+						inFlight.release();
+					}
+				}));
+				if (ids.size() < pageSize) {
+					break;
+				}
+			}
+			for (Future<?> page : pages) {
+				page.get();
+			}
+			complete = !cancelled.get() && isComplete(submitted);
+			if (complete) {
+				LOG.infof("Backfill of realm '%s' complete, %d users published, %d skipped", realmName,
+						published.get(), skipped.get());
+			} else {
+				LOG.warnf("Backfill of realm '%s' stopped after userId %s (%d failed sends)", realmName, checkpoint,
+						failed.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			LOG.errorf(e, "Backfill of realm '%s' failed after userId %s", realmName, checkpoint);
+		} finally {
+			// pages still running must not send through a closed producer or overlap with the next backfill
+			cancelled.set(true);
+			pages.forEach(page -> page.cancel(true));
+			workers.shutdownNow();
+			try {
+				if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+					LOG.warnf("Backfill pages of realm '%s' did not stop within 60s", realmName);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (complete) {
+				saveCheckpoint(null);
+			} else if (checkpoint != null && !checkpoint.equals(savedCheckpoint)) {
+				saveCheckpoint(checkpoint);
+			}
+			if (producer != null) {
+				producer.close(Duration.ofSeconds(30));
+			}
+			running.set(false);
+		}
+	}
+
+	private boolean isComplete(int pages) {
+		synchronized (completedPages) {
+			return nextUnfinishedPage >= pages;
+		}
+	}
+
+	private List<String> nextIds(String afterId) {
+		return KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> userPages.nextIds(session,
+				session.realms().getRealmByName(realmName), afterId, pageSize));
+	}
+
+	/**
+	 * @return {@code false} if a send failed or the backfill was cancelled, the page is then not completed
+	 */
+	private boolean publishPage(Producer<String, String> producer, int page, List<String> ids) {
+		long start = System.nanoTime();
+		Map<String, UserInfo> infos = new LinkedHashMap<>();
+		KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+			RealmModel realm = session.realms().getRealmByName(realmName);
+			for (String id : ids) {
+				UserModel user = session.users().getUserById(realm, id);
+				if (user == null) {
+					continue;
+				}
+				UUID uuid = parseUuid(id);
+				if (uuid == null) {
+					skipped.incrementAndGet();
+					LOG.warnf("Backfill skips userId='%s', it is not a UUID", id);
+					continue;
+				}
+				infos.put(id, new UserInfo(user.getFirstName(), user.getLastName(), uuid, user.getEmail(),
+						user.isEmailVerified()));
+			}
+		});
+		if (!infos.isEmpty()) {
+			limiter.recordLatency((System.nanoTime() - start) / infos.size());
+		}
+
+		AtomicLong pageFailures = new AtomicLong();
+		for (Map.Entry<String, UserInfo> user : infos.entrySet()) {
+			if (!acquire()) {
+				return false;
+			}
+			String value;
+			try {
+				value = mapper.writeValueAsString(user.getValue());
+			} catch (Exception e) {
+				LOG.error(e.getMessage(), e);
+				pageFailures.incrementAndGet();
+				continue;
+			}
+			producer.send(new ProducerRecord<>(topic, user.getKey(), value), (metadata, exception) -> {
+				if (exception != null) {
+					pageFailures.incrementAndGet();
+					LOG.errorf(exception, "Backfill send failed for userId='%s'", user.getKey());
+				} else {
+					published.incrementAndGet();
+				}
+			});
+		}
+		producer.flush();
+		if (pageFailures.get() > 0) {
+			failed.addAndGet(pageFailures.get());
+			LOG.errorf("Backfill of realm '%s' failed on page %d, %d sends failed", realmName, page,
+					pageFailures.get());
+			return false;
+		}
+		completePage(page);
+		return true;
+	}
+
+	/**
+	 * {@link UserInfo} carries the id as UUID, which federated ids ({@code f:<provider>:<id>}) are not.
+	 */
+	private static UUID parseUuid(String id) {
+		try {
+			return UUID.fromString(id);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private boolean acquire() {
+		while (!limiter.tryAcquire()) {
+			if (cancelled.get()) {
+				return false;
+			}
+			try {
+				Thread.sleep(Math.max(1, limiter.timeUntilNextPermit(Duration.ofSeconds(1)).toMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return !cancelled.get();
+	}
+
+	private void completePage(int page) {
+		String save = null;
+		synchronized (completedPages) {
+			completedPages.add(page);
+			while (completedPages.remove(nextUnfinishedPage)) {
+				checkpoint = lastIds.remove(nextUnfinishedPage);
+				nextUnfinishedPage++;
+			}
+			if (checkpoint != null && !checkpoint.equals(savedCheckpoint)
+					&& System.currentTimeMillis() - savedAt >= CHECKPOINT_INTERVAL_MS) {
+				save = checkpoint;
+			}
+		}
+		if (save != null) {
+			saveCheckpoint(save);
+		}
+	}
+
+	private void saveCheckpoint(String value) {
+		synchronized (completedPages) {
+			savedCheckpoint = value;
+			savedAt = System.currentTimeMillis();
+		}
+		try {
+			KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+				RealmModel realm = session.realms().getRealmByName(realmName);
+				if (value == null) {
+					realm.removeAttribute(CHECKPOINT_ATTRIBUTE);
+				} else {
+					realm.setAttribute(CHECKPOINT_ATTRIBUTE, value);
+				}
+			});
+		} catch (Exception e) {
+			LOG.warnf(e, "Cannot store backfill checkpoint for realm '%s'", realmName);
+		}
+	}
+
+	public Map<String, Object> status() {
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("running", running.get());
+		status.put("realm", realmName);
+		status.put("users", users);
+		status.put("checkpoint", checkpoint);
+		status.put("published", published.get());
+		status.put("failed", failed.get());
+		status.put("skipped", skipped.get());
+		status.put("rate", limiter.currentRate());
+		synchronized (completedPages) {
+			status.put("pagesAheadOfCheckpoint", completedPages.size());
+		}
+		return status;
+	}
+
+	public void cancel() {
+		cancelled.set(true);
+	}
+
+	/**
+	 * @return {@code false} if no backfill of the realm is running
+	 */
+	public synchronized boolean cancel(String realmName) {
+		if (!running.get() || !realmName.equals(this.realmName)) {
+			return false;
+		}
+		cancel();
+		return true;
+	}
+
+	public synchronized void close() {
+		cancel();
+		if (coordinator != null) {
+			coordinator.interrupt();
+		}
+	}
+}
@@ -1,31 +1,118 @@
 package com.github.snuk87.keycloak.kafka;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Scope;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.errors.RetriableException;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.jboss.logging.Logger;
+import org.jboss.logging.Logger.Level;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.RealmModel;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class UserDeletionConsumer implements Runnable {
     private static final Logger LOG = Logger.getLogger(UserDeletionConsumer.class);
 
-    private final Consumer<String, String> consumer;
+    private final KafkaConsumerFactory factory;
+    private final String clientId;
+    private final String bootstrapServer;
+    private final Map<String, Object> properties;
     private final KeycloakSessionFactory keycloakSessionFactory;
     private final String realmName;
     private final String deleteUserTopic;
+    private final KafkaTracing tracing;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private HotPathLog hotLog = new HotPathLog(LOG, "UserDeletionConsumer", false, 5, 60000);
+    private Producer<String, String> resultProducer;
+    private String resultTopic;
+    private Producer<String, String> snapshotProducer;
+    private String snapshotTopic;
+    private Producer<String, String> rejectProducer;
+    private String rejectTopic;
+    private UserIdParser.Format idFormat = UserIdParser.Format.ANY;
+    private final AtomicLong rejectedRecords = new AtomicLong();
+    private DeletionScheduler scheduler = DeletionScheduler.unlimited();
+    private final Set<TopicPartition> throttledPartitions = new HashSet<>();
+    /** first offset of the current batch that is not committed yet, per partition */
+    private final Map<TopicPartition, Long> uncommitted = new HashMap<>();
+    /** users deleted in an aborted transaction, reported as deleted rather than not found when replayed */
+    private final Set<String> replayedDeletions = new HashSet<>();
+    private volatile Consumer<String, byte[]> consumer;
+    private volatile Map<String, Object> pendingOverrides;
     private volatile boolean running = true;
 
+    private final Queue<ConsumerCommand> commands = new ConcurrentLinkedQueue<>();
+    private volatile boolean pausedByOperator;
+    private final AtomicLong deletedUsers = new AtomicLong();
+    private volatile long lastCommitTimestamp;
+    private volatile long lastPollTimestamp;
+    private volatile Set<TopicPartition> assignment = Set.of();
+    private volatile Map<TopicPartition, Long> lag = Map.of();
+    private long rateSampleTimestamp = System.currentTimeMillis();
+    private long rateSampleCount;
+    private double deletionsPerSecond;
+
+    private volatile State state = State.CONNECTING;
+    private long initialBackoffMs = 1000;
+    private long maxBackoffMs = 60000;
+    private boolean transactionsInitialized;
+    private volatile Exception failure;
+
+    public enum State {
+        CONNECTING,
+        RUNNING,
+        DEGRADED,
+        STOPPED
+    }
+
+    private interface ConsumerCommand {
+        void apply(Consumer<String, byte[]> consumer);
+    }
+
+    /**
+     * A deletion failed for a reason that may go away, e.g. a lost database connection or a deadlock. The record
+     * is not committed and redelivered after a backoff.
+     */
+    private static final class TransientDeletionException extends RuntimeException {
+        private TransientDeletionException(String userId, Throwable cause) {
+            super("Deletion of userId '" + userId + "' has to be retried", cause);
+        }
+    }
+
     public UserDeletionConsumer(KafkaConsumerFactory factory,
                                 String clientId,
                                 String bootstrapServer,
@@ -33,111 +120,512 @@ public class UserDeletionConsumer implements Runnable {
                                 KeycloakSessionFactory session,
                                 String realmName,
                                 String deleteUserTopic) {
-        this.consumer = factory.createConsumer(clientId, bootstrapServer, optionalProperties);
+        this(factory, clientId, bootstrapServer, optionalProperties, session, realmName, deleteUserTopic,
+                KafkaTracing.disabled());
+    }
+
+    public UserDeletionConsumer(KafkaConsumerFactory factory,
+                                String clientId,
+                                String bootstrapServer,
+                                Map<String, Object> optionalProperties,
+                                KeycloakSessionFactory session,
+                                String realmName,
+                                String deleteUserTopic,
+                                KafkaTracing tracing) {
+        this.tracing = tracing;
+        this.factory = factory;
+        this.clientId = clientId;
+        this.bootstrapServer = bootstrapServer;
+        this.properties = optionalProperties != null ? new HashMap<>(optionalProperties) : new HashMap<>();
+        this.properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         this.keycloakSessionFactory = session;
         this.realmName = realmName;
         this.deleteUserTopic = deleteUserTopic;
     }
 
+    /**
+     * Publishes a {@link DeletionResult} per consumed record to the given topic. Results and consumed offsets are
+     * committed in one Kafka transaction per poll, so the producer must be configured with a
+     * {@code transactional.id}. Must be called before the consumer is started.
+     */
+    public void publishResults(Producer<String, String> producer, String topic) {
+        this.resultProducer = producer;
+        this.resultTopic = topic;
+    }
+
+    /**
+     * Emits a tombstone to the compacted user snapshot topic for every user that is gone after processing. In
+     * transactional mode the tombstones are part of the result transaction and the given producer is ignored.
+     */
+    public void publishSnapshotTombstones(Producer<String, String> producer, String topic) {
+        this.snapshotProducer = producer;
+        this.snapshotTopic = topic;
+    }
+
+    /**
+     * Forwards records whose value is not a valid user id to the given topic, unchanged and with their headers. In
+     * transactional mode the producer must be the result producer, so the forward is part of the result transaction.
+     */
+    public void publishRejects(Producer<String, String> producer, String topic) {
+        this.rejectProducer = producer;
+        this.rejectTopic = topic;
+    }
+
+    /**
+     * Replaces the per-record logging, sampled with a summary per minute by default.
+     */
+    public void useLog(HotPathLog hotLog) {
+        this.hotLog = hotLog;
+    }
+
+    /**
+     * Format user ids are validated against before a Keycloak session is opened, {@link UserIdParser.Format#ANY}
+     * by default.
+     */
+    public void validateIds(UserIdParser.Format format) {
+        this.idFormat = format;
+    }
+
+    /**
+     * Limits the deletion rate. Records over the limit are not committed; their partitions are rewound and
+     * paused until the scheduler admits the next deletion. Must be called before the consumer is started.
+     */
+    public void useScheduler(DeletionScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Backoff between connection attempts while the consumer cannot be created or the brokers are unreachable.
+     */
+    public void reconnectBackoff(long initialMs, long maxMs) {
+        this.initialBackoffMs = initialMs;
+        this.maxBackoffMs = maxMs;
+    }
+
     @Override
     public void run() {
         LOG.info("UserDeletionConsumer started successfully");
         try {
-            consumer.subscribe(Collections.singletonList(deleteUserTopic));
+            if (!connect()) {
+                return;
+            }
 
+            long backoffMs = initialBackoffMs;
             while (running) {
                 try {
-                    ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(1000L));
+                    if (pendingOverrides != null) {
+                        swapConsumer();
+                    }
+                    resumeThrottled();
+                    applyCommands();
+                    ConsumerRecords<String, byte[]> records = consumer.poll(pollTimeout());
+                    updateSnapshot();
 
                     if (records.isEmpty()) {
+                        backoffMs = initialBackoffMs;
+                        continue;
+                    }
+
+                    hotLog.log(Level.INFO, "Received %d message(s) from topic '%s'", records.count(), deleteUserTopic);
+
+                    if (resultProducer != null) {
+                        processTransactional(records);
+                        backoffMs = initialBackoffMs;
                         continue;
                     }
 
-                    LOG.infof("Received %d message(s) from topic '%s'", records.count(), deleteUserTopic);
-
-                    for (ConsumerRecord<String, String> record : records) {
-                        boolean success = processRecord(record);
-
-                        if (success) {
-                            Map<TopicPartition, OffsetAndMetadata> offsetsToCommit = new HashMap<>();
-                            offsetsToCommit.put(
-                                    new TopicPartition(record.topic(), record.partition()),
-                                    new OffsetAndMetadata(record.offset() + 1)
-                            );
-                            consumer.commitSync(offsetsToCommit);
-                            LOG.debugf("Committed offset for partition=%d, offset=%d",
-                                    record.partition(), record.offset());
-                        } else {
-                            LOG.errorf("Failed to process message, will retry: partition=%d, offset=%d",
-                                    record.partition(), record.offset());
+                    for (TopicPartition partition : records.partitions()) {
+                        uncommitted.put(partition, records.records(partition).get(0).offset());
+                    }
+                    Set<TopicPartition> deferred = new HashSet<>();
+                    for (ConsumerRecord<String, byte[]> record : records) {
+                        if (deferred.contains(new TopicPartition(record.topic(), record.partition()))) {
+                            continue;
+                        }
+                        String userId = UserIdParser.parse(record.value(), idFormat);
+                        if (userId == null) {
+                            reject(record);
+                            commit(record);
+                            continue;
+                        }
+                        if (!admit(record, deferred)) {
+                            continue;
+                        }
+                        Span span = tracing.startSpan(deleteUserTopic + " process",
+                                tracing.extract(record.headers()), SpanKind.CONSUMER);
+                        try (Scope ignored = span.makeCurrent()) {
+                            DeletionResult result = processRecord(record, userId);
+                            if (snapshotProducer != null && result != DeletionResult.FAILED) {
+                                sendTombstone(snapshotProducer, userId);
+                            }
+                            commit(record);
+                        } finally {
+                            span.end();
                         }
                     }
+                    uncommitted.clear();
+                    backoffMs = initialBackoffMs;
 
                 } catch (WakeupException e) {
+                    if (running && pendingOverrides != null) {
+                        continue;
+                    }
                     LOG.info("Wakeup called, exiting consumer loop");
                     break;
+                } catch (RetriableException e) {
+                    state = State.DEGRADED;
+                    LOG.warnf("Kafka unavailable for UserDeletionConsumer, retrying in %d ms: %s", backoffMs,
+                            e.getMessage());
+                    rewindUncommitted();
+                    sleep(backoffMs);
+                    backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+                } catch (TransientDeletionException e) {
+                    LOG.warnf("User deletion failed, redelivering in %d ms: %s", backoffMs,
+                            e.getCause().getMessage());
+                    rewindUncommitted();
+                    sleep(backoffMs);
+                    backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
                 }
             }
         } catch (Exception e) {
             LOG.error("Critical error occurred in UserDeletionConsumer", e);
+            failure = e;
         } finally {
-            try {
-                consumer.close();
-                LOG.info("UserDeletionConsumer stopped and consumer closed");
-            } catch (Exception e) {
-                LOG.error("Error closing Kafka consumer", e);
+            state = State.STOPPED;
+            if (rejectProducer != null && rejectProducer != resultProducer && rejectProducer != snapshotProducer) {
+                try {
+                    rejectProducer.close(Duration.ofSeconds(5));
+                } catch (Exception e) {
+                    LOG.error("Error closing reject producer", e);
+                }
+            }
+            if (snapshotProducer != null && snapshotProducer != resultProducer) {
+                try {
+                    snapshotProducer.close(Duration.ofSeconds(5));
+                } catch (Exception e) {
+                    LOG.error("Error closing snapshot producer", e);
+                }
+            }
+            if (resultProducer != null) {
+                try {
+                    resultProducer.close(Duration.ofSeconds(5));
+                } catch (Exception e) {
+                    LOG.error("Error closing deletion result producer", e);
+                }
+            }
+            if (consumer != null) {
+                try {
+                    consumer.close();
+                    LOG.info("UserDeletionConsumer stopped and consumer closed");
+                } catch (Exception e) {
+                    LOG.error("Error closing Kafka consumer", e);
+                }
             }
         }
     }
 
-    private boolean processRecord(ConsumerRecord<String, String> record) {
-        String userId = record.value();
+    /**
+     * Creates the consumer and initializes transactions, retrying with exponential backoff while that fails.
+     *
+     * @return {@code false} if the consumer was stopped before it could connect
+     */
+    private boolean connect() {
+        long backoffMs = initialBackoffMs;
+        while (running) {
+            try {
+                if (consumer == null) {
+                    consumer = factory.createConsumer(clientId, bootstrapServer, properties);
+                    consumer.subscribe(Collections.singletonList(deleteUserTopic));
+                }
+                if (resultProducer != null && !transactionsInitialized) {
+                    resultProducer.initTransactions();
+                    transactionsInitialized = true;
+                    LOG.infof("Deletion results will be published transactionally to '%s'", resultTopic);
+                }
+                state = State.RUNNING;
+                return true;
+            } catch (KafkaException e) {
+                state = State.DEGRADED;
+                LOG.warnf("UserDeletionConsumer cannot connect, retrying in %d ms: %s", backoffMs, e.getMessage());
+                sleep(backoffMs);
+                backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+            }
+        }
+        return false;
+    }
 
-        LOG.infof("Processing user deletion: userId='%s', partition=%d, offset=%d",
-                userId, record.partition(), record.offset());
+    private void sleep(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        while (running && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(Math.min(100, millis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
 
+    private void processTransactional(ConsumerRecords<String, byte[]> records) throws Exception {
+        resultProducer.beginTransaction();
+        Set<String> deleted = new HashSet<>();
         try {
-            deleteUser(userId);
-            return true;
-        } catch (Exception e) {
-            LOG.errorf(e, "Error processing record: userId='%s'", userId);
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            Set<TopicPartition> deferred = new HashSet<>();
+            for (ConsumerRecord<String, byte[]> record : records) {
+                if (deferred.contains(new TopicPartition(record.topic(), record.partition()))) {
+                    continue;
+                }
+                String userId = UserIdParser.parse(record.value(), idFormat);
+                if (userId == null) {
+                    reject(record);
+                    String raw = rawValue(record);
+                    resultProducer.send(new ProducerRecord<>(resultTopic, raw,
+                            resultPayload(raw, DeletionResult.REJECTED)));
+                    offsets.put(new TopicPartition(record.topic(), record.partition()),
+                            new OffsetAndMetadata(record.offset() + 1));
+                    continue;
+                }
+                if (!admit(record, deferred)) {
+                    continue;
+                }
+                Span span = tracing.startSpan(deleteUserTopic + " process",
+                        tracing.extract(record.headers()), SpanKind.CONSUMER);
+                try (Scope ignored = span.makeCurrent()) {
+                    DeletionResult result = processRecord(record, userId);
+                    if (result == DeletionResult.NOT_FOUND && replayedDeletions.remove(userId)) {
+                        result = DeletionResult.DELETED;
+                    }
+                    if (result == DeletionResult.DELETED) {
+                        deleted.add(userId);
+                    }
+                    resultProducer.send(new ProducerRecord<>(resultTopic, userId, resultPayload(userId, result)));
+                    if (snapshotTopic != null && result != DeletionResult.FAILED) {
+                        sendTombstone(resultProducer, userId);
+                    }
+                    offsets.put(new TopicPartition(record.topic(), record.partition()),
+                            new OffsetAndMetadata(record.offset() + 1));
+                } finally {
+                    span.end();
+                }
+            }
+            Span span = tracing.startChildSpan("kafka commit transaction");
+            try {
+                resultProducer.sendOffsetsToTransaction(offsets, consumer.groupMetadata());
+                resultProducer.commitTransaction();
+            } finally {
+                span.end();
+            }
+            lastCommitTimestamp = System.currentTimeMillis();
+            LOG.debugf("Committed %d deletion result partition(s) and offsets in one transaction", offsets.size());
+        } catch (ProducerFencedException | OutOfOrderSequenceException | AuthorizationException e) {
+            throw e;
+        } catch (KafkaException e) {
+            LOG.error("Deletion result transaction failed, aborting and rewinding the batch", e);
+            abort(records, deleted);
+        } catch (TransientDeletionException e) {
+            abort(records, deleted);
+            throw e;
+        }
+    }
+
+    /**
+     * Aborts the result transaction and rewinds the batch. The users deleted in it stay deleted, so they are not
+     * found when the batch is replayed; they are still reported as deleted.
+     */
+    private void abort(ConsumerRecords<String, byte[]> records, Set<String> deleted) {
+        resultProducer.abortTransaction();
+        for (TopicPartition partition : records.partitions()) {
+            consumer.seek(partition, records.records(partition).get(0).offset());
+        }
+        if (replayedDeletions.size() > 100_000) {
+            replayedDeletions.clear();
+        }
+        replayedDeletions.addAll(deleted);
+    }
+
+    /**
+     * The position is already past the batch when processing fails half-way, so the rest of the batch would be
+     * skipped. Seeks back to the first record that was not committed; deleting a user twice is harmless.
+     */
+    private void rewindUncommitted() {
+        Set<TopicPartition> assigned = consumer.assignment();
+        uncommitted.forEach((partition, offset) -> {
+            if (assigned.contains(partition)) {
+                consumer.seek(partition, offset);
+            }
+        });
+        uncommitted.clear();
+    }
+
+    private void sendTombstone(Producer<String, String> producer, String userId) {
+        producer.send(new ProducerRecord<>(snapshotTopic, userId, null), (metadata, exception) -> {
+            if (exception != null) {
+                LOG.errorf(exception, "Failed to publish snapshot tombstone for userId='%s'", userId);
+            }
+        });
+    }
+
+    private boolean admit(ConsumerRecord<String, byte[]> record, Set<TopicPartition> deferred) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        if (deferred.contains(partition)) {
             return false;
         }
+        if (scheduler.tryAcquire()) {
+            return true;
+        }
+        consumer.seek(partition, record.offset());
+        consumer.pause(Collections.singleton(partition));
+        throttledPartitions.add(partition);
+        deferred.add(partition);
+        LOG.debugf("Deletion rate limit reached, deferring partition=%d from offset=%d",
+                record.partition(), record.offset());
+        return false;
+    }
+
+    private void resumeThrottled() {
+        if (throttledPartitions.isEmpty() || !scheduler.timeUntilNextPermit(Duration.ofSeconds(1)).isZero()) {
+            return;
+        }
+        Set<TopicPartition> resumable = new HashSet<>(throttledPartitions);
+        resumable.retainAll(consumer.assignment());
+        consumer.resume(resumable);
+        throttledPartitions.clear();
     }
 
+    private Duration pollTimeout() {
+        if (throttledPartitions.isEmpty()) {
+            return Duration.ofMillis(1000L);
+        }
+        Duration wait = scheduler.timeUntilNextPermit(Duration.ofMillis(1000L));
+        return wait.compareTo(Duration.ofMillis(10)) < 0 ? Duration.ofMillis(10) : wait;
+    }
 
-    private void deleteUser(String userId) {
-        if (userId == null || userId.trim().isEmpty()) {
-            LOG.warn("Received null or empty userId, skipping deletion");
+    /**
+     * Counts a record whose value is not a valid user id and forwards it unchanged to the reject topic, if set.
+     */
+    private void reject(ConsumerRecord<String, byte[]> record) {
+        long count = rejectedRecords.incrementAndGet();
+        hotLog.count(DeletionResult.REJECTED.name(), 0);
+        hotLog.log(Level.WARN, "Rejected invalid userId record: partition=%d, offset=%d (%d rejected so far)",
+                record.partition(), record.offset(), count);
+        if (rejectProducer == null) {
             return;
         }
-        KeycloakSession session = keycloakSessionFactory.create();
+        ProducerRecord<String, String> rejected = new ProducerRecord<>(rejectTopic, record.key(), rawValue(record));
+        record.headers().forEach(header -> rejected.headers().add(header));
+        rejectProducer.send(rejected, (metadata, exception) -> {
+            if (exception != null) {
+                LOG.errorf(exception, "Failed to forward rejected record from offset %d", record.offset());
+            }
+        });
+    }
+
+    private static String rawValue(ConsumerRecord<String, byte[]> record) {
+        return record.value() == null ? null : new String(record.value(), StandardCharsets.UTF_8);
+    }
+
+    private String resultPayload(String userId, DeletionResult result) throws Exception {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("userId", userId);
+        payload.put("realm", realmName);
+        payload.put("status", result.name());
+        payload.put("timestamp", System.currentTimeMillis());
+        return mapper.writeValueAsString(payload);
+    }
+
+    private void commit(ConsumerRecord<String, byte[]> record) {
+        Span span = tracing.startChildSpan("kafka commit");
+        try {
+            Map<TopicPartition, OffsetAndMetadata> offsetsToCommit = new HashMap<>();
+            offsetsToCommit.put(
+                    new TopicPartition(record.topic(), record.partition()),
+                    new OffsetAndMetadata(record.offset() + 1)
+            );
+            consumer.commitSync(offsetsToCommit);
+            uncommitted.put(new TopicPartition(record.topic(), record.partition()), record.offset() + 1);
+            lastCommitTimestamp = System.currentTimeMillis();
+            LOG.debugf("Committed offset for partition=%d, offset=%d",
+                    record.partition(), record.offset());
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * @return the outcome of the deletion
+     * @throws TransientDeletionException if the record has to be retried
+     */
+    private DeletionResult processRecord(ConsumerRecord<String, byte[]> record, String userId) {
+
+        hotLog.log(Level.INFO, "Processing user deletion: userId='%s', partition=%d, offset=%d",
+                userId, record.partition(), record.offset());
+
+        long start = System.nanoTime();
+        DeletionResult result = null;
+        try {
+            result = deleteUser(userId);
+            return result;
+        } finally {
+            long latency = System.nanoTime() - start;
+            scheduler.recordLatency(latency);
+            hotLog.count(result == null ? "RETRIED" : result.name(), latency);
+        }
+    }
+
+
+    private DeletionResult deleteUser(String userId) {
+        Span sessionSpan = tracing.startChildSpan("keycloak session create");
+        KeycloakSession session;
+        try {
+            session = keycloakSessionFactory.create();
+        } finally {
+            sessionSpan.end();
+        }
         try {
             session.getTransactionManager().begin();
             RealmModel realm = session.realms().getRealmByName(realmName);
             if (realm == null) {
-                LOG.errorf("Realm not found: '%s', cannot delete user '%s'", realmName, userId);
+                hotLog.log(Level.ERROR, "Realm not found: '%s', cannot delete user '%s'", realmName, userId);
                 session.getTransactionManager().rollback();
-                return;
+                return DeletionResult.FAILED;
             }
             session.getContext().setRealm(realm);
-            UserModel user = session.users().getUserById(realm, userId);
+            Span lookupSpan = tracing.startChildSpan("keycloak user lookup");
+            UserModel user;
+            try {
+                user = session.users().getUserById(realm, userId);
+            } finally {
+                lookupSpan.end();
+            }
+            DeletionResult result;
             if (user != null) {
                 String username = user.getUsername();
 
-                boolean deleted = session.users().removeUser(realm, user);
+                Span removeSpan = tracing.startChildSpan("keycloak user remove");
+                boolean deleted;
+                try {
+                    deleted = session.users().removeUser(realm, user);
+                } finally {
+                    removeSpan.end();
+                }
                 if (deleted) {
-                    LOG.infof("✓ User successfully deleted: userId='%s', username='%s'",
+                    deletedUsers.incrementAndGet();
+                    hotLog.log(Level.INFO, "✓ User successfully deleted: userId='%s', username='%s'",
                             userId, username);
+                    result = DeletionResult.DELETED;
                 } else {
-                    LOG.errorf("✗ Failed to delete user: userId='%s', username='%s'", userId, username);
+                    hotLog.log(Level.ERROR, "✗ Failed to delete user: userId='%s', username='%s'", userId, username);
+                    result = DeletionResult.FAILED;
                 }
             } else {
-                LOG.warnf("User not found in realm '%s': userId='%s'", realmName, userId);
+                hotLog.log(Level.WARN, "User not found in realm '%s': userId='%s'", realmName, userId);
+                result = DeletionResult.NOT_FOUND;
             }
 
             session.getTransactionManager().commit();
-        } catch (Exception e) {
+            return result;
+        } catch (RuntimeException e) {
             try {
                 if (session.getTransactionManager().isActive()) {
                     session.getTransactionManager().rollback();
@@ -145,7 +633,12 @@ public class UserDeletionConsumer implements Runnable {
             } catch (Exception ex) {
                 LOG.error("Error while rolling back transaction", ex);
             }
-            LOG.errorf(e, "Error occurred while deleting user: userId='%s', realm='%s'", userId, realmName);
+            if (isTransient(e)) {
+                throw new TransientDeletionException(userId, e);
+            }
+            hotLog.log(Level.ERROR, e, "Error occurred while deleting user: userId='%s', realm='%s'", userId,
+                    realmName);
+            return DeletionResult.FAILED;
         } finally {
             try {
                 session.close();
@@ -155,9 +648,158 @@ public class UserDeletionConsumer implements Runnable {
         }
     }
 
+    /**
+     * Whether a database error may go away on a retry: transient and recoverable SQL errors, and SQL states of
+     * class 08 (connection exception) and 40 (transaction rollback, e.g. deadlock or serialization failure).
+     */
+    static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException sql && sql.getSQLState() != null
+                    && (sql.getSQLState().startsWith("08") || sql.getSQLState().startsWith("40"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Requests a new consumer built with the given property overrides. The switch happens on the polling thread
+     * between two polls; offsets are committed per record, so the new member resumes exactly where the old one
+     * left off.
+     */
+    public void reconfigure(Map<String, Object> overrides) {
+        LOG.info("Reconfiguration requested for UserDeletionConsumer: " + overrides);
+        pendingOverrides = Map.copyOf(overrides);
+        Consumer<String, byte[]> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    private void swapConsumer() {
+        Map<String, Object> overrides = pendingOverrides;
+        pendingOverrides = null;
+        Map<String, Object> merged = new HashMap<>(properties);
+        merged.putAll(overrides);
+        merged.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+
+        Consumer<String, byte[]> replacement = factory.createConsumer(clientId, bootstrapServer, merged);
+        Consumer<String, byte[]> old = consumer;
+        try {
+            old.close();
+        } catch (Exception e) {
+            LOG.error("Error closing previous Kafka consumer", e);
+        }
+        properties.putAll(overrides);
+        consumer = replacement;
+        consumer.subscribe(Collections.singletonList(deleteUserTopic));
+        LOG.info("UserDeletionConsumer switched to reconfigured consumer");
+    }
+
+    private void applyCommands() {
+        ConsumerCommand command;
+        while ((command = commands.poll()) != null) {
+            try {
+                command.apply(consumer);
+            } catch (Exception e) {
+                LOG.error("Failed to apply operator command to UserDeletionConsumer", e);
+            }
+        }
+        if (pausedByOperator) {
+            consumer.pause(consumer.assignment());
+        }
+    }
+
+    private void updateSnapshot() {
+        Set<TopicPartition> assigned = consumer.assignment();
+        Map<TopicPartition, Long> currentLag = new LinkedHashMap<>();
+        for (TopicPartition partition : assigned) {
+            OptionalLong partitionLag = consumer.currentLag(partition);
+            if (partitionLag.isPresent()) {
+                currentLag.put(partition, partitionLag.getAsLong());
+            }
+        }
+        assignment = Set.copyOf(assigned);
+        lag = currentLag;
+        lastPollTimestamp = System.currentTimeMillis();
+        state = isConnected() ? State.RUNNING : State.DEGRADED;
+    }
+
+    private boolean isConnected() {
+        for (Map.Entry<MetricName, ? extends Metric> metric : consumer.metrics().entrySet()) {
+            if ("connection-count".equals(metric.getKey().name())
+                    && "consumer-metrics".equals(metric.getKey().group())
+                    && metric.getValue().metricValue() instanceof Double count) {
+                return count > 0;
+            }
+        }
+        return true;
+    }
+
+    public void pause() {
+        LOG.info("Pause requested for UserDeletionConsumer");
+        pausedByOperator = true;
+    }
+
+    public void resume() {
+        LOG.info("Resume requested for UserDeletionConsumer");
+        pausedByOperator = false;
+        commands.add(c -> c.resume(c.paused()));
+    }
+
+    public void seek(int partition, long offset) {
+        LOG.infof("Seek requested for UserDeletionConsumer: partition=%d, offset=%d", partition, offset);
+        TopicPartition topicPartition = new TopicPartition(deleteUserTopic, partition);
+        commands.add(c -> {
+            if (c.assignment().contains(topicPartition)) {
+                c.seek(topicPartition, offset);
+            } else {
+                LOG.warnf("Partition %s is not assigned to this node, seek ignored", topicPartition);
+            }
+        });
+    }
+
+    public synchronized Map<String, Object> stats() {
+        long now = System.currentTimeMillis();
+        long count = deletedUsers.get();
+        if (now - rateSampleTimestamp >= 1000) {
+            deletionsPerSecond = (count - rateSampleCount) * 1000.0 / (now - rateSampleTimestamp);
+            rateSampleTimestamp = now;
+            rateSampleCount = count;
+        }
+        Map<String, Long> partitionLag = new LinkedHashMap<>();
+        lag.forEach((partition, value) -> partitionLag.put(partition.toString(), value));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", running);
+        stats.put("state", state.name());
+        stats.put("paused", pausedByOperator);
+        stats.put("assignedPartitions", assignment.stream().map(TopicPartition::toString).sorted().toList());
+        stats.put("lag", partitionLag);
+        stats.put("lastPollTimestamp", lastPollTimestamp);
+        stats.put("lastCommitTimestamp", lastCommitTimestamp);
+        stats.put("deletedUsers", count);
+        stats.put("rejectedRecords", rejectedRecords.get());
+        stats.put("deletionsPerSecond", deletionsPerSecond);
+        return stats;
+    }
+
+    /**
+     * @return the error that ended {@link #run()}, or {@code null} if it is running or was stopped
+     */
+    public Exception failure() {
+        return failure;
+    }
+
     public void stop() {
         LOG.info("Stop signal received for UserDeletionConsumer");
         running = false;
-        consumer.wakeup();
+        Consumer<String, byte[]> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
     }
 }
\ No newline at end of file
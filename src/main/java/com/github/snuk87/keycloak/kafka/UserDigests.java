@@ -0,0 +1,87 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Order independent digests of a realm's users, split into buckets by userId. Each user is hashed with 64-bit
+ * FNV-1a over {@code userId, firstName, lastName, email, emailVerified} (UTF-8, joined with {@code 0x1F}, null as
+ * empty string) and XOR-ed into the digest of its bucket, {@code fnv1a(userId) mod buckets}. Peers compute the same
+ * over their copy, so only buckets whose digest or count differs need to be compared user by user.
+ */
+public class UserDigests {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final char SEPARATOR = '\u001f';
+
+	private final String realm;
+	private final long[] digests;
+	private final int[] counts;
+
+	public UserDigests(String realm, int buckets) {
+		this.realm = realm;
+		this.digests = new long[buckets];
+		this.counts = new int[buckets];
+	}
+
+	public static int bucket(String userId, int buckets) {
+		return (int) Long.remainderUnsigned(fnv1a(userId), buckets);
+	}
+
+	public static long hash(String userId, String firstName, String lastName, String email, boolean emailVerified) {
+		return fnv1a(String.join(String.valueOf(SEPARATOR), nonNull(userId), nonNull(firstName), nonNull(lastName),
+				nonNull(email), String.valueOf(emailVerified)));
+	}
+
+	private static String nonNull(String value) {
+		return value == null ? "" : value;
+	}
+
+	private static long fnv1a(String value) {
+		long hash = FNV_OFFSET;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	public void add(String userId, String firstName, String lastName, String email, boolean emailVerified) {
+		int bucket = bucket(userId, digests.length);
+		digests[bucket] ^= hash(userId, firstName, lastName, email, emailVerified);
+		counts[bucket]++;
+	}
+
+	public int buckets() {
+		return digests.length;
+	}
+
+	public boolean matches(int bucket, long digest, int count) {
+		return digests[bucket] == digest && counts[bucket] == count;
+	}
+
+	public ObjectNode toJson(ObjectMapper mapper) {
+		ObjectNode node = mapper.createObjectNode();
+		node.put("realm", realm);
+		node.put("buckets", digests.length);
+		ArrayNode digestArray = node.putArray("digests");
+		ArrayNode countArray = node.putArray("counts");
+		for (int i = 0; i < digests.length; i++) {
+			digestArray.add(String.format("%016x", digests[i]));
+			countArray.add(counts[i]);
+		}
+		return node;
+	}
+
+	/**
+	 * @return the digest of the given bucket in a peer message, as written by {@link #toJson(ObjectMapper)}
+	 */
+	static long digestOf(JsonNode peer, int bucket) {
+		return Long.parseUnsignedLong(peer.path("digests").path(bucket).asText("0"), 16);
+	}
+}
@@ -0,0 +1,76 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Validates a delete-user record value on its raw bytes, so garbage is rejected before a Keycloak session is
+ * opened. Surrounding ASCII whitespace is ignored. Only a valid id is turned into a String.
+ */
+public final class UserIdParser {
+
+    public enum Format {
+        /** canonical 36 character UUID, as generated by Keycloak for local users */
+        UUID,
+        /** any printable ASCII id up to 255 characters, e.g. ids of federated users */
+        ANY
+    }
+
+    private static final int MAX_LENGTH = 255;
+
+    private UserIdParser() {
+    }
+
+    /**
+     * @return the user id, or {@code null} if the value is not a valid id in the given format
+     */
+    public static String parse(byte[] value, Format format) {
+        if (value == null) {
+            return null;
+        }
+        int start = 0;
+        int end = value.length;
+        while (start < end && isWhitespace(value[start])) {
+            start++;
+        }
+        while (end > start && isWhitespace(value[end - 1])) {
+            end--;
+        }
+        int length = end - start;
+        boolean valid = format == Format.UUID ? isUuid(value, start, length) : isPrintable(value, start, length);
+        // all bytes are ASCII at this point, so ISO-8859-1 decodes them without a lookup
+        return valid ? new String(value, start, length, StandardCharsets.ISO_8859_1) : null;
+    }
+
+    private static boolean isUuid(byte[] value, int start, int length) {
+        if (length != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            byte b = value[start + i];
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (b != '-') {
+                    return false;
+                }
+            } else if (!(b >= '0' && b <= '9' || b >= 'a' && b <= 'f' || b >= 'A' && b <= 'F')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPrintable(byte[] value, int start, int length) {
+        if (length == 0 || length > MAX_LENGTH) {
+            return false;
+        }
+        for (int i = start; i < start + length; i++) {
+            if (value[i] < 0x21 || value[i] > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.List;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Reads the user ids of a realm in pages ordered by id, each page starting after the last id of the previous one.
+ * Unlike offset pagination, users created or deleted while a realm is read neither shift other users into a page
+ * that was already read nor out of the next one, and the last id of a page is a position that stays valid.
+ */
+@FunctionalInterface
+public interface UserPages {
+
+	/**
+	 * @param afterId the last id of the previous page, {@code null} for the first page
+	 * @return up to {@code max} ids of the realm's users, service accounts excluded, ordered by id
+	 */
+	List<String> nextIds(KeycloakSession session, RealmModel realm, String afterId, int max);
+
+	/**
+	 * Reads the ids from Keycloak's user table, so federated users are included once they are imported.
+	 */
+	static UserPages jpa() {
+		return (session, realm, afterId, max) -> {
+			EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+			TypedQuery<String> query = em.createQuery("select u.id from UserEntity u where u.realmId = :realmId"
+					+ " and u.serviceAccountClientLink is null" + (afterId == null ? "" : " and u.id > :afterId")
+					+ " order by u.id", String.class);
+			query.setParameter("realmId", realm.getId());
+			if (afterId != null) {
+				query.setParameter("afterId", afterId);
+			}
+			return query.setMaxResults(max).getResultList();
+		};
+	}
+}
@@ -0,0 +1,340 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.subOne.kecyloak_dto.UserInfo;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Anti-entropy between the users of a realm and a downstream copy. The realm's {@link UserDigests} are published to
+ * the digest topic, keyed by realm name. A peer answers with its own digests in the same format; for every bucket
+ * whose digest or count differs, the Keycloak users of that bucket are re-sent to the create-user topic. A peer may
+ * list its userIds for mismatched buckets under {@code members} (bucket index to array of userIds); those unknown
+ * to Keycloak get a tombstone on the delete topic.
+ *
+ * <p>Realms isolated onto their own cluster are reconciled through that cluster's producer.
+ *
+ * <p>Each request needs a scan of the realm, so requests run one at a time on a background thread, and a newer peer
+ * message for a realm replaces one still waiting.
+ */
+public class UserReconciler {
+
+	private static final Logger LOG = Logger.getLogger(UserReconciler.class);
+
+	private final KeycloakSessionFactory sessionFactory;
+	private final Producer<String, String> producer;
+	private final ObjectMapper mapper;
+	private final String digestTopic;
+	private final String createUserTopic;
+	private final String deleteTopic;
+	private final int buckets;
+	private final int pageSize;
+	private final DeletionScheduler limiter;
+	private final ScheduledExecutorService worker;
+	private final Map<String, JsonNode> pendingPeers = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, Object>> lastRuns = new ConcurrentHashMap<>();
+	private UserPages userPages = UserPages.jpa();
+	private ProducerPool clusters;
+
+	public UserReconciler(KeycloakSessionFactory sessionFactory, Producer<String, String> producer, ObjectMapper mapper,
+			String digestTopic, String createUserTopic, String deleteTopic, int buckets, int pageSize,
+			DeletionScheduler limiter) {
+		this.sessionFactory = sessionFactory;
+		this.producer = producer;
+		this.mapper = mapper;
+		this.digestTopic = digestTopic;
+		this.createUserTopic = createUserTopic;
+		this.deleteTopic = deleteTopic;
+		this.buckets = buckets;
+		this.pageSize = pageSize;
+		this.limiter = limiter;
+		this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "KafkaUserReconciler-Thread");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Replaces how user ids are read, {@link UserPages#jpa()} by default.
+	 */
+	public void usePages(UserPages userPages) {
+		this.userPages = userPages;
+	}
+
+	/**
+	 * Sends digests, re-sent users and tombstones of the realms mapped in the pool to their own cluster.
+	 */
+	public void useClusters(ProducerPool clusters) {
+		this.clusters = clusters;
+	}
+
+	public void schedule(String realmName, long intervalMs) {
+		worker.scheduleWithFixedDelay(() -> runSafely("digest", realmName, () -> publishDigests(realmName)),
+				intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	public void requestDigests(String realmName) {
+		worker.execute(() -> runSafely("digest", realmName, () -> publishDigests(realmName)));
+	}
+
+	public void requestReconcile(JsonNode peer) {
+		String realmName = peer.path("realm").asText(null);
+		if (realmName == null) {
+			LOG.warn("Ignoring peer digests without realm");
+			return;
+		}
+		if (pendingPeers.put(realmName, peer) == null) {
+			worker.execute(() -> {
+				JsonNode latest = pendingPeers.remove(realmName);
+				if (latest != null) {
+					runSafely("reconcile", realmName, () -> reconcile(realmName, latest));
+				}
+			});
+		}
+	}
+
+	private void runSafely(String action, String realmName, Runnable task) {
+		try {
+			task.run();
+		} catch (Exception e) {
+			LOG.errorf(e, "User %s for realm '%s' failed", action, realmName);
+		}
+	}
+
+	public UserDigests computeDigests(String realmName) {
+		UserDigests digests = new UserDigests(realmName, buckets);
+		forEachUser(realmName, user -> digests.add(user.id, user.firstName, user.lastName, user.email,
+				user.emailVerified));
+		return digests;
+	}
+
+	public void publishDigests(String realmName) {
+		UserDigests digests = computeDigests(realmName);
+		try {
+			producerFor(realmName).send(new ProducerRecord<>(digestTopic, realmName, mapper.writeValueAsString(digests.toJson(mapper))),
+					(metadata, exception) -> {
+						if (exception != null) {
+							LOG.errorf(exception, "Failed to publish user digests of realm '%s'", realmName);
+						}
+					});
+			LOG.infof("Published %d user digests of realm '%s'", digests.buckets(), realmName);
+		} catch (JsonProcessingException e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
+
+	public Map<String, Object> reconcile(String realmName, JsonNode peer) {
+		if (peer.path("buckets").asInt() != buckets) {
+			LOG.warnf("Peer digests of realm '%s' use %d buckets instead of %d, ignored", realmName,
+					peer.path("buckets").asInt(), buckets);
+			return Map.of();
+		}
+		UserDigests local = computeDigests(realmName);
+		Set<Integer> mismatched = new HashSet<>();
+		for (int bucket = 0; bucket < buckets; bucket++) {
+			if (!local.matches(bucket, UserDigests.digestOf(peer, bucket), peer.path("counts").path(bucket).asInt())) {
+				mismatched.add(bucket);
+			}
+		}
+
+		Map<String, Set<String>> peerMembers = new HashMap<>();
+		Iterator<Map.Entry<String, JsonNode>> members = peer.path("members").fields();
+		while (members.hasNext()) {
+			Map.Entry<String, JsonNode> entry = members.next();
+			int bucket;
+			try {
+				bucket = Integer.parseInt(entry.getKey());
+			} catch (NumberFormatException e) {
+				LOG.warnf("Ignoring peer members of realm '%s' under invalid bucket '%s'", realmName, entry.getKey());
+				continue;
+			}
+			if (mismatched.contains(bucket)) {
+				Set<String> ids = new HashSet<>();
+				entry.getValue().forEach(id -> ids.add(id.asText()));
+				peerMembers.put(String.valueOf(bucket), ids);
+			}
+		}
+
+		Producer<String, String> target = producerFor(realmName);
+		long[] resynced = new long[1];
+		long[] skipped = new long[1];
+		if (!mismatched.isEmpty()) {
+			forEachUser(realmName, user -> {
+				int bucket = UserDigests.bucket(user.id, buckets);
+				if (!mismatched.contains(bucket)) {
+					return;
+				}
+				Set<String> ids = peerMembers.get(String.valueOf(bucket));
+				if (ids != null) {
+					ids.remove(user.id);
+				}
+				UUID uuid = parseUuid(user.id);
+				if (uuid == null) {
+					LOG.warnf("Reconciliation skips userId='%s', it is not a UUID", user.id);
+					skipped[0]++;
+					return;
+				}
+				acquire();
+				send(target, createUserTopic, user.id, toJson(user, uuid));
+				resynced[0]++;
+			});
+		}
+		long deleted = 0;
+		if (deleteTopic != null) {
+			for (Set<String> orphans : peerMembers.values()) {
+				for (String userId : orphans) {
+					acquire();
+					send(target, deleteTopic, userId, null);
+					deleted++;
+				}
+			}
+		}
+		target.flush();
+
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("realm", realmName);
+		result.put("mismatchedBuckets", mismatched.size());
+		result.put("resynced", resynced[0]);
+		result.put("skipped", skipped[0]);
+		result.put("deleted", deleted);
+		result.put("timestamp", Instant.now().toString());
+		lastRuns.put(realmName, result);
+		LOG.infof("Reconciled realm '%s': %d of %d buckets differed, %d users re-sent, %d deleted", realmName,
+				mismatched.size(), buckets, resynced[0], deleted);
+		return result;
+	}
+
+	private String toJson(UserState user, UUID uuid) {
+		try {
+			return mapper.writeValueAsString(new UserInfo(user.firstName, user.lastName, uuid, user.email,
+					user.emailVerified));
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * {@link UserInfo} carries the id as UUID, which federated ids ({@code f:<provider>:<id>}) are not.
+	 */
+	private static UUID parseUuid(String id) {
+		try {
+			return UUID.fromString(id);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private void send(Producer<String, String> target, String topic, String userId, String value) {
+		target.send(new ProducerRecord<>(topic, userId, value), (metadata, exception) -> {
+			if (exception != null) {
+				LOG.errorf(exception, "Reconciliation send to '%s' failed for userId='%s'", topic, userId);
+			}
+		});
+	}
+
+	private Producer<String, String> producerFor(String realmName) {
+		if (clusters == null) {
+			return producer;
+		}
+		String realmId = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+			RealmModel realm = session.realms().getRealmByName(realmName);
+			return realm == null ? null : realm.getId();
+		});
+		Producer<String, String> cluster = clusters.forRealm(realmId);
+		return cluster == null ? producer : cluster;
+	}
+
+	/**
+	 * Loads the users page by page in the order of their ids, each page in its own transaction, and applies the
+	 * action outside of it.
+	 */
+	private void forEachUser(String realmName, Consumer<UserState> action) {
+		String afterId = null;
+		while (true) {
+			String previous = afterId;
+			List<String> ids = new ArrayList<>();
+			List<UserState> page = new ArrayList<>();
+			KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+				RealmModel realm = session.realms().getRealmByName(realmName);
+				if (realm == null) {
+					throw new IllegalArgumentException("Realm '" + realmName + "' not found");
+				}
+				ids.addAll(userPages.nextIds(session, realm, previous, pageSize));
+				for (String id : ids) {
+					UserModel user = session.users().getUserById(realm, id);
+					if (user != null) {
+						page.add(new UserState(user));
+					}
+				}
+			});
+			page.forEach(action);
+			if (ids.size() < pageSize) {
+				return;
+			}
+			afterId = ids.get(ids.size() - 1);
+		}
+	}
+
+	private static final class UserState {
+		private final String id;
+		private final String firstName;
+		private final String lastName;
+		private final String email;
+		private final boolean emailVerified;
+
+		private UserState(UserModel user) {
+			this.id = user.getId();
+			this.firstName = user.getFirstName();
+			this.lastName = user.getLastName();
+			this.email = user.getEmail();
+			this.emailVerified = user.isEmailVerified();
+		}
+	}
+
+	private void acquire() {
+		while (!limiter.tryAcquire()) {
+			try {
+				Thread.sleep(Math.max(1, limiter.timeUntilNextPermit(Duration.ofSeconds(1)).toMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Reconciliation interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the result of the last reconciliation of the realm
+	 */
+	public Map<String, Object> status(String realmName) {
+		return new LinkedHashMap<>(lastRuns.getOrDefault(realmName, Map.of()));
+	}
+
+	public void close() {
+		worker.shutdownNow();
+	}
+}
@@ -0,0 +1,122 @@
+package com.github.snuk87.keycloak.kafka;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.subOne.kecyloak_dto.UserInfo;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Publishes the latest {@link UserInfo} per userId to a log-compacted topic (the topic must be created with
+ * {@code cleanup.policy=compact}). Changes whose event does not carry the full state are refreshed from the
+ * database on a background worker; refreshes queued for the same user are coalesced. Removed users get a
+ * tombstone. Snapshots of realms isolated onto their own cluster are sent to that cluster.
+ */
+public class UserSnapshotPublisher {
+
+	private static final Logger LOG = Logger.getLogger(UserSnapshotPublisher.class);
+
+	private final Producer<String, String> producer;
+	private final String topic;
+	private final KeycloakSessionFactory sessionFactory;
+	private final ObjectMapper mapper;
+	private final ThreadPoolExecutor worker;
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+	private ProducerPool clusters;
+
+	public UserSnapshotPublisher(Producer<String, String> producer, String topic, KeycloakSessionFactory sessionFactory,
+			ObjectMapper mapper, int queueCapacity) {
+		this.producer = producer;
+		this.topic = topic;
+		this.sessionFactory = sessionFactory;
+		this.mapper = mapper;
+		this.worker = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), r -> {
+					Thread thread = new Thread(r, "UserSnapshotPublisher-Thread");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Sends the snapshots of the realms mapped in the pool to their own cluster instead of the given producer.
+	 */
+	public void useClusters(ProducerPool clusters) {
+		this.clusters = clusters;
+	}
+
+	public void publish(String realmId, UserInfo userInfo, String userId) {
+		try {
+			send(realmId, userId, mapper.writeValueAsString(userInfo));
+		} catch (JsonProcessingException e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
+
+	public void tombstone(String realmId, String userId) {
+		send(realmId, userId, null);
+	}
+
+	public void refresh(String realmId, String userId) {
+		if (sessionFactory == null || userId == null || !pending.add(userId)) {
+			return;
+		}
+		try {
+			worker.execute(() -> {
+				pending.remove(userId);
+				try {
+					KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+						RealmModel realm = session.realms().getRealm(realmId);
+						UserModel user = realm == null ? null : session.users().getUserById(realm, userId);
+						if (user == null) {
+							tombstone(realmId, userId);
+						} else {
+							publish(realmId, new UserInfo(user.getFirstName(), user.getLastName(), UUID.fromString(userId),
+									user.getEmail(), user.isEmailVerified()), userId);
+						}
+					});
+				} catch (Exception e) {
+					LOG.errorf(e, "Failed to refresh user snapshot for '%s'", userId);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pending.remove(userId);
+			LOG.errorf("Snapshot queue is full, snapshot refresh for '%s' dropped", userId);
+		}
+	}
+
+	private void send(String realmId, String userId, String value) {
+		Producer<String, String> cluster = clusters == null ? null : clusters.forRealm(realmId);
+		Producer<String, String> target = cluster == null ? producer : cluster;
+		target.send(new ProducerRecord<>(topic, userId, value), (metadata, exception) -> {
+			if (exception != null) {
+				LOG.errorf(exception, "Failed to publish user snapshot for '%s'", userId);
+			}
+		});
+	}
+
+	public void close() {
+		worker.shutdown();
+		try {
+			if (!worker.awaitTermination(5, TimeUnit.SECONDS)) {
+				worker.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			worker.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.github.snuk87.keycloak.kafka.consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.snuk87.keycloak.kafka.ConsumerSupervisor;
+import com.github.snuk87.keycloak.kafka.UserDeletionConsumer;
+import org.junit.jupiter.api.Test;
+
+class ConsumerSupervisorTests {
+
+	@Test
+	void shouldRestartConsumerAfterFatalError() throws Exception {
+		// Given
+		UserDeletionConsumer failing = mock(UserDeletionConsumer.class);
+		doThrow(new IllegalStateException("fenced")).when(failing).run();
+		CountDownLatch stopped = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		UserDeletionConsumer healthy = mock(UserDeletionConsumer.class);
+		doAnswer(invocation -> {
+			started.countDown();
+			stopped.await();
+			return null;
+		}).when(healthy).run();
+		doAnswer(invocation -> {
+			stopped.countDown();
+			return null;
+		}).when(healthy).stop();
+		AtomicInteger created = new AtomicInteger();
+		ConsumerSupervisor supervisor = new ConsumerSupervisor(
+				() -> created.getAndIncrement() == 0 ? failing : healthy, 10, 100);
+
+		// When
+		supervisor.start();
+		assertTrue(started.await(2, TimeUnit.SECONDS));
+
+		// Then
+		Map<String, Object> stats = supervisor.stats();
+		assertSame(healthy, supervisor.current());
+		assertEquals(true, stats.get("alive"));
+		assertEquals(1L, stats.get("restarts"));
+		assertTrue(((String) stats.get("lastFailure")).contains("fenced"));
+
+		supervisor.stop(1000);
+		assertFalse((Boolean) supervisor.stats().get("alive"));
+		assertEquals(2, created.get());
+	}
+
+	@Test
+	void shouldNotRestartAfterStop() throws Exception {
+		// Given
+		CountDownLatch stopped = new CountDownLatch(1);
+		UserDeletionConsumer consumer = mock(UserDeletionConsumer.class);
+		doAnswer(invocation -> {
+			stopped.await();
+			return null;
+		}).when(consumer).run();
+		doAnswer(invocation -> {
+			stopped.countDown();
+			return null;
+		}).when(consumer).stop();
+		AtomicInteger created = new AtomicInteger();
+		ConsumerSupervisor supervisor = new ConsumerSupervisor(() -> {
+			created.incrementAndGet();
+			return consumer;
+		}, 10, 100);
+
+		// When
+		supervisor.start();
+		Thread.sleep(50);
+		supervisor.stop(1000);
+		Thread.sleep(50);
+
+		// Then
+		assertEquals(1, created.get());
+		assertEquals(0L, supervisor.stats().get("restarts"));
+	}
+}
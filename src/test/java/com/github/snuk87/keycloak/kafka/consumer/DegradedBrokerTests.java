@@ -0,0 +1,66 @@
+package com.github.snuk87.keycloak.kafka.consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.github.snuk87.keycloak.kafka.KafkaConsumerFactory;
+import com.github.snuk87.keycloak.kafka.UserDeletionConsumer;
+import com.github.snuk87.keycloak.kafka.soak.FaultInjectingConsumerFactory;
+import com.github.snuk87.keycloak.kafka.soak.InMemoryUserStore;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+class DegradedBrokerTests {
+
+	private static final String TOPIC = "delete_user";
+
+	@Test
+	void shouldDeleteEveryUserDespiteCommitFailuresStallsAndRebalances() throws Exception {
+		InMemoryUserStore store = new InMemoryUserStore("test-realm", 0);
+		TopicPartition partition = new TopicPartition(TOPIC, 0);
+		MockConsumer<String, byte[]> mockConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		mockConsumer.subscribe(Collections.singletonList(TOPIC));
+		mockConsumer.rebalance(Collections.singletonList(partition));
+		mockConsumer.updateBeginningOffsets(Map.of(partition, 0L));
+		for (long offset = 0; offset < 200; offset++) {
+			String userId = UUID.randomUUID().toString();
+			store.addUser(userId);
+			mockConsumer.addRecord(new ConsumerRecord<>(TOPIC, 0, offset, userId,
+					userId.getBytes(StandardCharsets.US_ASCII)));
+		}
+
+		FaultInjectingConsumerFactory faults = new FaultInjectingConsumerFactory(new KafkaConsumerFactory() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public <K, V> Consumer<K, V> createConsumer(String clientId, String bootstrapServer,
+					Map<String, Object> optionalProperties) {
+				return (Consumer<K, V>) mockConsumer;
+			}
+		}, 42).commitFailures(0.2).pollStalls(0.1, 5).rebalances(0.1, 5);
+		UserDeletionConsumer consumer = new UserDeletionConsumer(faults, "test-client", "localhost:9092",
+				new HashMap<>(), store.sessionFactory(), "test-realm", TOPIC);
+		consumer.reconnectBackoff(1, 10);
+		Thread consumerThread = new Thread(consumer, "UserDeletionConsumer-Test");
+		consumerThread.start();
+
+		long deadline = System.currentTimeMillis() + 20_000;
+		while (store.size() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		consumer.stop();
+		consumerThread.join(5_000);
+
+		assertEquals(0, store.size(), "users skipped after injected faults");
+		assertTrue(faults.injectedFaults() > 0);
+	}
+}
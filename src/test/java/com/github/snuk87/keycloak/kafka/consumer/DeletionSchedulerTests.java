@@ -0,0 +1,97 @@
+package com.github.snuk87.keycloak.kafka.consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import com.github.snuk87.keycloak.kafka.DeletionScheduler;
+import org.junit.jupiter.api.Test;
+
+class DeletionSchedulerTests {
+
+	private static final Instant NOON = Instant.parse("2026-01-05T12:00:00Z");
+
+	@Test
+	void shouldLimitDeletionsToConfiguredRate() {
+		MutableClock clock = new MutableClock(NOON);
+		DeletionScheduler scheduler = new DeletionScheduler(2, null, 0, clock);
+
+		assertTrue(scheduler.tryAcquire());
+		assertTrue(scheduler.tryAcquire());
+		assertFalse(scheduler.tryAcquire());
+		assertEquals(Duration.ofMillis(500), scheduler.timeUntilNextPermit(Duration.ofSeconds(1)));
+
+		clock.advance(Duration.ofMillis(500));
+		assertTrue(scheduler.tryAcquire());
+	}
+
+	@Test
+	void shouldApplyRateOfMatchingWindow() {
+		MutableClock clock = new MutableClock(NOON);
+		DeletionScheduler scheduler = new DeletionScheduler(100, "22:00-06:00=1000,08:00-18:00=0", 0, clock);
+
+		assertEquals(0, scheduler.currentRate());
+		assertFalse(scheduler.tryAcquire());
+
+		clock.advance(Duration.ofHours(11));
+		assertEquals(1000, scheduler.currentRate());
+		assertTrue(scheduler.tryAcquire());
+	}
+
+	@Test
+	void shouldThrottleWhileLatencyIsAboveTarget() {
+		DeletionScheduler scheduler = new DeletionScheduler(100, null, 50, new MutableClock(NOON));
+
+		for (int i = 0; i < 5; i++) {
+			scheduler.recordLatency(Duration.ofMillis(200).toNanos());
+		}
+		assertTrue(scheduler.currentRate() < 50);
+
+		for (int i = 0; i < 200; i++) {
+			scheduler.recordLatency(Duration.ofMillis(5).toNanos());
+		}
+		assertEquals(100, scheduler.currentRate(), 0.001);
+	}
+
+	@Test
+	void shouldNeverLimitWhenUnlimited() {
+		DeletionScheduler scheduler = DeletionScheduler.unlimited();
+
+		for (int i = 0; i < 10_000; i++) {
+			assertTrue(scheduler.tryAcquire());
+		}
+	}
+
+	private static final class MutableClock extends Clock {
+		private Instant now;
+
+		private MutableClock(Instant now) {
+			this.now = now;
+		}
+
+		void advance(Duration duration) {
+			now = now.plus(duration);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return now;
+		}
+	}
+}
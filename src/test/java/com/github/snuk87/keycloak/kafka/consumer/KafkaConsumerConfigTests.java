@@ -23,4 +23,15 @@ class KafkaConsumerConfigTests {
 		assertEquals("10000", config.get("heartbeat.interval.ms"));
 		assertNull(config.get("keycloak.foo"));
 	}
+
+	@Test
+	void shouldReturnStaticMembershipAndRackConfig() {
+		System.setProperty("keycloak.group.instance.id", "keycloak-0");
+		System.setProperty("keycloak.client.rack", "eu-central-1a");
+
+		Map<String, Object> config = KafkaConsumerConfig.initConsumer(new SystemPropertiesConfigProvider().scope());
+
+		assertEquals("keycloak-0", config.get("group.instance.id"));
+		assertEquals("eu-central-1a", config.get("client.rack"));
+	}
 }
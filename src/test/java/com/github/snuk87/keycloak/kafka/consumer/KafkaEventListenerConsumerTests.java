@@ -1,20 +1,30 @@
 package com.github.snuk87.keycloak.kafka.consumer;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLTransientConnectionException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import com.github.snuk87.keycloak.kafka.KafkaConsumerFactory;
 import com.github.snuk87.keycloak.kafka.UserDeletionConsumer;
+import com.github.snuk87.keycloak.kafka.UserIdParser;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.MockConsumer;
 import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.NetworkException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -23,11 +33,12 @@ import org.keycloak.models.*;
 class KafkaEventListenerConsumerTests {
 
 
-	private MockConsumer<String, String> mockConsumer;
+	private MockConsumer<String, byte[]> mockConsumer;
     private RealmProvider mockRealmProvider;
 	private UserProvider mockUserProvider;
 	private RealmModel mockRealm;
 	private UserModel mockUser;
+	private KeycloakSessionFactory mockSessionFactory;
 
 	private UserDeletionConsumer consumer;
 	private Thread consumerThread;
@@ -57,7 +68,7 @@ class KafkaEventListenerConsumerTests {
 		when(mockSession.users()).thenReturn(mockUserProvider);
 		when(mockRealmProvider.getRealmByName(REALM_NAME)).thenReturn(mockRealm);
 
-		KeycloakSessionFactory mockSessionFactory = mock(KeycloakSessionFactory.class);
+		mockSessionFactory = mock(KeycloakSessionFactory.class);
 		when(mockSessionFactory.create()).thenReturn(mockSession);
 		when(mockSession.getKeycloakSessionFactory()).thenReturn(mockSessionFactory);
 
@@ -100,7 +111,7 @@ class KafkaEventListenerConsumerTests {
 		when(mockUserProvider.removeUser(mockRealm, mockUser)).thenReturn(true);
 		when(mockUser.getUsername()).thenReturn("testuser");
 		when(mockUser.getEmail()).thenReturn("test@example.com");
-		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, USER_ID));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, bytes(USER_ID)));
 		// When
 		consumerThread = new Thread(() -> {
 			try {
@@ -124,7 +135,7 @@ class KafkaEventListenerConsumerTests {
 		when(mockUserProvider.getUserById(mockRealm, USER_ID)).thenReturn(null);
 
 		// Add message
-		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, USER_ID));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, bytes(USER_ID)));
 
 		// When
 		consumerThread = new Thread(() -> {
@@ -149,7 +160,7 @@ class KafkaEventListenerConsumerTests {
 		when(mockRealmProvider.getRealmByName(REALM_NAME)).thenReturn(null);
 
 		// Add message
-		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, USER_ID));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, bytes(USER_ID)));
 
 		// When
 		consumerThread = new Thread(() -> {
@@ -171,7 +182,7 @@ class KafkaEventListenerConsumerTests {
 	@Test
 	void shouldHandleNullUserId() {
 		// Given - null userId
-		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, null, null));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, null, bytes(null)));
 
 		// When
 		consumerThread = new Thread(() -> {
@@ -187,12 +198,13 @@ class KafkaEventListenerConsumerTests {
 
 		// Then
 		verify(mockUserProvider, never()).getUserById(any(), any());
+		assertEquals(1L, consumer.stats().get("rejectedRecords"));
 	}
 
 	@Test
 	void shouldHandleEmptyUserId() {
 		// Given - empty userId
-		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, "", ""));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, "", bytes("")));
 
 		// When
 		consumerThread = new Thread(() -> {
@@ -210,6 +222,36 @@ class KafkaEventListenerConsumerTests {
 		verify(mockUserProvider, never()).getUserById(any(), any());
 	}
 
+	@Test
+	void shouldRejectMalformedUuidBeforeOpeningSession() {
+		// Given
+		MockProducer<String, String> rejectProducer =
+				new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+		consumer.validateIds(UserIdParser.Format.UUID);
+		consumer.publishRejects(rejectProducer, "delete_user_rejected");
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, null, bytes("not-a-uuid")));
+
+		// When
+		consumerThread = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+				consumer.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumerThread.start();
+		consumer.run();
+
+		// Then
+		verify(mockSessionFactory, never()).create();
+		assertEquals(1L, consumer.stats().get("rejectedRecords"));
+		assertEquals(1, rejectProducer.history().size());
+		assertEquals("not-a-uuid", rejectProducer.history().get(0).value());
+		assertEquals(1L, mockConsumer.committed(Set.of(new TopicPartition(TOPIC_NAME, 0)))
+				.get(new TopicPartition(TOPIC_NAME, 0)).offset());
+	}
+
 	@Test
 	void shouldHandleDeleteFailure() {
 		// Given
@@ -218,7 +260,7 @@ class KafkaEventListenerConsumerTests {
 		when(mockUser.getUsername()).thenReturn("testuser");
 
 		// Add message
-		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, USER_ID));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, bytes(USER_ID)));
 
 		// When
 		consumerThread = new Thread(() -> {
@@ -236,6 +278,33 @@ class KafkaEventListenerConsumerTests {
 		verify(mockUserProvider).removeUser(mockRealm, mockUser);
 	}
 
+	@Test
+	void shouldLeaveRecordUncommittedWhenDeletionFailsTransiently() {
+		// Given
+		when(mockUserProvider.getUserById(mockRealm, USER_ID)).thenReturn(mockUser);
+		when(mockUserProvider.removeUser(mockRealm, mockUser))
+				.thenThrow(new IllegalStateException(new SQLTransientConnectionException("connection lost")));
+		consumer.reconnectBackoff(10, 100);
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, bytes(USER_ID)));
+
+		// When
+		consumerThread = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+				consumer.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumerThread.start();
+		consumer.run();
+
+		// Then
+		TopicPartition partition = new TopicPartition(TOPIC_NAME, 0);
+		assertNull(mockConsumer.committed(Set.of(partition)).get(partition));
+		assertEquals(0L, consumer.stats().get("deletedUsers"));
+	}
+
 	@Test
 	void shouldProcessMultipleMessages() {
 		// Given
@@ -253,8 +322,8 @@ class KafkaEventListenerConsumerTests {
 		when(user2.getUsername()).thenReturn("user2");
 
 		// Add multiple messages
-		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, userId1, userId1));
-		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 1L, userId2, userId2));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, userId1, bytes(userId1)));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 1L, userId2, bytes(userId2)));
 
 		// When
 		consumerThread = new Thread(() -> {
@@ -275,6 +344,97 @@ class KafkaEventListenerConsumerTests {
 		verify(mockUserProvider).removeUser(mockRealm, user2);
 	}
 
+	@Test
+	void shouldPausePartitionsAndReportStats() {
+		// Given
+		when(mockUserProvider.getUserById(mockRealm, USER_ID)).thenReturn(mockUser);
+		when(mockUserProvider.removeUser(mockRealm, mockUser)).thenReturn(true);
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, bytes(USER_ID)));
+
+		// When
+		consumerThread = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+				consumer.pause();
+				Thread.sleep(1200);
+				consumer.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumerThread.start();
+		consumer.run();
+
+		// Then
+		Map<String, Object> stats = consumer.stats();
+		assertEquals(1L, stats.get("deletedUsers"));
+		assertEquals(true, stats.get("paused"));
+		assertTrue(mockConsumer.paused().contains(new TopicPartition(TOPIC_NAME, 0)));
+	}
+
+	@Test
+	void shouldPublishResultsAndOffsetsInOneTransaction() {
+		// Given
+		when(mockUserProvider.getUserById(mockRealm, USER_ID)).thenReturn(mockUser);
+		when(mockUserProvider.removeUser(mockRealm, mockUser)).thenReturn(true);
+		when(mockUserProvider.getUserById(mockRealm, "user-missing")).thenReturn(null);
+		MockProducer<String, String> resultProducer =
+				new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+		consumer.publishResults(resultProducer, "delete_user_result");
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, bytes(USER_ID)));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 1L, "user-missing", bytes("user-missing")));
+
+		// When
+		consumerThread = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+				consumer.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumerThread.start();
+		consumer.run();
+
+		// Then
+		assertTrue(resultProducer.transactionCommitted());
+		assertEquals(2, resultProducer.history().size());
+		assertTrue(resultProducer.history().get(0).value().contains("\"status\":\"DELETED\""));
+		assertTrue(resultProducer.history().get(1).value().contains("\"status\":\"NOT_FOUND\""));
+		assertEquals(2L, resultProducer.consumerGroupOffsetsHistory().get(0).values().iterator().next()
+				.get(new TopicPartition(TOPIC_NAME, 0)).offset());
+	}
+
+	@Test
+	void shouldKeepPollingAfterBrokerOutage() {
+		// Given
+		when(mockUserProvider.getUserById(mockRealm, USER_ID)).thenReturn(mockUser);
+		when(mockUserProvider.removeUser(mockRealm, mockUser)).thenReturn(true);
+		consumer.reconnectBackoff(10, 100);
+		mockConsumer.setPollException(new NetworkException("broker unavailable"));
+		mockConsumer.addRecord(new ConsumerRecord<>(TOPIC_NAME, 0, 0L, USER_ID, bytes(USER_ID)));
+
+		// When
+		consumerThread = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+				consumer.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumerThread.start();
+		consumer.run();
+
+		// Then
+		verify(mockUserProvider).removeUser(mockRealm, mockUser);
+		assertEquals("STOPPED", consumer.stats().get("state"));
+	}
+
+	private static byte[] bytes(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
 	@Test
 	void shouldStopGracefully() throws InterruptedException {
 		// When
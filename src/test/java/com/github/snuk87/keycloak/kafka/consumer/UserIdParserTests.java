@@ -0,0 +1,43 @@
+package com.github.snuk87.keycloak.kafka.consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import com.github.snuk87.keycloak.kafka.UserIdParser;
+import com.github.snuk87.keycloak.kafka.UserIdParser.Format;
+import org.junit.jupiter.api.Test;
+
+class UserIdParserTests {
+
+	private static final String UUID = "935edd54-9d81-48fb-b114-8c5144367630";
+
+	@Test
+	void shouldParseUuidIgnoringSurroundingWhitespace() {
+		assertEquals(UUID, UserIdParser.parse(bytes(" " + UUID + "\n"), Format.UUID));
+		assertEquals(UUID.toUpperCase(), UserIdParser.parse(bytes(UUID.toUpperCase()), Format.UUID));
+	}
+
+	@Test
+	void shouldRejectMalformedUuids() {
+		assertNull(UserIdParser.parse(null, Format.UUID));
+		assertNull(UserIdParser.parse(bytes(""), Format.UUID));
+		assertNull(UserIdParser.parse(bytes(UUID.substring(1)), Format.UUID));
+		assertNull(UserIdParser.parse(bytes(UUID.replace('-', '_')), Format.UUID));
+		assertNull(UserIdParser.parse(bytes(UUID.replace('d', 'g')), Format.UUID));
+	}
+
+	@Test
+	void shouldAcceptPrintableIdsInAnyFormat() {
+		assertEquals("f:ldap:jdoe", UserIdParser.parse(bytes("f:ldap:jdoe"), Format.ANY));
+		assertNull(UserIdParser.parse(bytes("   "), Format.ANY));
+		assertNull(UserIdParser.parse(bytes("user 1"), Format.ANY));
+		assertNull(UserIdParser.parse(bytes("jürgen"), Format.ANY));
+		assertNull(UserIdParser.parse(bytes("x".repeat(256)), Format.ANY));
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,75 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+import com.github.snuk87.keycloak.kafka.BulkLane;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+class BulkLaneTests {
+
+	private final MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(),
+			new StringSerializer());
+
+	@Test
+	void shouldDropIncomingRecordsWhenFull() {
+		BulkLane lane = new BulkLane(producer, 2, BulkLane.ShedPolicy.DROP_NEWEST);
+
+		assertTrue(lane.offer(record("1")));
+		assertTrue(lane.offer(record("2")));
+		assertFalse(lane.offer(record("3")));
+
+		lane.start();
+		lane.close(Duration.ofSeconds(5));
+		assertEquals("1,2", sentKeys());
+		assertEquals(1L, lane.stats().get("dropped"));
+	}
+
+	@Test
+	void shouldDropOldestRecordsWhenFull() {
+		BulkLane lane = new BulkLane(producer, 2, BulkLane.ShedPolicy.DROP_OLDEST);
+
+		lane.offer(record("1"));
+		lane.offer(record("2"));
+		assertTrue(lane.offer(record("3")));
+
+		lane.start();
+		lane.close(Duration.ofSeconds(5));
+		assertEquals("2,3", sentKeys());
+		assertEquals(1L, lane.stats().get("dropped"));
+		assertEquals(2L, lane.stats().get("sent"));
+	}
+
+	@Test
+	void shouldCountFailedSends() throws Exception {
+		MockProducer<String, String> failing = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+		BulkLane lane = new BulkLane(failing, 2, BulkLane.ShedPolicy.DROP_NEWEST);
+		lane.offer(record("1"));
+
+		lane.start();
+		for (int i = 0; i < 500 && failing.history().isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		failing.errorNext(new RuntimeException("broker unavailable"));
+		lane.close(Duration.ofSeconds(5));
+
+		assertEquals(1L, lane.stats().get("failed"));
+		assertEquals(0L, lane.stats().get("sent"));
+		assertEquals("java.lang.RuntimeException: broker unavailable", lane.stats().get("lastFailure"));
+	}
+
+	private static ProducerRecord<String, String> record(String key) {
+		return new ProducerRecord<>("events", key, "{}");
+	}
+
+	private String sentKeys() {
+		return producer.history().stream().map(ProducerRecord::key).collect(Collectors.joining(","));
+	}
+}
@@ -0,0 +1,133 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.snuk87.keycloak.kafka.HotPathLog;
+import org.jboss.logging.Logger;
+import org.jboss.logging.Logger.Level;
+import org.junit.jupiter.api.Test;
+
+class HotPathLogTests {
+
+	private final CapturingLogger logger = new CapturingLogger(Level.INFO);
+
+	@Test
+	void shouldWriteSampleOfMessagesAndReportSuppressedOnes() {
+		HotPathLog log = new HotPathLog(logger, "test", false, 2, 60000);
+
+		for (int i = 0; i < 10; i++) {
+			log.log(Level.INFO, "Processing %s of %s", i, 10);
+		}
+
+		assertTrue(logger.lines.size() <= 4, logger.lines.toString());
+		assertEquals("Processing 0 of 10", logger.lines.get(0));
+	}
+
+	@Test
+	void shouldWriteEveryMessageInFullMode() {
+		HotPathLog log = new HotPathLog(logger, "test", true, 2, 60000);
+
+		for (int i = 0; i < 10; i++) {
+			log.log(Level.INFO, "Processing %s of %s", i, 10);
+		}
+
+		assertEquals(10, logger.lines.size());
+	}
+
+	@Test
+	void shouldNotFormatDisabledMessages() {
+		HotPathLog log = new HotPathLog(logger, "test", true, 2, 60000);
+
+		log.log(Level.DEBUG, "Produced %s to %s", new Object() {
+			@Override
+			public String toString() {
+				throw new AssertionError("formatted");
+			}
+		}, "topic");
+
+		assertEquals(List.of(), logger.lines);
+	}
+
+	@Test
+	void shouldSummarizeOutcomesOncePerInterval() {
+		HotPathLog log = new HotPathLog(logger, "test", false, 2, 0);
+
+		log.count("DELETED", 2_000_000);
+
+		assertEquals(1, logger.lines.size());
+		assertTrue(logger.lines.get(0).startsWith("test in the last 0s: DELETED=1 (avg 2.00ms, max 2.00ms)"),
+				logger.lines.get(0));
+	}
+
+	@Test
+	void shouldReportSuppressedCountAfterTheGivenParameters() {
+		HotPathLog log = new HotPathLog(logger, "test", false, 1, 60000);
+
+		for (int i = 0; i < 3; i++) {
+			log.log(Level.INFO, new IllegalStateException(), "Failed to produce to topic '%s'", "events");
+		}
+		try {
+			Thread.sleep(1100);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.log(Level.INFO, new IllegalStateException(), "Failed to produce to topic '%s'", "events");
+
+		assertEquals("Failed to produce to topic 'events'", logger.lines.get(0));
+		String last = logger.lines.get(logger.lines.size() - 1);
+		assertTrue(last.matches("Failed to produce to topic 'events' \\([12] similar suppressed\\)"), last);
+	}
+
+	@Test
+	void shouldWriteRemainingSummaryOnClose() {
+		HotPathLog log = new HotPathLog(logger, "test", false, 2, 60000);
+
+		log.count("DELETED", 2_000_000);
+		assertEquals(List.of(), logger.lines);
+		log.close();
+
+		assertEquals(1, logger.lines.size());
+		assertTrue(logger.lines.get(0).startsWith("test in the last 0s: DELETED=1"), logger.lines.get(0));
+	}
+
+	@Test
+	void shouldNotWriteEmptySummary() {
+		HotPathLog log = new HotPathLog(logger, "test", false, 2, 60000);
+
+		log.close();
+
+		assertEquals(List.of(), logger.lines);
+	}
+
+	private static final class CapturingLogger extends Logger {
+
+		private final Level threshold;
+		private final List<String> lines = new ArrayList<>();
+
+		private CapturingLogger(Level threshold) {
+			super("test");
+			this.threshold = threshold;
+		}
+
+		@Override
+		public boolean isEnabled(Level level) {
+			return level.ordinal() <= threshold.ordinal();
+		}
+
+		@Override
+		protected void doLog(Level level, String loggerClassName, Object message, Object[] parameters,
+				Throwable thrown) {
+			lines.add(String.valueOf(message));
+		}
+
+		@Override
+		protected void doLogf(Level level, String loggerClassName, String format, Object[] parameters,
+				Throwable thrown) {
+			lines.add(String.format(format, parameters));
+		}
+	}
+}
@@ -1,33 +1,62 @@
 package com.github.snuk87.keycloak.kafka.producer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snuk87.keycloak.kafka.BulkLane;
+import com.github.snuk87.keycloak.kafka.EventHeaders;
 import com.github.snuk87.keycloak.kafka.KafkaEventListenerProvider;
 import com.github.snuk87.keycloak.kafka.KafkaProducerFactory;
+import com.github.snuk87.keycloak.kafka.ProducerPool;
+import com.github.snuk87.keycloak.kafka.RingBuffer;
+import com.github.snuk87.keycloak.kafka.UserSnapshotPublisher;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Scope;
 import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.keycloak.events.Event;
 import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakContext;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserProvider;
+import org.keycloak.sessions.AuthenticationSessionModel;
 
 import static org.mockito.Mockito.*;
 
 class KafkaEventListenerProviderTests {
 
 	private KafkaEventListenerProvider listener;
+	private KeycloakSession mockSession;
+	private UserProvider mockUsers;
 
     @BeforeEach
 	void setUp() {
-		KeycloakSession mockSession = mock(KeycloakSession.class);
-		UserProvider mockUsers = mock(UserProvider.class);
+		mockSession = mock(KeycloakSession.class);
+		mockUsers = mock(UserProvider.class);
 		UserModel mockUser = mock(UserModel.class);
 
 		when(mockSession.users()).thenReturn(mockUsers);
@@ -61,6 +90,87 @@ class KafkaEventListenerProviderTests {
 		assertEquals(1, producer.history().size());
 	}
 
+	@Test
+	void shouldAddRoutingHeaders() throws Exception {
+		Event event = new Event();
+		event.setType(EventType.VERIFY_EMAIL);
+		event.setRealmId("realm-id");
+		event.setClientId("account");
+		event.setUserId("935edd54-9d81-48fb-b114-8c5144367630");
+		event.setTime(1700000000000L);
+		event.setDetails(Map.of("email", "john.doe@example.com"));
+
+		MockProducer<?, ?> producer = getProducerUsingReflection();
+
+		listener.onEvent(event);
+
+		Headers headers = producer.history().get(0).headers();
+		assertEquals("VERIFY_EMAIL", header(headers, EventHeaders.EVENT_TYPE));
+		assertEquals("realm-id", header(headers, EventHeaders.REALM_ID));
+		assertEquals("account", header(headers, EventHeaders.CLIENT_ID));
+		assertEquals("1", header(headers, EventHeaders.SCHEMA_VERSION));
+		assertEquals("text/plain", header(headers, EventHeaders.CONTENT_TYPE));
+		assertEquals(1700000000000L,
+				ByteBuffer.wrap(headers.lastHeader(EventHeaders.EVENT_TIMESTAMP).value()).getLong());
+	}
+
+	private static String header(Headers headers, String name) {
+		return new String(headers.lastHeader(name).value(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void shouldTakeBrokeredRegistrationNamesFromAuthenticationSession() throws Exception {
+		RealmModel realm = mock(RealmModel.class);
+		when(realm.getId()).thenReturn("realm-id");
+		AuthenticationSessionModel authSession = mock(AuthenticationSessionModel.class);
+		when(authSession.getRealm()).thenReturn(realm);
+		when(authSession.getAuthNote("BROKERED_CONTEXT"))
+				.thenReturn("{\"firstName\":\"Jane\",\"lastName\":\"Roe\",\"email\":\"jane@example.com\"}");
+		KeycloakContext context = mock(KeycloakContext.class);
+		when(context.getAuthenticationSession()).thenReturn(authSession);
+		when(mockSession.getContext()).thenReturn(context);
+
+		Event event = mock(Event.class);
+		when(event.getType()).thenReturn(EventType.REGISTER);
+		when(event.getRealmId()).thenReturn("realm-id");
+		when(event.getUserId()).thenReturn("935edd54-9d81-48fb-b114-8c5144367630");
+		when(event.getDetails()).thenReturn(Map.of("identity_provider", "google"));
+
+		MockProducer<?, ?> producer = getProducerUsingReflection();
+
+		listener.onEvent(event);
+
+		assertEquals(1, producer.history().size());
+		assertTrue(producer.history().get(0).value().toString().contains("Jane"));
+		assertFalse(producer.history().get(0).value().toString().contains("John"));
+		verify(mockUsers, never()).getUserById(any(), anyString());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldPublishSnapshotAndTombstoneWhenSnapshotTopicIsSet() throws Exception {
+		MockProducer<String, String> producer = (MockProducer<String, String>) getProducerUsingReflection();
+		listener.publishSnapshots(new UserSnapshotPublisher(producer, "user_snapshot", null, new ObjectMapper(), 10));
+		Event register = mock(Event.class);
+		when(register.getType()).thenReturn(EventType.REGISTER);
+		when(register.getUserId()).thenReturn("935edd54-9d81-48fb-b114-8c5144367630");
+		when(register.getDetails()).thenReturn(Map.of("first_name", "John", "email", "john.doe@example.com"));
+		AdminEvent delete = new AdminEvent();
+		delete.setResourceType(ResourceType.USER);
+		delete.setOperationType(OperationType.DELETE);
+		delete.setResourcePath("users/935edd54-9d81-48fb-b114-8c5144367630");
+
+		listener.onEvent(register);
+		listener.onEvent(delete, false);
+
+		List<ProducerRecord<String, String>> snapshots = producer.history().stream()
+				.filter(record -> record.topic().equals("user_snapshot")).collect(Collectors.toList());
+		assertEquals(2, snapshots.size());
+		assertTrue(snapshots.get(0).value().contains("John"));
+		assertEquals("935edd54-9d81-48fb-b114-8c5144367630", snapshots.get(1).key());
+		assertNull(snapshots.get(1).value());
+	}
+
 	@Test
 	void shouldDoNothingWhenTypeIsNotDefined() throws Exception {
 		Event event = new Event();
@@ -82,6 +192,75 @@ class KafkaEventListenerProviderTests {
 		assertEquals(1, producer.history().size());
 	}
 
+	@Test
+	void shouldPropagateTraceContextInRecordHeaders() throws Exception {
+		SpanContext parent = SpanContext.create("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7",
+				TraceFlags.getSampled(), TraceState.getDefault());
+		MockProducer<?, ?> producer = getProducerUsingReflection();
+
+		try (Scope ignored = Span.wrap(parent).makeCurrent()) {
+			listener.onEvent(new AdminEvent(), false);
+		}
+
+		byte[] traceparent = producer.history().get(0).headers().lastHeader("traceparent").value();
+		assertTrue(new String(traceparent).contains("4bf92f3577b34da6a3ce929d0e0e4736"));
+	}
+
+	@Test
+	void shouldRouteAdminEventsThroughBulkLane() throws Exception {
+		MockProducer<String, String> bulkProducer = new MockProducer<>(true, new StringSerializer(),
+				new StringSerializer());
+		BulkLane lane = new BulkLane(bulkProducer, 10, BulkLane.ShedPolicy.DROP_NEWEST);
+		listener.useBulkLane(lane, Set.of("admin-events"));
+		MockProducer<?, ?> producer = getProducerUsingReflection();
+
+		listener.onEvent(new AdminEvent(), false);
+		lane.start();
+		lane.close(Duration.ofSeconds(5));
+
+		assertTrue(producer.history().isEmpty());
+		assertEquals(1, bulkProducer.history().size());
+		assertEquals("admin-events", bulkProducer.history().get(0).topic());
+	}
+
+	@Test
+	void shouldSendEventsOfIsolatedRealmsToTheirCluster() throws Exception {
+		MockProducer<String, String> clusterProducer = new MockProducer<>(true, new StringSerializer(),
+				new StringSerializer());
+		listener.useClusters(new ProducerPool((clientId, servers, properties) -> clusterProducer, "", Map.of(),
+				List.of(new ProducerPool.Cluster("big", "big:9092", Set.of("big-realm"), Map.of())),
+				realmId -> null));
+		MockProducer<?, ?> producer = getProducerUsingReflection();
+		AdminEvent isolated = new AdminEvent();
+		isolated.setRealmId("big-realm");
+		AdminEvent other = new AdminEvent();
+		other.setRealmId("small-realm");
+
+		listener.onEvent(isolated, false);
+		listener.onEvent(other, false);
+
+		assertEquals(1, clusterProducer.history().size());
+		assertEquals(1, producer.history().size());
+	}
+
+	@Test
+	void shouldHandOffEventsToPublisherThread() throws Exception {
+		listener.useHandoff(16, RingBuffer.WaitStrategy.SLEEPING, RingBuffer.OverflowStrategy.BLOCK, 1000);
+		MockProducer<?, ?> producer = getProducerUsingReflection();
+		Event event = new Event();
+		event.setType(EventType.REGISTER);
+		event.setUserId("935edd54-9d81-48fb-b114-8c5144367630");
+		event.setDetails(Map.of("first_name", "John", "email", "john.doe@example.com"));
+
+		listener.onEvent(event);
+		listener.onEvent(new AdminEvent(), false);
+		listener.shutdown();
+
+		assertEquals(2, producer.history().size());
+		assertEquals("create_user", producer.history().get(0).topic());
+		assertEquals("admin-events", producer.history().get(1).topic());
+	}
+
 	@Test
 	void shouldDoNothingWhenTopicAdminEventsIsNull() throws Exception {
 		Field field = listener.getClass().getDeclaredField("topicAdminEvents");
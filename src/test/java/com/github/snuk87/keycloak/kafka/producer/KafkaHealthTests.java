@@ -0,0 +1,97 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.snuk87.keycloak.kafka.KafkaHealth;
+import com.github.snuk87.keycloak.kafka.SendTracker;
+import org.junit.jupiter.api.Test;
+
+class KafkaHealthTests {
+
+	private final KafkaHealth health = new KafkaHealth(30000, 0.1, 20, 30000, 1000, 60000, 300000);
+
+	@Test
+	void shouldBeReadyWhenPipelineIsHealthy() {
+		Map<String, Object> result = health.readiness(producer("AVAILABLE", new SendTracker(60000)),
+				consumer(true, 10L, System.currentTimeMillis()));
+
+		assertEquals(KafkaHealth.UP, result.get("status"));
+	}
+
+	@Test
+	void shouldNotBeReadyWhenSendsFailOrStall() {
+		SendTracker sends = new SendTracker(60000);
+		for (int i = 0; i < 30; i++) {
+			sends.complete(sends.begin(), i % 2 == 0);
+		}
+
+		Map<String, Object> result = health.readiness(producer("AVAILABLE", sends), null);
+
+		assertEquals(KafkaHealth.DOWN, result.get("status"));
+		assertEquals(KafkaHealth.DOWN, statusOf(result, "kafka-producer-errors"));
+		assertEquals(KafkaHealth.UP, statusOf(result, "kafka-producer-connectivity"));
+	}
+
+	@Test
+	void shouldNotBeReadyWhenPeerDigestConsumerDied() {
+		Map<String, Object> producer = producer("AVAILABLE", new SendTracker(60000));
+		Map<String, Object> peer = new HashMap<>();
+		peer.put("alive", false);
+		peer.put("lastFailure", "org.apache.kafka.common.KafkaException: Failed to construct kafka consumer");
+		producer.put("peerDigests", peer);
+
+		Map<String, Object> result = health.readiness(producer, null);
+
+		assertEquals(KafkaHealth.DOWN, result.get("status"));
+		assertEquals(KafkaHealth.DOWN, statusOf(result, "kafka-reconcile-peer-consumer"));
+	}
+
+	@Test
+	void shouldNotBeReadyWhenConsumerLagsOrStopsPolling() {
+		Map<String, Object> consumer = consumer(true, 5000L, System.currentTimeMillis() - 120000);
+
+		Map<String, Object> result = health.readiness(null, consumer);
+
+		assertEquals(KafkaHealth.DOWN, statusOf(result, "kafka-consumer-lag"));
+		assertEquals(KafkaHealth.DOWN, statusOf(result, "kafka-consumer-poll"));
+		assertEquals(KafkaHealth.UP, statusOf(result, "kafka-consumer-thread"));
+	}
+
+	@Test
+	void shouldNotBeLiveWhenConsumerThreadIsDead() {
+		Map<String, Object> consumer = consumer(false, 0L, System.currentTimeMillis());
+
+		assertEquals(KafkaHealth.DOWN, health.liveness(consumer).get("status"));
+		assertEquals(KafkaHealth.UP, health.liveness(null).get("status"));
+	}
+
+	private static Map<String, Object> producer(String state, SendTracker sends) {
+		Map<String, Object> stats = new HashMap<>();
+		stats.put("state", state);
+		stats.put("buffered", 0);
+		stats.put("oldestBufferedAgeMs", 0L);
+		stats.putAll(sends.stats());
+		return stats;
+	}
+
+	private static Map<String, Object> consumer(boolean alive, long lag, long lastPoll) {
+		Map<String, Object> stats = new HashMap<>();
+		stats.put("paused", false);
+		stats.put("lag", Map.of("delete_user-0", lag));
+		stats.put("lastPollTimestamp", lastPoll);
+		stats.put("lastCommitTimestamp", lastPoll);
+		stats.put("supervisor", Map.of("alive", alive, "restarts", 0L, "lastFailureTimestamp", 0L, "uptimeMs", 1000L));
+		return stats;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object statusOf(Map<String, Object> result, String name) {
+		return ((List<Map<String, Object>>) result.get("checks")).stream()
+				.filter(check -> name.equals(check.get("name")))
+				.findFirst().orElseThrow().get("status");
+	}
+}
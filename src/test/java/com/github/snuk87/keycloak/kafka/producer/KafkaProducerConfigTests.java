@@ -2,10 +2,13 @@ package com.github.snuk87.keycloak.kafka.producer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Map;
 
 import com.github.snuk87.keycloak.kafka.KafkaProducerConfig;
+import org.apache.kafka.common.config.ConfigException;
 import org.junit.jupiter.api.Test;
 
 import org.keycloak.Config.SystemPropertiesConfigProvider;
@@ -24,4 +27,44 @@ class KafkaProducerConfigTests {
 		assertEquals("1000", config.get("retry.backoff.ms"));
         assertNull(config.get("keycloak.foo"));
 	}
+
+	@Test
+	void shouldPassThroughAndCoercePrefixedEnvironmentVariables() {
+		Map<String, Object> config = KafkaProducerConfig.initProducer(new SystemPropertiesConfigProvider().scope(),
+				Map.of("KAFKA_PRODUCER_SEND_BUFFER_BYTES", "262144",
+						"KAFKA_PRODUCER_PARTITIONER_ADAPTIVE_PARTITIONING_ENABLE", "false"));
+
+		assertEquals(262144, config.get("send.buffer.bytes"));
+		assertEquals(false, config.get("partitioner.adaptive.partitioning.enable"));
+	}
+
+	@Test
+	void shouldRejectUnknownPassThroughProperty() {
+		ConfigException e = assertThrows(ConfigException.class, () -> KafkaProducerConfig.initProducer(
+				new SystemPropertiesConfigProvider().scope(), Map.of("KAFKA_PRODUCER_FETCH_MAX_WAIT_MS", "500")));
+
+		assertTrue(e.getMessage().contains("KAFKA_PRODUCER_FETCH_MAX_WAIT_MS"));
+	}
+
+	@Test
+	void shouldRejectInvalidPassThroughValue() {
+		assertThrows(ConfigException.class, () -> KafkaProducerConfig.initProducer(
+				new SystemPropertiesConfigProvider().scope(), Map.of("KAFKA_PRODUCER_LINGER_MS", "soon")));
+	}
+
+	@Test
+	void shouldIgnoreInvalidTuningFileValues() {
+		Map<String, Object> config = KafkaProducerConfig.validValues(
+				Map.of("linger.ms", "20", "batch.size", "-1", "fetch.max.wait.ms", "500"), "tuning file");
+
+		assertEquals(Map.of("linger.ms", 20L), config);
+	}
+
+	@Test
+	void shouldRejectRuntimeChangeOfNonTuningProperty() {
+		ConfigException e = assertThrows(ConfigException.class, () -> KafkaProducerConfig.validate(
+				Map.of("linger.ms", "20", "bootstrap.servers", "elsewhere:9092"), "producer reconfiguration"));
+
+		assertTrue(e.getMessage().contains("bootstrap.servers"));
+	}
 }
@@ -0,0 +1,76 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.snuk87.keycloak.kafka.ProducerAutotuner;
+import com.github.snuk87.keycloak.kafka.ProducerAutotuner.Sample;
+import com.github.snuk87.keycloak.kafka.SendTracker;
+import org.junit.jupiter.api.Test;
+
+class ProducerAutotunerTests {
+
+	private final AtomicReference<Map<String, Object>> applied = new AtomicReference<>();
+
+	@Test
+	void shouldShortenLingerWhenP99IsAboveTarget() {
+		ProducerAutotuner tuner = tuner(40, 16384);
+
+		assertTrue(tuner.adjust(new Sample(1000, 500, 60, 4000)));
+
+		assertEquals(20L, applied.get().get("linger.ms"));
+		assertEquals(16384, applied.get().get("batch.size"));
+	}
+
+	@Test
+	void shouldLengthenLingerWithinHeadroomUnderLoad() {
+		ProducerAutotuner tuner = tuner(10, 16384);
+
+		assertTrue(tuner.adjust(new Sample(10000, 2000, 8, 4000)));
+
+		assertEquals(16L, applied.get().get("linger.ms"));
+	}
+
+	@Test
+	void shouldDropLingerAndKeepSettingsAtTrickle() {
+		ProducerAutotuner tuner = tuner(20, 16384);
+
+		assertTrue(tuner.adjust(new Sample(5, 0.1, 25, 300)));
+		assertEquals(0L, applied.get().get("linger.ms"));
+
+		applied.set(null);
+		assertFalse(tuner.adjust(new Sample(5, 0.1, 1, 300)));
+		assertNull(applied.get());
+	}
+
+	@Test
+	void shouldGrowBatchSizeWhenBatchesFillUp() {
+		ProducerAutotuner tuner = tuner(5, 16384);
+
+		assertTrue(tuner.adjust(new Sample(10000, 5000, 12, 16000)));
+
+		assertEquals(32768, applied.get().get("batch.size"));
+		assertEquals(5L, applied.get().get("linger.ms"));
+	}
+
+	@Test
+	void shouldCountLatenciesOfSuccessfulSendsUntilDrained() {
+		SendTracker sends = new SendTracker(60000);
+		sends.complete(sends.begin(), true);
+		sends.complete(sends.begin(), false);
+
+		assertEquals(1, Arrays.stream(sends.drainLatencies()).sum());
+		assertEquals(0, Arrays.stream(sends.drainLatencies()).sum());
+	}
+
+	private ProducerAutotuner tuner(long lingerMs, int batchSize) {
+		return new ProducerAutotuner(() -> null, new SendTracker(60000), () -> true, applied::set, 20, 100, 0, 100,
+				16384, 1048576, lingerMs, batchSize);
+	}
+}
@@ -0,0 +1,145 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.snuk87.keycloak.kafka.ProducerAvailability;
+import com.github.snuk87.keycloak.kafka.ProducerAvailability.DegradedPolicy;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+class ProducerAvailabilityTests {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldBufferWhileUnreachableAndReplayOnceAvailable() throws Exception {
+		Producer<String, String> producer = mock(Producer.class);
+		when(producer.partitionsFor("create_user"))
+				.thenThrow(new TimeoutException("no brokers"))
+				.thenReturn(List.of());
+		ProducerAvailability availability = new ProducerAvailability(() -> producer, List.of("create_user"), 200,
+				20, 100, DegradedPolicy.BUFFER, 10);
+
+		availability.start();
+		assertFalse(availability.isAvailable());
+		availability.hold(new ProducerRecord<>("create_user", "user-1", "{}"));
+
+		for (int i = 0; i < 100 && !availability.isAvailable(); i++) {
+			Thread.sleep(20);
+		}
+
+		assertTrue(availability.isAvailable());
+		verify(producer).send(argThat(record -> "user-1".equals(record.key())), any());
+		assertEquals(0, availability.stats().get("buffered"));
+		availability.close();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldStayUnavailableUntilFailedReplayIsRetried() throws Exception {
+		Producer<String, String> producer = mock(Producer.class);
+		when(producer.partitionsFor("create_user")).thenReturn(List.of());
+		AtomicInteger sends = new AtomicInteger();
+		when(producer.send(any(), any())).thenAnswer(invocation -> {
+			Callback callback = invocation.getArgument(1);
+			callback.onCompletion(null, sends.incrementAndGet() == 1 ? new TimeoutException("expired") : null);
+			return null;
+		});
+		ProducerAvailability availability = new ProducerAvailability(() -> producer, List.of("create_user"), 200,
+				50, 100, DegradedPolicy.BUFFER, 10);
+		availability.hold(new ProducerRecord<>("create_user", "user-1", "{}"));
+
+		availability.start();
+		for (int i = 0; i < 100 && sends.get() < 1; i++) {
+			Thread.sleep(5);
+		}
+		assertFalse(availability.isAvailable());
+		for (int i = 0; i < 100 && !availability.isAvailable(); i++) {
+			Thread.sleep(20);
+		}
+
+		assertTrue(availability.isAvailable());
+		assertEquals(2, sends.get());
+		assertEquals(0, availability.stats().get("buffered"));
+		availability.close();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldNotHoldLockWhileSendingAndBufferFailedSend() throws Exception {
+		Producer<String, String> producer = mock(Producer.class);
+		when(producer.partitionsFor("create_user")).thenReturn(List.of())
+				.thenThrow(new TimeoutException("no brokers"));
+		AtomicBoolean callbackCompleted = new AtomicBoolean();
+		when(producer.send(any(), any())).thenAnswer(invocation -> {
+			// the failure callback runs on the network thread while the sender is still blocked in send
+			Callback callback = invocation.getArgument(1);
+			Thread network = new Thread(() -> callback.onCompletion(null, new TimeoutException("expired")));
+			network.start();
+			network.join(2000);
+			callbackCompleted.set(!network.isAlive());
+			return null;
+		});
+		ProducerAvailability availability = new ProducerAvailability(() -> producer, List.of("create_user"), 200,
+				1000, 1000, DegradedPolicy.BUFFER, 10);
+		availability.start();
+		for (int i = 0; i < 100 && !availability.isAvailable(); i++) {
+			Thread.sleep(10);
+		}
+
+		availability.hold(new ProducerRecord<>("create_user", "user-1", "{}"));
+
+		assertTrue(callbackCompleted.get());
+		assertFalse(availability.isAvailable());
+		assertEquals(1, availability.stats().get("buffered"));
+		availability.close();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldBufferRecordWhenSendThrows() throws Exception {
+		Producer<String, String> producer = mock(Producer.class);
+		when(producer.partitionsFor("create_user")).thenReturn(List.of())
+				.thenThrow(new TimeoutException("no brokers"));
+		when(producer.send(any(), any())).thenThrow(new KafkaException("producer closed"));
+		ProducerAvailability availability = new ProducerAvailability(() -> producer, List.of("create_user"), 200,
+				1000, 1000, DegradedPolicy.BUFFER, 10);
+		availability.start();
+		for (int i = 0; i < 100 && !availability.isAvailable(); i++) {
+			Thread.sleep(10);
+		}
+
+		availability.hold(new ProducerRecord<>("create_user", "user-1", "{}"));
+
+		assertFalse(availability.isAvailable());
+		assertEquals(1, availability.stats().get("buffered"));
+		assertEquals(1L, availability.stats().get("sendFailures"));
+		availability.close();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldShedWhenPolicyIsShed() {
+		Producer<String, String> producer = mock(Producer.class);
+		when(producer.partitionsFor(anyString())).thenThrow(new TimeoutException("no brokers"));
+		ProducerAvailability availability = new ProducerAvailability(() -> producer, List.of("create_user"), 100,
+				1000, 1000, DegradedPolicy.SHED, 10);
+
+		availability.hold(new ProducerRecord<>("create_user", "user-1", "{}"));
+
+		assertEquals(0, availability.stats().get("buffered"));
+		assertEquals(1L, availability.stats().get("shed"));
+		verify(producer, never()).send(any(), any());
+		availability.close();
+	}
+}
@@ -0,0 +1,98 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.snuk87.keycloak.kafka.ProducerPool;
+import com.github.snuk87.keycloak.kafka.ProducerPool.Cluster;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.keycloak.Config.SystemPropertiesConfigProvider;
+
+class ProducerPoolTests {
+
+	private final List<String> created = new ArrayList<>();
+	private final List<Map<String, Object>> createdWith = new ArrayList<>();
+
+	@Test
+	void shouldRouteMappedRealmsByNameOrIdToOneLazilyCreatedProducer() {
+		ProducerPool pool = new ProducerPool((clientId, servers, properties) -> {
+			created.add(clientId + "@" + servers);
+			createdWith.add(properties);
+			return new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+		}, "keycloak", Map.of("bootstrap.servers", "main:9092", "acks", "all"),
+				List.of(new Cluster("big", "big:9092", Set.of("big-realm", "realm-id-2"),
+						Map.of("buffer.memory", 1048576L))),
+				realmId -> "realm-id-1".equals(realmId) ? "big-realm" : null);
+
+		Producer<String, String> producer = pool.forRealm("realm-id-1");
+		assertNotNull(producer);
+		assertSame(producer, pool.forRealm("realm-id-2"));
+		assertNull(pool.forRealm("small-realm"));
+		assertNull(pool.forRealm(null));
+		assertEquals(List.of(), created);
+		assertEquals(false, ((Map<?, ?>) pool.stats().get("big")).get("created"));
+
+		producer.send(new ProducerRecord<>("events", "{}"));
+
+		assertEquals(List.of("keycloak-big@big:9092"), created);
+		assertFalse(createdWith.get(0).containsKey("bootstrap.servers"));
+		assertEquals("all", createdWith.get(0).get("acks"));
+		assertEquals(1048576L, createdWith.get(0).get("buffer.memory"));
+		pool.close(Duration.ofSeconds(1));
+	}
+
+	@Test
+	void shouldRejectRealmMappedToTwoClusters() {
+		assertThrows(IllegalArgumentException.class, () -> new ProducerPool((clientId, servers, properties) -> null,
+				"keycloak", Map.of(), List.of(new Cluster("a", "a:9092", Set.of("realm"), Map.of()),
+						new Cluster("b", "b:9092", Set.of("realm"), Map.of())), realmId -> null));
+	}
+
+	@Test
+	void shouldReadClustersFromEnvironment() {
+		List<Cluster> clusters = ProducerPool.clusters(new SystemPropertiesConfigProvider().scope(), Map.of(
+				"KAFKA_CLUSTERS", "big-tenant",
+				"KAFKA_CLUSTER_BIG_TENANT_BOOTSTRAP_SERVERS", "big:9092",
+				"KAFKA_CLUSTER_BIG_TENANT_REALMS", "tenant-a, tenant-b",
+				"KAFKA_CLUSTER_BIG_TENANT_PRODUCER_BUFFER_MEMORY", "1048576"));
+
+		assertEquals(1, clusters.size());
+		assertEquals("big:9092", clusters.get(0).bootstrapServers());
+		assertEquals(Set.of("tenant-a", "tenant-b"), clusters.get(0).realms());
+		assertEquals(1048576L, clusters.get(0).properties().get("buffer.memory"));
+	}
+
+	@Test
+	void shouldReadClusterProducerPropertiesFromSpiOptions() {
+		System.setProperty("keycloak.clusters", "big-tenant");
+		System.setProperty("keycloak.cluster-big-tenant-bootstrap-servers", "big:9092");
+		System.setProperty("keycloak.cluster-big-tenant-realms", "tenant-a");
+		System.setProperty("keycloak.cluster-big-tenant-producer-linger-ms", "20");
+		try {
+			List<Cluster> clusters = ProducerPool.clusters(new SystemPropertiesConfigProvider().scope(), Map.of());
+
+			assertEquals(1, clusters.size());
+			assertEquals("big:9092", clusters.get(0).bootstrapServers());
+			assertEquals(20L, clusters.get(0).properties().get("linger.ms"));
+		} finally {
+			System.clearProperty("keycloak.clusters");
+			System.clearProperty("keycloak.cluster-big-tenant-bootstrap-servers");
+			System.clearProperty("keycloak.cluster-big-tenant-realms");
+			System.clearProperty("keycloak.cluster-big-tenant-producer-linger-ms");
+		}
+	}
+}
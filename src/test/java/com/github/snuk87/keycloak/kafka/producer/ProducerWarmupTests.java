@@ -0,0 +1,56 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.github.snuk87.keycloak.kafka.ProducerWarmup;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.errors.InterruptException;
+import org.junit.jupiter.api.Test;
+
+class ProducerWarmupTests {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldPrefetchAllConfiguredTopics() throws Exception {
+		Producer<String, String> producer = mock(Producer.class);
+		when(producer.partitionsFor(anyString())).thenReturn(List.of());
+
+		ProducerWarmup warmup = new ProducerWarmup(() -> producer,
+				Arrays.asList("create_user", "verify_email", null, "admin-events"), 1000);
+
+		assertTrue(warmup.start().get(2, TimeUnit.SECONDS));
+		verify(producer).partitionsFor("create_user");
+		verify(producer).partitionsFor("verify_email");
+		verify(producer).partitionsFor("admin-events");
+		verifyNoMoreInteractions(producer);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldNotBlockWhenBrokerIsUnavailable() throws Exception {
+		Producer<String, String> producer = mock(Producer.class);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		when(producer.partitionsFor(anyString())).thenAnswer(invocation -> {
+			try {
+				Thread.sleep(5000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+				throw new InterruptException(e);
+			}
+			return List.of();
+		});
+
+		ProducerWarmup warmup = new ProducerWarmup(() -> producer, List.of("create_user", "verify_email"), 100);
+
+		assertFalse(warmup.start().get(2, TimeUnit.SECONDS));
+		assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+		verify(producer, never()).partitionsFor("verify_email");
+	}
+}
@@ -0,0 +1,36 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.Future;
+
+import com.github.snuk87.keycloak.kafka.ReconfigurableProducer;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+class ReconfigurableProducerTests {
+
+	@Test
+	void shouldCompletePendingSendsOfOldProducerOnSwap() throws Exception {
+		MockProducer<String, String> old = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+		MockProducer<String, String> replacement = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+		ReconfigurableProducer producer = new ReconfigurableProducer(old);
+
+		Future<RecordMetadata> pending = producer.send(new ProducerRecord<>("events", "key", "before"));
+		old.completeNext();
+		producer.swap(replacement, Duration.ofSeconds(1));
+		producer.send(new ProducerRecord<>("events", "key", "after"));
+
+		assertTrue(pending.isDone());
+		assertTrue(old.closed());
+		assertSame(replacement, producer.getDelegate());
+		assertEquals(1, old.history().size());
+		assertEquals("after", replacement.history().get(0).value());
+	}
+}
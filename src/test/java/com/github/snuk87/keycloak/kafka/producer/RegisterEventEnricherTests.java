@@ -0,0 +1,89 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snuk87.keycloak.kafka.RegisterEventEnricher;
+import com.subOne.kecyloak_dto.UserInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.Event;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+
+class RegisterEventEnricherTests {
+
+	private static final String USER_ID = "935edd54-9d81-48fb-b114-8c5144367630";
+
+	private UserProvider users;
+	private RealmModel realm;
+	private RegisterEventEnricher enricher;
+	private final BlockingQueue<UserInfo> published = new ArrayBlockingQueue<>(10);
+
+	@BeforeEach
+	void setUp() {
+		realm = mock(RealmModel.class);
+		RealmProvider realms = mock(RealmProvider.class);
+		when(realms.getRealm("realm-id")).thenReturn(realm);
+		users = mock(UserProvider.class);
+
+		KeycloakSession session = mock(KeycloakSession.class);
+		when(session.realms()).thenReturn(realms);
+		when(session.users()).thenReturn(users);
+		when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+		KeycloakSessionFactory sessionFactory = mock(KeycloakSessionFactory.class);
+		when(sessionFactory.create()).thenReturn(session);
+		when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+
+		enricher = new RegisterEventEnricher(sessionFactory, new ObjectMapper(), 10);
+	}
+
+	@AfterEach
+	void tearDown() {
+		enricher.close();
+	}
+
+	@Test
+	void shouldRetryUntilRegisteredUserIsCommitted() throws Exception {
+		UserModel user = mock(UserModel.class);
+		when(user.getFirstName()).thenReturn("Jane");
+		long visibleAt = System.currentTimeMillis() + 250;
+		when(users.getUserById(realm, USER_ID))
+				.thenAnswer(invocation -> System.currentTimeMillis() >= visibleAt ? user : null);
+
+		enricher.defer(event(), published::add);
+
+		String info = new ObjectMapper().writeValueAsString(published.poll(5, TimeUnit.SECONDS));
+		assertTrue(info.contains("Jane"), info);
+		assertTrue(info.contains("jane@example.com"), info);
+	}
+
+	@Test
+	void shouldDropEventWhenUserNeverAppears() throws Exception {
+		enricher.defer(event(), published::add);
+
+		assertNull(published.poll(4, TimeUnit.SECONDS));
+		verify(users, atLeast(2)).getUserById(realm, USER_ID);
+	}
+
+	private static Event event() {
+		Event event = new Event();
+		event.setRealmId("realm-id");
+		event.setUserId(USER_ID);
+		event.setDetails(Map.of("identity_provider", "google", "email", "jane@example.com"));
+		return event;
+	}
+}
@@ -0,0 +1,88 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.github.snuk87.keycloak.kafka.RingBuffer;
+import org.junit.jupiter.api.Test;
+
+class RingBufferTests {
+
+	private static final class Slot {
+		int producer;
+		int value;
+	}
+
+	private static final BiConsumer<Slot, int[]> TRANSLATOR = (slot, entry) -> {
+		slot.producer = entry[0];
+		slot.value = entry[1];
+	};
+
+	@Test
+	void shouldDeliverEveryEntryInOrderPerProducer() throws Exception {
+		int producers = 4;
+		int perProducer = 20_000;
+		RingBuffer<Slot> ring = new RingBuffer<>(64, Slot::new, RingBuffer.WaitStrategy.YIELDING,
+				RingBuffer.OverflowStrategy.BLOCK, 10_000);
+		Map<Integer, List<Integer>> received = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(producers * perProducer);
+		ring.start("test-consumer", (slot, sequence, endOfBatch) -> {
+			received.computeIfAbsent(slot.producer, p -> new ArrayList<>()).add(slot.value);
+			done.countDown();
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(producers);
+		for (int p = 0; p < producers; p++) {
+			int producer = p;
+			executor.execute(() -> {
+				for (int i = 0; i < perProducer; i++) {
+					ring.publish(TRANSLATOR, new int[] { producer, i });
+				}
+			});
+		}
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		executor.shutdown();
+		ring.close(1000);
+		for (int p = 0; p < producers; p++) {
+			List<Integer> values = received.get(p);
+			assertEquals(perProducer, values.size());
+			for (int i = 0; i < perProducer; i++) {
+				assertEquals(i, values.get(i));
+			}
+		}
+		assertEquals(0L, ring.stats().get("dropped"));
+	}
+
+	@Test
+	void shouldDropWhenFull() {
+		RingBuffer<Slot> ring = new RingBuffer<>(4, Slot::new, RingBuffer.WaitStrategy.SLEEPING,
+				RingBuffer.OverflowStrategy.DROP, 0);
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ring.publish(TRANSLATOR, new int[] { 0, i }));
+		}
+		assertFalse(ring.publish(TRANSLATOR, new int[] { 0, 4 }));
+
+		assertEquals(4L, ring.stats().get("occupancy"));
+		assertEquals(1L, ring.stats().get("dropped"));
+	}
+
+	@Test
+	void shouldRejectSizeThatIsNotAPowerOfTwo() {
+		assertThrows(IllegalArgumentException.class, () -> new RingBuffer<>(100, Slot::new,
+				RingBuffer.WaitStrategy.SLEEPING, RingBuffer.OverflowStrategy.DROP, 0));
+	}
+}
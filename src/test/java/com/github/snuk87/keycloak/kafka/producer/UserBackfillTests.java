@@ -0,0 +1,175 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snuk87.keycloak.kafka.DeletionScheduler;
+import com.github.snuk87.keycloak.kafka.UserBackfill;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+
+class UserBackfillTests {
+
+	private static final int USERS = 25;
+
+	private KeycloakSessionFactory sessionFactory;
+	private RealmModel realm;
+	private MockProducer<String, String> producer;
+	private final List<UserModel> users = new ArrayList<>();
+	private volatile String slowUserId;
+
+	@BeforeEach
+	void setUp() {
+		for (int i = 0; i < USERS; i++) {
+			UserModel user = mock(UserModel.class);
+			when(user.getId()).thenReturn(new UUID(0, i).toString());
+			when(user.getFirstName()).thenReturn("User" + i);
+			users.add(user);
+		}
+		realm = mock(RealmModel.class);
+		RealmProvider realms = mock(RealmProvider.class);
+		when(realms.getRealmByName("test-realm")).thenReturn(realm);
+		UserProvider userProvider = mock(UserProvider.class);
+		when(userProvider.getUsersCount(realm)).thenReturn(USERS);
+		when(userProvider.getUserById(eq(realm), anyString())).thenAnswer(invocation -> {
+			if (invocation.getArgument(1).equals(slowUserId)) {
+				Thread.sleep(300);
+			}
+			return users.stream().filter(user -> user.getId().equals(invocation.getArgument(1))).findFirst()
+					.orElse(null);
+		});
+
+		KeycloakSession session = mock(KeycloakSession.class);
+		when(session.realms()).thenReturn(realms);
+		when(session.users()).thenReturn(userProvider);
+		when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+		sessionFactory = mock(KeycloakSessionFactory.class);
+		when(sessionFactory.create()).thenReturn(session);
+		when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+
+		producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+	}
+
+	@Test
+	void shouldResumeFromCheckpointAndClearItWhenComplete() throws Exception {
+		when(realm.getAttribute("kafka.backfill.checkpoint")).thenReturn(new UUID(0, 9).toString());
+		UserBackfill backfill = backfill(producer, 2);
+
+		assertTrue(backfill.start("test-realm"));
+		awaitCompletion(backfill);
+
+		List<String> keys = producer.history().stream().map(ProducerRecord::key).sorted().collect(Collectors.toList());
+		assertEquals(15, keys.size());
+		assertEquals(new UUID(0, 10).toString(), keys.get(0));
+		assertEquals(new UUID(0, 24).toString(), backfill.status().get("checkpoint"));
+		verify(realm).removeAttribute("kafka.backfill.checkpoint");
+		assertTrue(producer.closed());
+	}
+
+	@Test
+	void shouldStopStartingPagesAndNotAdvanceCheckpointWhenSendsFail() throws Exception {
+		MockProducer<String, String> failing = new MockProducer<>(false, new StringSerializer(), new StringSerializer()) {
+			@Override
+			public synchronized void flush() {
+				while (errorNext(new RuntimeException("broker unavailable"))) {
+					// fail every pending send
+				}
+			}
+		};
+		UserBackfill backfill = backfill(failing, 1);
+
+		assertTrue(backfill.start("test-realm"));
+		awaitCompletion(backfill);
+
+		assertNull(backfill.status().get("checkpoint"));
+		assertEquals(10, failing.history().size());
+		assertEquals(10L, backfill.status().get("failed"));
+		verify(realm, never()).setAttribute(eq("kafka.backfill.checkpoint"), anyString());
+		verify(realm, never()).removeAttribute("kafka.backfill.checkpoint");
+	}
+
+	@Test
+	void shouldCompleteWhenLaterPageFinishesBeforeFirstPage() throws Exception {
+		slowUserId = new UUID(0, 0).toString();
+		UserBackfill backfill = backfill(producer, 2);
+
+		assertTrue(backfill.start("test-realm"));
+		awaitCompletion(backfill);
+
+		assertEquals(USERS, producer.history().size());
+		assertEquals(0L, backfill.status().get("failed"));
+		assertEquals(new UUID(0, 24).toString(), backfill.status().get("checkpoint"));
+		verify(realm).removeAttribute("kafka.backfill.checkpoint");
+	}
+
+	@Test
+	void shouldSkipUsersWithoutUuidId() throws Exception {
+		UserModel federated = mock(UserModel.class);
+		when(federated.getId()).thenReturn("f:ldap:jdoe");
+		users.add(federated);
+		UserBackfill backfill = backfill(producer, 2);
+
+		assertTrue(backfill.start("test-realm"));
+		awaitCompletion(backfill);
+
+		assertEquals(USERS, producer.history().size());
+		assertEquals(1L, backfill.status().get("skipped"));
+		verify(realm).removeAttribute("kafka.backfill.checkpoint");
+	}
+
+	@Test
+	void shouldStopAllPagesAndCloseProducerLastWhenPageFails() throws Exception {
+		MockProducer<String, String> failing = new MockProducer<>(true, new StringSerializer(), new StringSerializer()) {
+			@Override
+			public synchronized void flush() {
+				if (history().size() > 10) {
+					throw new IllegalStateException("producer fenced");
+				}
+			}
+		};
+		UserBackfill backfill = backfill(failing, 1);
+
+		assertTrue(backfill.start("test-realm"));
+		awaitCompletion(backfill);
+
+		assertEquals(20, failing.history().size());
+		assertEquals(new UUID(0, 9).toString(), backfill.status().get("checkpoint"));
+		verify(realm, never()).removeAttribute("kafka.backfill.checkpoint");
+		assertTrue(failing.closed());
+	}
+
+	private UserBackfill backfill(MockProducer<String, String> target, int parallelism) {
+		UserBackfill backfill = new UserBackfill(sessionFactory, realmId -> target, "create_user", new ObjectMapper(),
+				parallelism, 10, DeletionScheduler.unlimited());
+		backfill.usePages((session, pageRealm, afterId, max) -> users.stream().map(UserModel::getId)
+				.filter(id -> afterId == null || id.compareTo(afterId) > 0).sorted().limit(max)
+				.collect(Collectors.toList()));
+		return backfill;
+	}
+
+	private static void awaitCompletion(UserBackfill backfill) throws InterruptedException {
+		for (int i = 0; i < 500 && (Boolean) backfill.status().get("running"); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse((Boolean) backfill.status().get("running"));
+	}
+}
@@ -0,0 +1,147 @@
+package com.github.snuk87.keycloak.kafka.producer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.snuk87.keycloak.kafka.DeletionScheduler;
+import com.github.snuk87.keycloak.kafka.ProducerPool;
+import com.github.snuk87.keycloak.kafka.UserDigests;
+import com.github.snuk87.keycloak.kafka.UserReconciler;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+
+class UserReconcilerTests {
+
+	private static final int USERS = 40;
+	private static final int BUCKETS = 8;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final List<UserModel> users = new ArrayList<>();
+	private MockProducer<String, String> producer;
+	private UserReconciler reconciler;
+
+	@BeforeEach
+	void setUp() {
+		for (int i = 0; i < USERS; i++) {
+			UserModel user = mock(UserModel.class);
+			when(user.getId()).thenReturn(new UUID(0, i).toString());
+			when(user.getFirstName()).thenReturn("User" + i);
+			when(user.getEmail()).thenReturn("user" + i + "@example.com");
+			users.add(user);
+		}
+		RealmModel realm = mock(RealmModel.class);
+		when(realm.getId()).thenReturn("test-realm-id");
+		RealmProvider realms = mock(RealmProvider.class);
+		when(realms.getRealmByName("test-realm")).thenReturn(realm);
+		UserProvider userProvider = mock(UserProvider.class);
+		when(userProvider.getUserById(eq(realm), anyString())).thenAnswer(invocation -> users.stream()
+				.filter(user -> user.getId().equals(invocation.getArgument(1))).findFirst().orElse(null));
+		KeycloakSession session = mock(KeycloakSession.class);
+		when(session.realms()).thenReturn(realms);
+		when(session.users()).thenReturn(userProvider);
+		when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+		KeycloakSessionFactory sessionFactory = mock(KeycloakSessionFactory.class);
+		when(sessionFactory.create()).thenReturn(session);
+		when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+
+		producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+		reconciler = new UserReconciler(sessionFactory, producer, mapper, "user_digests", "create_user",
+				"user_snapshot", BUCKETS, 15, DeletionScheduler.unlimited());
+		reconciler.usePages((session, pageRealm, afterId, max) -> users.stream().map(UserModel::getId)
+				.filter(id -> afterId == null || id.compareTo(afterId) > 0).sorted().limit(max)
+				.collect(Collectors.toList()));
+	}
+
+	@Test
+	void shouldResendNothingWhenPeerMatches() {
+		ObjectNode peer = reconciler.computeDigests("test-realm").toJson(mapper);
+
+		Map<String, Object> result = reconciler.reconcile("test-realm", peer);
+
+		assertEquals(0, result.get("mismatchedBuckets"));
+		assertTrue(producer.history().isEmpty());
+	}
+
+	@Test
+	void shouldResyncMismatchedBucketAndDeleteUnknownPeerMembers() {
+		String stale = new UUID(0, 7).toString();
+		String orphan = new UUID(1, 1).toString();
+		int bucket = UserDigests.bucket(stale, BUCKETS);
+		UserDigests peerDigests = new UserDigests("test-realm", BUCKETS);
+		for (UserModel user : users) {
+			String firstName = user.getId().equals(stale) ? "Outdated" : user.getFirstName();
+			peerDigests.add(user.getId(), firstName, null, user.getEmail(), false);
+		}
+		ObjectNode peer = peerDigests.toJson(mapper);
+		ArrayNode members = peer.putObject("members").putArray(String.valueOf(bucket));
+		members.add(stale);
+		members.add(orphan);
+
+		Map<String, Object> result = reconciler.reconcile("test-realm", peer);
+
+		long usersInBucket = users.stream().filter(u -> UserDigests.bucket(u.getId(), BUCKETS) == bucket).count();
+		assertEquals(1, result.get("mismatchedBuckets"));
+		assertEquals(usersInBucket, result.get("resynced"));
+		List<ProducerRecord<String, String>> resent = producer.history().stream()
+				.filter(r -> r.topic().equals("create_user")).collect(Collectors.toList());
+		assertEquals(usersInBucket, resent.size());
+		assertTrue(resent.stream().anyMatch(r -> r.key().equals(stale) && r.value().contains("User7")));
+		List<ProducerRecord<String, String>> deletes = producer.history().stream()
+				.filter(r -> r.topic().equals("user_snapshot")).collect(Collectors.toList());
+		assertEquals(1, deletes.size());
+		assertEquals(orphan, deletes.get(0).key());
+		assertNull(deletes.get(0).value());
+	}
+
+	@Test
+	void shouldPublishDigestsOfIsolatedRealmToItsCluster() {
+		MockProducer<String, String> clusterProducer = new MockProducer<>(true, new StringSerializer(),
+				new StringSerializer());
+		reconciler.useClusters(new ProducerPool((clientId, servers, properties) -> clusterProducer, "", Map.of(),
+				List.of(new ProducerPool.Cluster("big", "big:9092", Set.of("test-realm-id"), Map.of())),
+				realmId -> null));
+
+		reconciler.publishDigests("test-realm");
+
+		assertEquals(1, clusterProducer.history().size());
+		assertEquals("user_digests", clusterProducer.history().get(0).topic());
+		assertTrue(producer.history().isEmpty());
+	}
+
+	@Test
+	void shouldSkipUsersWithoutUuidIdAndInvalidPeerBuckets() {
+		UserModel federated = mock(UserModel.class);
+		when(federated.getId()).thenReturn("f:ldap:jdoe");
+		users.add(federated);
+		ObjectNode peer = new UserDigests("test-realm", BUCKETS).toJson(mapper);
+		peer.putObject("members").putArray("not-a-bucket").add(new UUID(1, 1).toString());
+
+		Map<String, Object> result = reconciler.reconcile("test-realm", peer);
+
+		assertEquals(1L, result.get("skipped"));
+		assertEquals((long) USERS, result.get("resynced"));
+		assertTrue(producer.history().stream().noneMatch(r -> r.topic().equals("user_snapshot")));
+	}
+}
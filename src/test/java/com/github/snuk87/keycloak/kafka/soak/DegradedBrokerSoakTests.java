@@ -0,0 +1,196 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.snuk87.keycloak.kafka.KafkaConsumerFactory;
+import com.github.snuk87.keycloak.kafka.KafkaEventListenerProvider;
+import com.github.snuk87.keycloak.kafka.UserDeletionConsumer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+/**
+ * Repeats the soak runs against degraded brokers, using {@link FaultInjectingProducerFactory} and
+ * {@link FaultInjectingConsumerFactory}. Run with {@code mvn test -Psoak}; on top of the rate properties of the
+ * other soak tests, tune the faults with {@code -Dsoak.sendLatencyMicros}, {@code -Dsoak.ackDelayMicros},
+ * {@code -Dsoak.timeoutsPerMille}, {@code -Dsoak.pollStallsPerMille}, {@code -Dsoak.pollStallMs},
+ * {@code -Dsoak.rebalancesPerMille}, {@code -Dsoak.rebalanceMs}, {@code -Dsoak.commitFailuresPerMille} and
+ * {@code -Dsoak.seed}.
+ */
+@Tag("soak")
+class DegradedBrokerSoakTests {
+
+	private static final Logger LOG = Logger.getLogger(DegradedBrokerSoakTests.class);
+
+	private static final String TOPIC = "delete_user";
+
+	@Test
+	void shouldKeepRequestLatencyLowWithSlowAndFailingAcks() throws Exception {
+		int durationSeconds = SoakReport.intProperty("durationSeconds", 60);
+		int eventsPerSecond = SoakReport.intProperty("eventsPerSecond", 2000);
+		int threads = SoakReport.intProperty("threads", 8);
+		SimulatedBrokerProducer producer = new SimulatedBrokerProducer(
+				SoakReport.intProperty("brokerLatencyMicros", 2000));
+		FaultInjectingProducerFactory faults = new FaultInjectingProducerFactory(
+				(clientId, servers, properties) -> producer, SoakReport.intProperty("seed", 1))
+				.sendLatency(SoakReport.intProperty("sendLatencyMicros", 100))
+				.ackDelay(SoakReport.intProperty("ackDelayMicros", 50_000))
+				.timeouts(SoakReport.intProperty("timeoutsPerMille", 10) / 1000.0);
+		InMemoryUserStore store = new InMemoryUserStore("soak", 0);
+
+		KafkaEventListenerProvider listener = new KafkaEventListenerProvider("", "soak", "events",
+				new String[] { "LOGIN" }, "admin-events", Map.of(), faults, store.session(), "create_user",
+				"verify_email");
+
+		LatencyRecorder latencies = new LatencyRecorder(durationSeconds * eventsPerSecond + 1);
+		AtomicLong operations = new AtomicLong();
+		SoakReport report = new SoakReport("KafkaEventListenerProvider (degraded broker)");
+
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) * threads / eventsPerSecond;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			long offset = intervalNanos * t / threads;
+			pool.execute(() -> {
+				long intended = start + offset;
+				while (intended < end) {
+					SoakReport.awaitSchedule(intended);
+					listener.onEvent(nextEvent(operations.get()));
+					latencies.record(System.nanoTime() - intended);
+					operations.incrementAndGet();
+					intended += intervalNanos;
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(durationSeconds + 60L, TimeUnit.SECONDS));
+		listener.shutdown();
+		producer.shutdown();
+		faults.shutdown();
+
+		report.print(operations.get(), producer.sendCount(), latencies);
+		LOG.infof("Injected producer faults: %d", faults.injectedFaults());
+		assertTrue(producer.sendCount() + faults.injectedFaults() >= operations.get() * 9 / 10,
+				"most events should have been handed to the broker");
+	}
+
+	@Test
+	void shouldDeleteEveryUserWithStallsRebalancesAndCommitFailures() throws Exception {
+		int durationSeconds = SoakReport.intProperty("durationSeconds", 60);
+		int deletionsPerSecond = SoakReport.intProperty("deletionsPerSecond", 500);
+		int partitions = SoakReport.intProperty("partitions", 6);
+		InMemoryUserStore store = new InMemoryUserStore("soak", SoakReport.intProperty("dbLatencyMicros", 500));
+
+		Map<TopicPartition, Map<Long, Long>> enqueuedAt = new ConcurrentHashMap<>();
+		LatencyRecorder latencies = new LatencyRecorder(durationSeconds * deletionsPerSecond + 1);
+		AtomicLong commits = new AtomicLong();
+
+		MockConsumer<String, byte[]> mockConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST) {
+			@Override
+			public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+				super.commitSync(offsets);
+				commits.incrementAndGet();
+				long now = System.nanoTime();
+				offsets.forEach((partition, offset) -> {
+					Long enqueued = enqueuedAt.get(partition).remove(offset.offset() - 1);
+					if (enqueued != null) {
+						latencies.record(now - enqueued);
+					}
+				});
+			}
+		};
+		Map<TopicPartition, Long> beginning = new HashMap<>();
+		for (int p = 0; p < partitions; p++) {
+			TopicPartition partition = new TopicPartition(TOPIC, p);
+			beginning.put(partition, 0L);
+			enqueuedAt.put(partition, new ConcurrentHashMap<>());
+		}
+		mockConsumer.subscribe(Collections.singletonList(TOPIC));
+		mockConsumer.rebalance(beginning.keySet());
+		mockConsumer.updateBeginningOffsets(beginning);
+
+		FaultInjectingConsumerFactory faults = new FaultInjectingConsumerFactory(new KafkaConsumerFactory() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public <K, V> Consumer<K, V> createConsumer(String clientId, String bootstrapServer,
+					Map<String, Object> optionalProperties) {
+				return (Consumer<K, V>) mockConsumer;
+			}
+		}, SoakReport.intProperty("seed", 1))
+				.pollStalls(SoakReport.intProperty("pollStallsPerMille", 10) / 1000.0,
+						SoakReport.intProperty("pollStallMs", 200))
+				.rebalances(SoakReport.intProperty("rebalancesPerMille", 2) / 1000.0,
+						SoakReport.intProperty("rebalanceMs", 500))
+				.commitFailures(SoakReport.intProperty("commitFailuresPerMille", 10) / 1000.0);
+		UserDeletionConsumer consumer = new UserDeletionConsumer(faults, "soak", "localhost:9092", new HashMap<>(),
+				store.sessionFactory(), "soak", TOPIC);
+		consumer.reconnectBackoff(10, 1000);
+		Thread consumerThread = new Thread(consumer, "UserDeletionConsumer-Soak");
+		consumerThread.start();
+
+		SoakReport report = new SoakReport("UserDeletionConsumer (degraded broker)");
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / deletionsPerSecond;
+		long[] nextOffset = new long[partitions];
+		long intended = System.nanoTime();
+		long end = intended + TimeUnit.SECONDS.toNanos(durationSeconds);
+		long produced = 0;
+		while (intended < end) {
+			SoakReport.awaitSchedule(intended);
+			String userId = UUID.randomUUID().toString();
+			store.addUser(userId);
+			int p = (int) (produced % partitions);
+			long offset = nextOffset[p]++;
+			enqueuedAt.get(new TopicPartition(TOPIC, p)).put(offset, intended);
+			mockConsumer.addRecord(new ConsumerRecord<>(TOPIC, p, offset, userId,
+					userId.getBytes(StandardCharsets.US_ASCII)));
+			produced++;
+			intended += intervalNanos;
+		}
+
+		long drainDeadline = System.currentTimeMillis() + 60_000;
+		while (store.size() > 0 && System.currentTimeMillis() < drainDeadline) {
+			Thread.sleep(100);
+		}
+		consumer.stop();
+		consumerThread.join(10_000);
+
+		report.print(produced, commits.get(), latencies);
+		LOG.infof("Injected consumer faults: %d", faults.injectedFaults());
+		assertTrue(store.size() == 0, "all users should have been deleted, remaining: " + store.size());
+	}
+
+	private static Event nextEvent(long sequence) {
+		Event event = new Event();
+		event.setRealmId("soak");
+		event.setUserId(UUID.randomUUID().toString());
+		event.setTime(System.currentTimeMillis());
+		if (sequence % 10 == 0) {
+			event.setType(EventType.REGISTER);
+			event.setDetails(Map.of("first_name", "Soak", "last_name", "User", "email", "soak@example.com"));
+		} else {
+			event.setType(EventType.LOGIN);
+			event.setDetails(Map.of("username", "soak"));
+		}
+		return event;
+	}
+}
@@ -0,0 +1,232 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.snuk87.keycloak.kafka.KafkaConsumerFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+
+/**
+ * Wraps the consumers of another {@link KafkaConsumerFactory} and degrades them: a poll can stall before it
+ * fetches, a poll can be turned into a rebalance (the group rejoin pause, the listener callbacks and a rewind of
+ * every assigned partition to its committed offset), and a synchronous commit can time out without committing.
+ * <p>
+ * Records returned and not committed yet are retained, so the rewind knows the committed offsets without asking
+ * the broker. A {@link MockConsumer} forgets records once it returned them; for it, seeks are answered from the
+ * retained records, as a broker would redeliver them. Faults are drawn from a seeded random, so a run can be
+ * repeated.
+ */
+public class FaultInjectingConsumerFactory implements KafkaConsumerFactory {
+
+	private final KafkaConsumerFactory delegate;
+	private final Random random;
+	private final AtomicLong injectedFaults = new AtomicLong();
+	private volatile double pollStallRate;
+	private volatile long pollStallMs;
+	private volatile double rebalanceRate;
+	private volatile long rebalancePauseMs;
+	private volatile double commitFailureRate;
+
+	public FaultInjectingConsumerFactory(KafkaConsumerFactory delegate, long seed) {
+		this.delegate = delegate;
+		this.random = new Random(seed);
+	}
+
+	public FaultInjectingConsumerFactory pollStalls(double rate, long stallMs) {
+		this.pollStallRate = rate;
+		this.pollStallMs = stallMs;
+		return this;
+	}
+
+	public FaultInjectingConsumerFactory rebalances(double rate, long pauseMs) {
+		this.rebalanceRate = rate;
+		this.rebalancePauseMs = pauseMs;
+		return this;
+	}
+
+	public FaultInjectingConsumerFactory commitFailures(double rate) {
+		this.commitFailureRate = rate;
+		return this;
+	}
+
+	public long injectedFaults() {
+		return injectedFaults.get();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <K, V> Consumer<K, V> createConsumer(String clientId, String bootstrapServer,
+			Map<String, Object> optionalProperties) {
+		Consumer<Object, Object> consumer = delegate.createConsumer(clientId, bootstrapServer, optionalProperties);
+		return (Consumer<K, V>) Proxy.newProxyInstance(Consumer.class.getClassLoader(),
+				new Class<?>[] { Consumer.class }, new Faults(consumer));
+	}
+
+	private boolean inject(double rate) {
+		if (rate > 0 && random.nextDouble() < rate) {
+			injectedFaults.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	private static void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Only the polling thread calls into the handler, apart from {@code wakeup}, which is forwarded as-is.
+	 */
+	private class Faults implements InvocationHandler {
+
+		private final Consumer<Object, Object> consumer;
+		private final boolean replays;
+		private final Map<TopicPartition, List<ConsumerRecord<Object, Object>>> retained = new HashMap<>();
+		private final Map<TopicPartition, List<ConsumerRecord<Object, Object>>> replay = new HashMap<>();
+		private ConsumerRebalanceListener listener;
+
+		private Faults(Consumer<Object, Object> consumer) {
+			this.consumer = consumer;
+			this.replays = consumer instanceof MockConsumer;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "poll":
+					return poll(args[0] instanceof Duration timeout ? timeout : Duration.ofMillis((Long) args[0]));
+				case "commitSync":
+					if (inject(commitFailureRate)) {
+						throw new TimeoutException("Injected fault: timed out committing offsets");
+					}
+					Object result = forward(method, args);
+					if (args != null && args[0] instanceof Map<?, ?> offsets) {
+						((Map<TopicPartition, OffsetAndMetadata>) offsets).forEach(this::trim);
+					}
+					return result;
+				case "seek":
+					Object target = args[1];
+					long offset = target instanceof OffsetAndMetadata committed ? committed.offset() : (Long) target;
+					rewind((TopicPartition) args[0], offset);
+					break;
+				case "subscribe":
+					if (args.length == 2 && args[1] instanceof ConsumerRebalanceListener rebalanceListener) {
+						listener = rebalanceListener;
+					}
+					break;
+				default:
+					break;
+			}
+			return forward(method, args);
+		}
+
+		private ConsumerRecords<Object, Object> poll(Duration timeout) {
+			if (inject(pollStallRate)) {
+				pause(pollStallMs);
+			}
+			if (inject(rebalanceRate)) {
+				rebalance();
+				return ConsumerRecords.empty();
+			}
+			Map<TopicPartition, List<ConsumerRecord<Object, Object>>> replayed = takeReplay();
+			if (!replayed.isEmpty()) {
+				return new ConsumerRecords<>(replayed);
+			}
+			ConsumerRecords<Object, Object> records = consumer.poll(timeout);
+			for (TopicPartition partition : records.partitions()) {
+				retained.computeIfAbsent(partition, p -> new ArrayList<>()).addAll(records.records(partition));
+			}
+			return records;
+		}
+
+		private void rebalance() {
+			pause(rebalancePauseMs);
+			Set<TopicPartition> assignment = consumer.assignment();
+			if (listener != null) {
+				listener.onPartitionsRevoked(assignment);
+			}
+			for (TopicPartition partition : assignment) {
+				List<ConsumerRecord<Object, Object>> uncommitted = retained.get(partition);
+				if (uncommitted != null && !uncommitted.isEmpty()) {
+					long committed = uncommitted.get(0).offset();
+					rewind(partition, committed);
+					consumer.seek(partition, committed);
+				}
+			}
+			if (listener != null) {
+				listener.onPartitionsAssigned(assignment);
+			}
+		}
+
+		private void rewind(TopicPartition partition, long offset) {
+			if (!replays) {
+				return;
+			}
+			List<ConsumerRecord<Object, Object>> redelivered = new ArrayList<>();
+			for (ConsumerRecord<Object, Object> record : retained.getOrDefault(partition, List.of())) {
+				if (record.offset() >= offset) {
+					redelivered.add(record);
+				}
+			}
+			if (redelivered.isEmpty()) {
+				replay.remove(partition);
+			} else {
+				replay.put(partition, redelivered);
+			}
+		}
+
+		private Map<TopicPartition, List<ConsumerRecord<Object, Object>>> takeReplay() {
+			Map<TopicPartition, List<ConsumerRecord<Object, Object>>> replayed = new HashMap<>();
+			if (replay.isEmpty()) {
+				return replayed;
+			}
+			Set<TopicPartition> paused = consumer.paused();
+			Set<TopicPartition> assignment = consumer.assignment();
+			replay.entrySet().removeIf(entry -> {
+				if (paused.contains(entry.getKey()) || !assignment.contains(entry.getKey())) {
+					return false;
+				}
+				replayed.put(entry.getKey(), entry.getValue());
+				return true;
+			});
+			return replayed;
+		}
+
+		private void trim(TopicPartition partition, OffsetAndMetadata committed) {
+			List<ConsumerRecord<Object, Object>> uncommitted = retained.get(partition);
+			if (uncommitted != null) {
+				uncommitted.removeIf(record -> record.offset() < committed.offset());
+			}
+		}
+
+		private Object forward(Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(consumer, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
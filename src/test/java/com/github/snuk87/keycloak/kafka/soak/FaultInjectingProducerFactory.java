@@ -0,0 +1,196 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.snuk87.keycloak.kafka.KafkaProducerFactory;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.errors.TimeoutException;
+
+/**
+ * Wraps the producers of another {@link KafkaProducerFactory} and degrades them: {@code send} blocks the caller
+ * for the send latency (a full buffer or a metadata wait), acknowledgements are delivered after the ack delay from a
+ * background "broker" thread, and a fraction of the sends expire with a {@link TimeoutException} instead of
+ * reaching the wrapped producer. Faults can be changed while a run is in progress and are drawn from a seeded
+ * random, so a run can be repeated.
+ */
+public class FaultInjectingProducerFactory implements KafkaProducerFactory {
+
+	private final ScheduledExecutorService broker = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "FaultInjectingBroker-Thread");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final KafkaProducerFactory delegate;
+	private final Random random;
+	private final AtomicLong injectedFaults = new AtomicLong();
+	private volatile long sendLatencyMicros;
+	private volatile long ackDelayMicros;
+	private volatile double timeoutRate;
+
+	public FaultInjectingProducerFactory(KafkaProducerFactory delegate, long seed) {
+		this.delegate = delegate;
+		this.random = new Random(seed);
+	}
+
+	public FaultInjectingProducerFactory sendLatency(long micros) {
+		this.sendLatencyMicros = micros;
+		return this;
+	}
+
+	public FaultInjectingProducerFactory ackDelay(long micros) {
+		this.ackDelayMicros = micros;
+		return this;
+	}
+
+	public FaultInjectingProducerFactory timeouts(double rate) {
+		this.timeoutRate = rate;
+		return this;
+	}
+
+	public long injectedFaults() {
+		return injectedFaults.get();
+	}
+
+	public void shutdown() {
+		broker.shutdownNow();
+	}
+
+	@Override
+	public Producer<String, String> createProducer(String clientId, String bootstrapServer,
+			Map<String, Object> optionalProperties) {
+		return new FaultInjectingProducer(delegate.createProducer(clientId, bootstrapServer, optionalProperties));
+	}
+
+	private class FaultInjectingProducer implements Producer<String, String> {
+
+		private final Producer<String, String> producer;
+
+		private FaultInjectingProducer(Producer<String, String> producer) {
+			this.producer = producer;
+		}
+
+		@Override
+		public Future<RecordMetadata> send(ProducerRecord<String, String> record) {
+			return send(record, null);
+		}
+
+		@Override
+		public Future<RecordMetadata> send(ProducerRecord<String, String> record, Callback callback) {
+			long latency = sendLatencyMicros;
+			if (latency > 0) {
+				SoakReport.awaitSchedule(System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(latency));
+			}
+			long delay = ackDelayMicros;
+			CompletableFuture<RecordMetadata> acked = new CompletableFuture<>();
+			if (random.nextDouble() < timeoutRate) {
+				injectedFaults.incrementAndGet();
+				TimeoutException timeout = new TimeoutException(
+						"Injected fault: record for " + record.topic() + " expired before it was acknowledged");
+				broker.schedule(() -> acknowledge(acked, callback, null, timeout), delay, TimeUnit.MICROSECONDS);
+				return acked;
+			}
+			producer.send(record, (metadata, exception) -> {
+				if (delay > 0) {
+					broker.schedule(() -> acknowledge(acked, callback, metadata, exception), delay,
+							TimeUnit.MICROSECONDS);
+				} else {
+					acknowledge(acked, callback, metadata, exception);
+				}
+			});
+			return acked;
+		}
+
+		private void acknowledge(CompletableFuture<RecordMetadata> acked, Callback callback, RecordMetadata metadata,
+				Exception exception) {
+			if (callback != null) {
+				callback.onCompletion(metadata, exception);
+			}
+			if (exception != null) {
+				acked.completeExceptionally(exception);
+			} else {
+				acked.complete(metadata);
+			}
+		}
+
+		@Override
+		public void flush() {
+			producer.flush();
+		}
+
+		@Override
+		public List<PartitionInfo> partitionsFor(String topic) {
+			return producer.partitionsFor(topic);
+		}
+
+		@Override
+		public Map<MetricName, ? extends Metric> metrics() {
+			return producer.metrics();
+		}
+
+		@Override
+		public Uuid clientInstanceId(Duration timeout) {
+			return producer.clientInstanceId(timeout);
+		}
+
+		@Override
+		public void initTransactions() {
+			producer.initTransactions();
+		}
+
+		@Override
+		public void beginTransaction() {
+			producer.beginTransaction();
+		}
+
+		@Override
+		@Deprecated
+		public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+			producer.sendOffsetsToTransaction(offsets, consumerGroupId);
+		}
+
+		@Override
+		public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets,
+				ConsumerGroupMetadata groupMetadata) {
+			producer.sendOffsetsToTransaction(offsets, groupMetadata);
+		}
+
+		@Override
+		public void commitTransaction() {
+			producer.commitTransaction();
+		}
+
+		@Override
+		public void abortTransaction() {
+			producer.abortTransaction();
+		}
+
+		@Override
+		public void close() {
+			producer.close();
+		}
+
+		@Override
+		public void close(Duration timeout) {
+			producer.close(timeout);
+		}
+	}
+}
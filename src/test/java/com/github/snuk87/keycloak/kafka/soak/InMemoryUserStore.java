@@ -0,0 +1,90 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+
+/**
+ * Keycloak session stub backed by a concurrent map of users, with an optional simulated database latency on
+ * every lookup and removal. The same session instance is handed out by the session factory. Mocks are stub-only
+ * so that millions of invocations are not recorded for verification.
+ */
+public class InMemoryUserStore {
+
+	private final Map<String, UserModel> users = new ConcurrentHashMap<>();
+	private final long dbLatencyMicros;
+	private final KeycloakSessionFactory sessionFactory;
+	private final KeycloakSession session;
+
+	public InMemoryUserStore(String realmName, long dbLatencyMicros) {
+		this.dbLatencyMicros = dbLatencyMicros;
+
+		RealmModel realm = mock(RealmModel.class, withSettings().stubOnly());
+		when(realm.getName()).thenReturn(realmName);
+		when(realm.getId()).thenReturn(realmName);
+
+		RealmProvider realms = mock(RealmProvider.class, withSettings().stubOnly());
+		when(realms.getRealmByName(realmName)).thenReturn(realm);
+		when(realms.getRealm(realmName)).thenReturn(realm);
+
+		UserProvider userProvider = mock(UserProvider.class, withSettings().stubOnly());
+		when(userProvider.getUserById(any(), anyString())).thenAnswer(invocation -> {
+			simulateLatency();
+			return users.get(invocation.<String>getArgument(1));
+		});
+		when(userProvider.removeUser(any(), any())).thenAnswer(invocation -> {
+			simulateLatency();
+			UserModel user = invocation.getArgument(1);
+			return users.remove(user.getId()) != null;
+		});
+
+		session = mock(KeycloakSession.class, withSettings().stubOnly());
+		sessionFactory = mock(KeycloakSessionFactory.class, withSettings().stubOnly());
+		when(session.realms()).thenReturn(realms);
+		when(session.users()).thenReturn(userProvider);
+		when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class, withSettings().stubOnly()));
+		when(session.getContext()).thenReturn(mock(KeycloakContext.class, withSettings().stubOnly()));
+		when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+		when(sessionFactory.create()).thenReturn(session);
+	}
+
+	public void addUser(String userId) {
+		UserModel user = mock(UserModel.class, withSettings().stubOnly());
+		when(user.getId()).thenReturn(userId);
+		when(user.getUsername()).thenReturn("user-" + userId);
+		users.put(userId, user);
+	}
+
+	public int size() {
+		return users.size();
+	}
+
+	public KeycloakSession session() {
+		return session;
+	}
+
+	public KeycloakSessionFactory sessionFactory() {
+		return sessionFactory;
+	}
+
+	private void simulateLatency() {
+		if (dbLatencyMicros > 0) {
+			SoakReport.awaitSchedule(System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(dbLatencyMicros));
+		}
+	}
+}
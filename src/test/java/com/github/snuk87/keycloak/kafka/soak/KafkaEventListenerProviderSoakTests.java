@@ -0,0 +1,83 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.snuk87.keycloak.kafka.KafkaEventListenerProvider;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+/**
+ * Drives {@link KafkaEventListenerProvider} from several request threads at a fixed rate against a
+ * {@link SimulatedBrokerProducer}. Run with {@code mvn test -Psoak}; tune with {@code -Dsoak.durationSeconds},
+ * {@code -Dsoak.eventsPerSecond}, {@code -Dsoak.threads} and {@code -Dsoak.brokerLatencyMicros}.
+ */
+@Tag("soak")
+class KafkaEventListenerProviderSoakTests {
+
+	@Test
+	void shouldSustainConfiguredEventRate() throws Exception {
+		int durationSeconds = SoakReport.intProperty("durationSeconds", 60);
+		int eventsPerSecond = SoakReport.intProperty("eventsPerSecond", 2000);
+		int threads = SoakReport.intProperty("threads", 8);
+		SimulatedBrokerProducer producer = new SimulatedBrokerProducer(
+				SoakReport.intProperty("brokerLatencyMicros", 2000));
+		InMemoryUserStore store = new InMemoryUserStore("soak", 0);
+
+		KafkaEventListenerProvider listener = new KafkaEventListenerProvider("", "soak", "events",
+				new String[] { "LOGIN" }, "admin-events", Map.of(), (clientId, servers, properties) -> producer,
+				store.session(), "create_user", "verify_email");
+
+		LatencyRecorder latencies = new LatencyRecorder(durationSeconds * eventsPerSecond + 1);
+		AtomicLong operations = new AtomicLong();
+		SoakReport report = new SoakReport("KafkaEventListenerProvider");
+
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) * threads / eventsPerSecond;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			long offset = intervalNanos * t / threads;
+			pool.execute(() -> {
+				long intended = start + offset;
+				while (intended < end) {
+					SoakReport.awaitSchedule(intended);
+					listener.onEvent(nextEvent(operations.get()));
+					latencies.record(System.nanoTime() - intended);
+					operations.incrementAndGet();
+					intended += intervalNanos;
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(durationSeconds + 60L, TimeUnit.SECONDS));
+		listener.shutdown();
+		producer.shutdown();
+
+		report.print(operations.get(), producer.sendCount(), latencies);
+		assertTrue(producer.sendCount() >= operations.get() * 9 / 10, "most events should have been published");
+	}
+
+	private static Event nextEvent(long sequence) {
+		Event event = new Event();
+		event.setRealmId("soak");
+		event.setUserId(UUID.randomUUID().toString());
+		event.setTime(System.currentTimeMillis());
+		if (sequence % 10 == 0) {
+			event.setType(EventType.REGISTER);
+			event.setDetails(Map.of("first_name", "Soak", "last_name", "User", "email", "soak@example.com"));
+		} else {
+			event.setType(EventType.LOGIN);
+			event.setDetails(Map.of("username", "soak"));
+		}
+		return event;
+	}
+}
@@ -0,0 +1,51 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Collects latency samples in nanoseconds and reports percentiles. Beyond the capacity the samples form a uniform
+ * reservoir: each new sample replaces a random one with probability capacity/seen, so percentiles stay
+ * representative of the whole run with bounded memory. Samples not kept are counted as dropped. Recording is
+ * allocation-free on the measured path.
+ */
+public class LatencyRecorder {
+
+	private final long[] samples;
+	private int size;
+	private long seen;
+
+	public LatencyRecorder(int capacity) {
+		this.samples = new long[capacity];
+	}
+
+	public synchronized void record(long nanos) {
+		seen++;
+		if (size < samples.length) {
+			samples[size++] = nanos;
+			return;
+		}
+		long slot = ThreadLocalRandom.current().nextLong(seen);
+		if (slot < samples.length) {
+			samples[(int) slot] = nanos;
+		}
+	}
+
+	public synchronized int count() {
+		return size;
+	}
+
+	public synchronized long dropped() {
+		return seen - size;
+	}
+
+	public synchronized double percentileMillis(double percentile) {
+		if (size == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(samples, size);
+		Arrays.sort(sorted);
+		int index = (int) Math.min(size - 1, Math.ceil(percentile / 100.0 * size) - 1);
+		return sorted[Math.max(0, index)] / 1_000_000.0;
+	}
+}
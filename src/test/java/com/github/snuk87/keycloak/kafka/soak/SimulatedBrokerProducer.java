@@ -0,0 +1,69 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * {@link MockProducer} that acknowledges every send after a simulated broker latency from a background
+ * "broker" thread. The send history is cleared periodically so long runs do not grow the heap.
+ */
+public class SimulatedBrokerProducer extends MockProducer<String, String> {
+
+	private final ScheduledExecutorService broker = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "SimulatedBroker-Thread");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final long latencyMicros;
+	private final AtomicLong sends = new AtomicLong();
+
+	public SimulatedBrokerProducer(long latencyMicros) {
+		super(true, new StringSerializer(), new StringSerializer());
+		this.latencyMicros = latencyMicros;
+	}
+
+	@Override
+	public Future<RecordMetadata> send(ProducerRecord<String, String> record, Callback callback) {
+		Future<RecordMetadata> acked;
+		synchronized (this) {
+			acked = super.send(record, null);
+			if (sends.incrementAndGet() % 10_000 == 0) {
+				clear();
+			}
+		}
+		CompletableFuture<RecordMetadata> delayed = new CompletableFuture<>();
+		broker.schedule(() -> {
+			try {
+				RecordMetadata metadata = acked.get();
+				if (callback != null) {
+					callback.onCompletion(metadata, null);
+				}
+				delayed.complete(metadata);
+			} catch (Exception e) {
+				if (callback != null) {
+					callback.onCompletion(null, e);
+				}
+				delayed.completeExceptionally(e);
+			}
+		}, latencyMicros, TimeUnit.MICROSECONDS);
+		return delayed;
+	}
+
+	public long sendCount() {
+		return sends.get();
+	}
+
+	public void shutdown() {
+		broker.shutdownNow();
+	}
+}
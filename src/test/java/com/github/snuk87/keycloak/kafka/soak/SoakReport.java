@@ -0,0 +1,70 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Captures GC activity at construction and logs a throughput/latency summary for a soak run.
+ */
+public class SoakReport {
+
+	private static final Logger LOG = Logger.getLogger(SoakReport.class);
+
+	private final String name;
+	private final long startNanos = System.nanoTime();
+	private final long gcCountAtStart = gcCount();
+	private final long gcTimeAtStart = gcTime();
+
+	public SoakReport(String name) {
+		this.name = name;
+	}
+
+	public String print(long operations, long commits, LatencyRecorder latencies) {
+		return print(operations, commits, 0, latencies);
+	}
+
+	public String print(long operations, long commits, long failures, LatencyRecorder latencies) {
+		double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+		String report = String.format(
+				"[soak] %s: ops=%d (%.1f/s) commits=%d failures=%d p50=%.3fms p99=%.3fms p999=%.3fms "
+						+ "gcCount=%d gcTime=%dms droppedSamples=%d",
+				name, operations, operations / seconds, commits, failures,
+				latencies.percentileMillis(50), latencies.percentileMillis(99), latencies.percentileMillis(99.9),
+				gcCount() - gcCountAtStart, gcTime() - gcTimeAtStart, latencies.dropped());
+		LOG.info(report);
+		return report;
+	}
+
+	public static int intProperty(String name, int defaultValue) {
+		return Integer.getInteger("soak." + name, defaultValue);
+	}
+
+	/**
+	 * Parks until the given intended start time. Latencies are measured from the intended start rather than
+	 * the actual one, so a stalled system is not hidden by the generator slowing down with it.
+	 */
+	public static void awaitSchedule(long intendedNanos) {
+		long wait;
+		while ((wait = intendedNanos - System.nanoTime()) > 0) {
+			java.util.concurrent.locks.LockSupport.parkNanos(wait);
+		}
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+}
@@ -0,0 +1,112 @@
+package com.github.snuk87.keycloak.kafka.soak;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.snuk87.keycloak.kafka.KafkaConsumerFactory;
+import com.github.snuk87.keycloak.kafka.UserDeletionConsumer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Feeds the delete-user topic of a {@link MockConsumer} at a fixed rate and measures the time from enqueue to
+ * offset commit for every record. Run with {@code mvn test -Psoak}; tune with {@code -Dsoak.durationSeconds},
+ * {@code -Dsoak.deletionsPerSecond}, {@code -Dsoak.partitions} and {@code -Dsoak.dbLatencyMicros}.
+ */
+@Tag("soak")
+class UserDeletionConsumerSoakTests {
+
+	private static final String TOPIC = "delete_user";
+
+	@Test
+	void shouldSustainConfiguredDeletionRate() throws Exception {
+		int durationSeconds = SoakReport.intProperty("durationSeconds", 60);
+		int deletionsPerSecond = SoakReport.intProperty("deletionsPerSecond", 500);
+		int partitions = SoakReport.intProperty("partitions", 6);
+		InMemoryUserStore store = new InMemoryUserStore("soak", SoakReport.intProperty("dbLatencyMicros", 500));
+
+		Map<TopicPartition, Map<Long, Long>> enqueuedAt = new ConcurrentHashMap<>();
+		LatencyRecorder latencies = new LatencyRecorder(durationSeconds * deletionsPerSecond + 1);
+		AtomicLong commits = new AtomicLong();
+
+		MockConsumer<String, byte[]> mockConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST) {
+			@Override
+			public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+				super.commitSync(offsets);
+				commits.incrementAndGet();
+				long now = System.nanoTime();
+				offsets.forEach((partition, offset) -> {
+					Long enqueued = enqueuedAt.get(partition).remove(offset.offset() - 1);
+					if (enqueued != null) {
+						latencies.record(now - enqueued);
+					}
+				});
+			}
+		};
+		Map<TopicPartition, Long> beginning = new HashMap<>();
+		for (int p = 0; p < partitions; p++) {
+			TopicPartition partition = new TopicPartition(TOPIC, p);
+			beginning.put(partition, 0L);
+			enqueuedAt.put(partition, new ConcurrentHashMap<>());
+		}
+		mockConsumer.subscribe(Collections.singletonList(TOPIC));
+		mockConsumer.rebalance(beginning.keySet());
+		mockConsumer.updateBeginningOffsets(beginning);
+
+		KafkaConsumerFactory factory = new KafkaConsumerFactory() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public <K, V> Consumer<K, V> createConsumer(String clientId, String bootstrapServer,
+					Map<String, Object> optionalProperties) {
+				return (Consumer<K, V>) mockConsumer;
+			}
+		};
+		UserDeletionConsumer consumer = new UserDeletionConsumer(factory, "soak", "localhost:9092", new HashMap<>(),
+				store.sessionFactory(), "soak", TOPIC);
+		Thread consumerThread = new Thread(consumer, "UserDeletionConsumer-Soak");
+		consumerThread.start();
+
+		SoakReport report = new SoakReport("UserDeletionConsumer");
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / deletionsPerSecond;
+		long[] nextOffset = new long[partitions];
+		long intended = System.nanoTime();
+		long end = intended + TimeUnit.SECONDS.toNanos(durationSeconds);
+		long produced = 0;
+		while (intended < end) {
+			SoakReport.awaitSchedule(intended);
+			String userId = UUID.randomUUID().toString();
+			store.addUser(userId);
+			int p = (int) (produced % partitions);
+			long offset = nextOffset[p]++;
+			enqueuedAt.get(new TopicPartition(TOPIC, p)).put(offset, intended);
+			mockConsumer.addRecord(new ConsumerRecord<>(TOPIC, p, offset, userId,
+					userId.getBytes(StandardCharsets.US_ASCII)));
+			produced++;
+			intended += intervalNanos;
+		}
+
+		long drainDeadline = System.currentTimeMillis() + 30_000;
+		while (store.size() > 0 && System.currentTimeMillis() < drainDeadline) {
+			Thread.sleep(100);
+		}
+		consumer.stop();
+		consumerThread.join(10_000);
+
+		report.print(produced, commits.get(), latencies);
+		assertTrue(store.size() == 0, "all users should have been deleted, remaining: " + store.size());
+	}
+}
@@ -0,0 +1,193 @@
+package com.github.snuk87.keycloak.kafka.tools;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.snuk87.keycloak.kafka.KafkaEventListenerProvider;
+import com.github.snuk87.keycloak.kafka.KafkaProducerFactory;
+import com.github.snuk87.keycloak.kafka.KafkaStandardProducerImpl;
+import com.github.snuk87.keycloak.kafka.soak.InMemoryUserStore;
+import com.github.snuk87.keycloak.kafka.soak.LatencyRecorder;
+import com.github.snuk87.keycloak.kafka.soak.SimulatedBrokerProducer;
+import com.github.snuk87.keycloak.kafka.soak.SoakReport;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.jboss.logging.Logger;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+
+/**
+ * Standalone load generator. {@code mode=events} fabricates Keycloak events and admin events and feeds them
+ * through {@link KafkaEventListenerProvider}; {@code mode=deletions} writes user ids to the delete-user topic in
+ * the plain UUID format {@code UserDeletionConsumer} expects. Without {@code bootstrap} a simulated broker is
+ * used.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Ploadgen -Dexec.args="mode=events rate=2000 duration=120 threads=8 \
+ *     users=100000 skew=1.1 payload=normal:512/128 bootstrap=localhost:9092"
+ * </pre>
+ */
+public class LoadGenerator {
+
+	private static final Logger LOG = Logger.getLogger(LoadGenerator.class);
+	private static final int MAX_LATENCY_SAMPLES = 1_000_000;
+
+	private final Map<String, String> options;
+
+	LoadGenerator(Map<String, String> options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			String[] pair = arg.split("=", 2);
+			options.put(pair[0], pair.length > 1 ? pair[1] : "true");
+		}
+		new LoadGenerator(options).run();
+	}
+
+	void run() throws Exception {
+		String mode = option("mode", "events");
+		int rate = Integer.parseInt(option("rate", "1000"));
+		int duration = Integer.parseInt(option("duration", "60"));
+		int threads = Integer.parseInt(option("threads", "4"));
+		ZipfKeySampler keys = new ZipfKeySampler(Integer.parseInt(option("users", "10000")),
+				Double.parseDouble(option("skew", "0")));
+		PayloadSizeDistribution payload = PayloadSizeDistribution.parse(option("payload", "fixed:256"));
+
+		Producer<String, String> producer = createProducer();
+		KafkaEventListenerProvider listener = null;
+		LoadStep step;
+		if ("deletions".equals(mode)) {
+			String topic = option("topic", "delete_user");
+			step = sequence -> {
+				String userId = keys.next();
+				producer.send(new ProducerRecord<>(topic, userId, userId)).get();
+			};
+		} else {
+			listener = new KafkaEventListenerProvider("", "loadgen",
+					option("eventsTopic", "keycloak-events"), new String[] { "LOGIN", "LOGOUT", "CODE_TO_TOKEN" },
+					option("adminTopic", "keycloak-admin-events"), Map.of(),
+					(clientId, servers, properties) -> producer, new InMemoryUserStore("loadgen", 0).session(),
+					option("createUserTopic", "create_user"), option("verifyEmailTopic", "verify_email"));
+			KafkaEventListenerProvider target = listener;
+			step = sequence -> emit(target, sequence, keys, payload);
+		}
+
+		LatencyRecorder latencies = new LatencyRecorder((int) Math.min(MAX_LATENCY_SAMPLES, (long) rate * duration + 1));
+		AtomicLong operations = new AtomicLong();
+		AtomicLong failures = new AtomicLong();
+		SoakReport report = new SoakReport("LoadGenerator[" + mode + "]");
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) * threads / rate;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(duration);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			long offset = intervalNanos * t / threads;
+			pool.execute(() -> {
+				long intended = start + offset;
+				while (intended < end) {
+					SoakReport.awaitSchedule(intended);
+					try {
+						step.apply(operations.incrementAndGet());
+					} catch (Exception e) {
+						// only the first failure is logged, the rest are counted for the report
+						if (failures.incrementAndGet() == 1) {
+							LOG.warn("Load generator operation failed", e);
+						}
+					}
+					latencies.record(System.nanoTime() - intended);
+					intended += intervalNanos;
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(duration + 60L, TimeUnit.SECONDS);
+		if (listener != null) {
+			listener.shutdown();
+		}
+		producer.close();
+		report.print(operations.get(), 0, failures.get(), latencies);
+	}
+
+	private Producer<String, String> createProducer() {
+		String bootstrap = options.get("bootstrap");
+		if (bootstrap == null) {
+			return new SimulatedBrokerProducer(Long.parseLong(option("brokerLatencyMicros", "2000")));
+		}
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("linger.ms", option("lingerMs", "5"));
+		properties.put("batch.size", option("batchSize", "65536"));
+		properties.put("compression.type", option("compression", "lz4"));
+		KafkaProducerFactory factory = new KafkaStandardProducerImpl();
+		return factory.createProducer("keycloak-loadgen", bootstrap, properties);
+	}
+
+	private static void emit(KafkaEventListenerProvider listener, long sequence, ZipfKeySampler keys,
+			PayloadSizeDistribution payload) {
+		int roll = ThreadLocalRandom.current().nextInt(100);
+		if (roll < 5) {
+			listener.onEvent(adminEvent(keys.next(), payload.next()), true);
+			return;
+		}
+		Event event = new Event();
+		event.setId(Long.toString(sequence));
+		event.setTime(System.currentTimeMillis());
+		event.setRealmId("loadgen");
+		event.setClientId("account-console");
+		event.setUserId(keys.next());
+		event.setIpAddress("10.0.0." + (sequence % 250));
+		Map<String, String> details = new HashMap<>();
+		details.put("email", "user" + (sequence % 100_000) + "@example.com");
+		details.put("padding", PayloadSizeDistribution.filler(payload.next()));
+		if (roll < 8) {
+			event.setType(EventType.REGISTER);
+			details.put("first_name", "Load");
+			details.put("last_name", "Generator");
+		} else if (roll < 10) {
+			event.setType(EventType.VERIFY_EMAIL);
+		} else if (roll < 80) {
+			event.setType(EventType.LOGIN);
+		} else if (roll < 90) {
+			event.setType(EventType.CODE_TO_TOKEN);
+		} else {
+			event.setType(EventType.LOGOUT);
+		}
+		event.setDetails(details);
+		listener.onEvent(event);
+	}
+
+	private static AdminEvent adminEvent(String userId, int payloadSize) {
+		AdminEvent event = new AdminEvent();
+		event.setTime(System.currentTimeMillis());
+		event.setRealmId("loadgen");
+		AuthDetails auth = new AuthDetails();
+		auth.setRealmId("master");
+		auth.setUserId("admin");
+		event.setAuthDetails(auth);
+		event.setOperationType(OperationType.UPDATE);
+		event.setResourceType(ResourceType.USER);
+		event.setResourcePath("users/" + userId);
+		event.setRepresentation("{\"id\":\"" + userId + "\",\"attributes\":\""
+				+ PayloadSizeDistribution.filler(payloadSize) + "\"}");
+		return event;
+	}
+
+	private String option(String name, String defaultValue) {
+		return options.getOrDefault(name, defaultValue);
+	}
+
+	private interface LoadStep {
+		void apply(long sequence) throws Exception;
+	}
+}
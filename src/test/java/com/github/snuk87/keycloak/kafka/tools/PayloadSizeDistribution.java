@@ -0,0 +1,58 @@
+package com.github.snuk87.keycloak.kafka.tools;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Payload size distribution parsed from {@code fixed:256}, {@code uniform:64-2048} or
+ * {@code normal:512/128}.
+ */
+public class PayloadSizeDistribution {
+
+	private final String kind;
+	private final int a;
+	private final int b;
+
+	private PayloadSizeDistribution(String kind, int a, int b) {
+		this.kind = kind;
+		this.a = a;
+		this.b = b;
+	}
+
+	public static PayloadSizeDistribution parse(String spec) {
+		String[] parts = spec.split(":", 2);
+		switch (parts[0]) {
+			case "fixed":
+				return new PayloadSizeDistribution("fixed", Integer.parseInt(parts[1]), 0);
+			case "uniform": {
+				String[] range = parts[1].split("-");
+				return new PayloadSizeDistribution("uniform", Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+			}
+			case "normal": {
+				String[] params = parts[1].split("/");
+				return new PayloadSizeDistribution("normal", Integer.parseInt(params[0]), Integer.parseInt(params[1]));
+			}
+			default:
+				throw new IllegalArgumentException("Unknown payload distribution: " + spec);
+		}
+	}
+
+	public int next() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		switch (kind) {
+			case "uniform":
+				return random.nextInt(a, b + 1);
+			case "normal":
+				return Math.max(0, (int) Math.round(a + random.nextGaussian() * b));
+			default:
+				return a;
+		}
+	}
+
+	public static String filler(int size) {
+		char[] chars = new char[size];
+		for (int i = 0; i < size; i++) {
+			chars[i] = (char) ('a' + i % 26);
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,37 @@
+package com.github.snuk87.keycloak.kafka.tools;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples user ids from a fixed population with a Zipf distribution. An exponent of 0 gives a uniform
+ * distribution, around 1 a typical "few hot users" production skew.
+ */
+public class ZipfKeySampler {
+
+	private final String[] keys;
+	private final double[] cumulative;
+
+	public ZipfKeySampler(int population, double exponent) {
+		keys = new String[population];
+		cumulative = new double[population];
+		double sum = 0;
+		for (int i = 0; i < population; i++) {
+			keys[i] = UUID.randomUUID().toString();
+			sum += 1.0 / Math.pow(i + 1, exponent);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < population; i++) {
+			cumulative[i] /= sum;
+		}
+	}
+
+	public String next() {
+		int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return keys[Math.min(index, keys.length - 1)];
+	}
+}